@@ -0,0 +1,79 @@
+package info.magnolia.ai.benchmark;
+
+import info.magnolia.ai.cache.ArrayCache;
+import info.magnolia.ai.cache.ArrayCodec;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and writing entries of an {@link ArrayCache}, cycling through a fixed set of keys, with each codec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArrayCacheBenchmark {
+
+    private static final int KEYS = 1024;
+
+    /**
+     * Length of the cached arrays: the output of {@code fc2} for one image, or 0 for empty (failure) markers.
+     */
+    @Param({"4096", "0"})
+    public int length;
+
+    @Param({"FLOAT32", "FLOAT16", "INT8"})
+    public ArrayCodec codec;
+
+    private ArrayCache cache;
+    private INDArray array;
+    private final String[] keys = new String[KEYS];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        cache = new ArrayCache("custom-image-recognition-benchmark", codec);
+        array = length == 0 ? Nd4j.empty() : Nd4j.rand(1, length);
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "http://example.com/images/" + i + ".jpg";
+            cache.put(keys[i], array);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.clear();
+    }
+
+    private String nextKey() {
+        return keys[next++ % KEYS];
+    }
+
+    @Benchmark
+    public Optional<INDArray> get() {
+        return cache.get(nextKey());
+    }
+
+    @Benchmark
+    public void put() {
+        cache.put(nextKey(), array);
+    }
+}
@@ -0,0 +1,49 @@
+package info.magnolia.ai.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.deeplearning4j.nn.transferlearning.TransferLearningHelper;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Running a batch of images through the frozen part of the network (VGG16 up to {@code fc2}), as done for every
+ * image not featurized yet. Divide by the batch size for the time per image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "-Dorg.bytedeco.javacpp.maxbytes=4g", "-Dorg.bytedeco.javacpp.maxphysicalbytes=5g"})
+public class FeaturizeBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int batchSize;
+
+    private TransferLearningHelper transferHelper;
+    private DataSet batch;
+
+    @Setup
+    public void setUp() {
+        transferHelper = new TransferLearningHelper(SyntheticInputs.transferNetwork(10));
+        batch = new DataSet(Nd4j.rand(new int[]{batchSize, 3, 224, 224}).subi(0.5).muli(200), null);
+    }
+
+    @Benchmark
+    public INDArray featurize() {
+        return transferHelper.featurize(batch).getFeatures();
+    }
+}
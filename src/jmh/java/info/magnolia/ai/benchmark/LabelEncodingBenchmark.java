@@ -0,0 +1,64 @@
+package info.magnolia.ai.benchmark;
+
+import info.magnolia.ai.ImageTable;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding the labels of a batch of images into a multi-hot label matrix, as the
+ * {@link info.magnolia.ai.ImageNetDataFetcher} does for every batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LabelEncodingBenchmark {
+
+    private static final int IMAGES = 100_000;
+    private static final int BATCH_SIZE = 50;
+
+    @Param({"10", "100", "1000"})
+    public int numLabels;
+
+    private ImageTable images;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        ImageTable.Builder builder = new ImageTable.Builder();
+        for (int i = 0; i < IMAGES; i++) {
+            // some images belong to two labels
+            int[] ids = random.nextInt(10) == 0
+                    ? new int[]{random.nextInt(numLabels), random.nextInt(numLabels)}
+                    : new int[]{random.nextInt(numLabels)};
+            builder.add("http://example.com/images/" + i + ".jpg", ids);
+        }
+        images = builder.build();
+    }
+
+    @Benchmark
+    public INDArray encodeBatch() {
+        INDArray labels = Nd4j.zeros(BATCH_SIZE, numLabels);
+        for (int row = 0; row < BATCH_SIZE; row++) images.writeLabels(cursor + row, labels, row);
+        cursor = (cursor + BATCH_SIZE) % (IMAGES - BATCH_SIZE);
+        return labels;
+    }
+}
@@ -0,0 +1,105 @@
+package info.magnolia.ai.benchmark;
+
+import info.magnolia.ai.image.ImageDecoder;
+import info.magnolia.ai.image.InputBatch;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.datavec.image.loader.NativeImageLoader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.preprocessor.VGG16ImagePreProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Turning an encoded image into network input: decoding and resizing it with {@link NativeImageLoader}, either
+ * directly or via {@link ImageIO}, and normalizing it with the {@link VGG16ImagePreProcessor}; or all of it at once
+ * into a reused tensor with the {@link ImageDecoder}, as training and the {@link info.magnolia.ai.detect.Recognizer}
+ * do; or just converting stored pixels, as training does with the pixel store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PreProcessingBenchmark {
+
+    /**
+     * Size of the encoded image, width x height; ImageNet images are about 500 x 375 on average.
+     */
+    @Param({"500x375", "1600x1200"})
+    public String size;
+
+    private final NativeImageLoader imageLoader = new NativeImageLoader(224, 224, 3);
+    private final VGG16ImagePreProcessor preProcessor = new VGG16ImagePreProcessor();
+    private final ImageDecoder imageDecoder = new ImageDecoder(224, 224);
+    private final InputBatch inputs = imageDecoder.createPool(1, 1).take();
+    private byte[] jpeg;
+    private INDArray decoded;
+    private ByteBuffer pixels;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] dimensions = size.split("x");
+        jpeg = SyntheticInputs.jpeg(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]), 42);
+        decoded = imageLoader.asMatrix(new ByteArrayInputStream(jpeg));
+        ByteBuffer decodedPixels = imageDecoder.decode(jpeg);
+        pixels = ByteBuffer.allocateDirect(decodedPixels.remaining());
+        pixels.put(decodedPixels).flip();
+    }
+
+    @Benchmark
+    public INDArray decode() throws IOException {
+        return imageLoader.asMatrix(new ByteArrayInputStream(jpeg));
+    }
+
+    @Benchmark
+    public INDArray decodeViaImageIO() throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        return imageLoader.asMatrix(image);
+    }
+
+    /**
+     * Normalizes the same matrix over and over; values drift, but the work done stays the same.
+     */
+    @Benchmark
+    public INDArray preProcess() {
+        preProcessor.transform(decoded);
+        return decoded;
+    }
+
+    @Benchmark
+    public INDArray decodeAndPreProcess() throws IOException {
+        INDArray matrix = imageLoader.asMatrix(new ByteArrayInputStream(jpeg));
+        preProcessor.transform(matrix);
+        return matrix;
+    }
+
+    @Benchmark
+    public InputBatch decodeInto() throws IOException {
+        imageDecoder.decodeInto(jpeg, inputs, 0);
+        return inputs;
+    }
+
+    @Benchmark
+    public InputBatch writeInto() {
+        imageDecoder.writeInto(pixels, inputs, 0);
+        return inputs;
+    }
+}
@@ -0,0 +1,89 @@
+package info.magnolia.ai.benchmark;
+
+import info.magnolia.ai.cache.ShardedArrayCache;
+import info.magnolia.ai.detect.Recognition;
+import info.magnolia.ai.detect.Recognizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end latency of recognizing a batch of image files, from reading them to the top predictions; either running
+ * the whole network, or only its output layer, with features of all images already cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "-Dorg.bytedeco.javacpp.maxbytes=4g", "-Dorg.bytedeco.javacpp.maxphysicalbytes=5g"})
+public class RecognizerBenchmark {
+
+    private static final int NUM_LABELS = 10;
+
+    @Param({"1", "8"})
+    public int batchSize;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private File dir;
+    private List<Path> images;
+    private ShardedArrayCache featureCache;
+    private Recognizer recognizer;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("recognizer-benchmark").toFile();
+        images = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            Path image = new File(dir, i + ".jpg").toPath();
+            Files.write(image, SyntheticInputs.jpeg(500, 375, i));
+            images.add(image);
+        }
+
+        ComputationGraph network = SyntheticInputs.transferNetwork(NUM_LABELS);
+        List<String> labels = IntStream.range(0, NUM_LABELS).mapToObj(i -> "label" + i).collect(Collectors.toList());
+        if (cached) {
+            featureCache = new ShardedArrayCache("custom-image-recognition-benchmark-features", Recognizer.getFeatureLength(network));
+            recognizer = new Recognizer(network, labels, batchSize, 3, featureCache);
+            // populate the cache
+            recognizer.recognize(images);
+        } else {
+            recognizer = new Recognizer(network, labels, batchSize, 3);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (featureCache != null) featureCache.clear();
+        for (Path image : images) image.toFile().delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public List<Recognition> recognize() {
+        return recognizer.recognize(images);
+    }
+}
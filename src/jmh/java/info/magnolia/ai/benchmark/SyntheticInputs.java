@@ -0,0 +1,77 @@
+package info.magnolia.ai.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.deeplearning4j.nn.conf.distribution.NormalDistribution;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.transferlearning.TransferLearning;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.deeplearning4j.zoo.model.VGG16;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+/**
+ * Inputs for benchmarks which need neither network access nor pre-trained weights.
+ */
+final class SyntheticInputs {
+
+    /**
+     * Name of VGG16's {@code fc2} layer when not loading the pre-trained model.
+     */
+    private static final String FC2 = "19";
+    private static final String PREDICTIONS = "20";
+
+    private SyntheticInputs() {
+    }
+
+    /**
+     * The transfer network as trained by the {@link info.magnolia.ai.NetworkManager}, but with random weights: VGG16
+     * frozen up to {@code fc2}, with a new output layer for the given number of labels. Takes as long to run as the
+     * real one.
+     */
+    static ComputationGraph transferNetwork(int numLabels) {
+        ComputationGraph vgg16 = (ComputationGraph) VGG16.builder().numClasses(1000).build().init();
+        return new TransferLearning.GraphBuilder(vgg16)
+                .setFeatureExtractor(FC2)
+                .removeVertexKeepConnections(PREDICTIONS)
+                .addLayer(PREDICTIONS,
+                        new OutputLayer.Builder(LossFunctions.LossFunction.SQUARED_LOSS)
+                                .nIn(4096).nOut(numLabels)
+                                .weightInit(WeightInit.DISTRIBUTION)
+                                .dist(new NormalDistribution(0, 0.2 * (2.0 / (4096 + numLabels))))
+                                .activation(Activation.TANH)
+                                .build(), FC2)
+                .build();
+    }
+
+    /**
+     * A JPEG of the given size: a colour gradient plus noise, so it compresses about like a photo.
+     */
+    static byte[] jpeg(int width, int height, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = 255 * x / width;
+                int g = 255 * y / height;
+                int b = random.nextInt(256);
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "jpg", bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,125 @@
+package info.magnolia.ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Takes {@link HeadCheckpoint}s of a head in training and writes them to a directory, keeping only the latest few.
+ * <p>
+ * Parameters and updater state are copied on the training thread, which takes a moment only, while writing happens in
+ * the background. Checkpoints are written one at a time and in order; if the previous one is still being written when
+ * the next one is taken, taking it waits.
+ */
+public class Checkpointer implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(Checkpointer.class);
+
+    private static final String FILE_FORMAT = "checkpoint-%05d.bin";
+
+    private final File dir;
+    private final int keep;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "checkpoint-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> pending;
+
+    /**
+     * @param keep number of latest checkpoints to keep, older ones are deleted
+     */
+    public Checkpointer(File dir, int keep) {
+        this.dir = dir;
+        this.keep = keep;
+    }
+
+    /**
+     * Take a checkpoint of the given head (e.g. a transfer helper's unfrozen graph) after the given epoch.
+     */
+    public void checkpoint(int epoch, List<Label> labels, ComputationGraph head) {
+        checkpoint(epoch, labels, head, -1, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Take a checkpoint of the given head (e.g. a transfer helper's unfrozen graph) after the given epoch, along with
+     * the best evaluation so far, see {@link EarlyStopping}.
+     */
+    public void checkpoint(int epoch, List<Label> labels, ComputationGraph head, int bestEpoch, double bestScore) {
+        INDArray updaterState = head.getUpdater().getStateViewArray();
+        HeadCheckpoint checkpoint = new HeadCheckpoint(epoch, labels, head.params().dup(),
+                updaterState == null ? null : updaterState.dup(), bestEpoch, bestScore);
+
+        awaitPending();
+        pending = writer.submit(() -> write(checkpoint));
+    }
+
+    private void write(HeadCheckpoint checkpoint) {
+        File file = new File(dir, String.format(FILE_FORMAT, checkpoint.getEpoch()));
+        try {
+            dir.mkdirs();
+            checkpoint.write(file);
+            log.info("Stored checkpoint to: {}", file.getAbsolutePath());
+        } catch (IOException e) {
+            log.error("Failed to store checkpoint: {}", file, e);
+            return;
+        }
+
+        List<File> checkpoints = list();
+        for (File old : checkpoints.subList(0, Math.max(checkpoints.size() - keep, 0))) {
+            if (!old.delete()) log.warn("Failed to delete old checkpoint: {}", old);
+        }
+    }
+
+    /**
+     * Checkpoint files in the directory, oldest first.
+     */
+    public List<File> list() {
+        File[] files = dir.listFiles((parent, name) -> name.matches("checkpoint-\\d+\\.bin"));
+        if (files == null) return Collections.emptyList();
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        return Arrays.asList(files);
+    }
+
+    public Optional<File> latest() {
+        List<File> checkpoints = list();
+        return checkpoints.isEmpty() ? Optional.empty() : Optional.of(checkpoints.get(checkpoints.size() - 1));
+    }
+
+    private void awaitPending() {
+        if (pending == null) return;
+        try {
+            pending.get();
+        } catch (Exception e) {
+            log.error("Failed to store checkpoint", e);
+        }
+        pending = null;
+    }
+
+    /**
+     * Wait for the checkpoint being written, if any.
+     */
+    @Override
+    public void close() {
+        awaitPending();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
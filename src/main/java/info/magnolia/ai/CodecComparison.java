@@ -0,0 +1,114 @@
+package info.magnolia.ai;
+
+import info.magnolia.ai.cache.ArrayCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.evaluation.classification.Evaluation;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks what reduced precision of featurized samples costs in accuracy: trains copies of the same initial head on the
+ * samples as encoded and decoded by each {@link ArrayCodec}, for a fixed number of epochs, and evaluates every copy on
+ * the equally encoded test samples.
+ * <p>
+ * Heads are trained on a single worker, and samples are visited in the same order for every codec, so that the only
+ * difference between runs is the precision of the samples.
+ */
+public class CodecComparison {
+
+    private static final Logger log = LoggerFactory.getLogger(CodecComparison.class);
+
+    private final ComputationGraph initialHead;
+    private final List<String> labels;
+    private final int topN;
+    private final int epochs;
+    private final BiFunction<FeaturizedStore, Boolean, DataSetIterator> iterators;
+
+    /**
+     * @param head head to train copies of, in its current state
+     * @param iterators creates an iterator over a store, shuffling or not; with the same order for stores of the same
+     * samples
+     */
+    public CodecComparison(ComputationGraph head, List<String> labels, int topN, int epochs,
+                           BiFunction<FeaturizedStore, Boolean, DataSetIterator> iterators) {
+        this.initialHead = head.clone();
+        this.labels = labels;
+        this.topN = topN;
+        this.epochs = epochs;
+        this.iterators = iterators;
+    }
+
+    /**
+     * Train and evaluate a head for every codec; stores of other codecs than the given ones' are written to temporary
+     * files in the given directory.
+     */
+    public Map<ArrayCodec, Evaluation> compare(FeaturizedStore train, FeaturizedStore test, File workDir) throws IOException {
+        if (train.getCodec() != ArrayCodec.FLOAT32 || test.getCodec() != ArrayCodec.FLOAT32)
+            throw new IllegalArgumentException("Codecs can only be compared on samples at full precision");
+
+        Map<ArrayCodec, Evaluation> evaluations = new EnumMap<>(ArrayCodec.class);
+        for (ArrayCodec codec : ArrayCodec.values()) {
+            if (codec == ArrayCodec.FLOAT32) {
+                evaluations.put(codec, trainAndEvaluate(train, test));
+                continue;
+            }
+
+            File trainFile = new File(workDir, "codec-comparison-train." + codec);
+            File testFile = new File(workDir, "codec-comparison-test." + codec);
+            try (FeaturizedStore encodedTrain = FeaturizedStore.write(trainFile, iterators.apply(train, false), codec);
+                 FeaturizedStore encodedTest = FeaturizedStore.write(testFile, iterators.apply(test, false), codec)) {
+                evaluations.put(codec, trainAndEvaluate(encodedTrain, encodedTest));
+            } finally {
+                trainFile.delete();
+                testFile.delete();
+            }
+        }
+        return evaluations;
+    }
+
+    private Evaluation trainAndEvaluate(FeaturizedStore train, FeaturizedStore test) {
+        ComputationGraph head = initialHead.clone();
+        DataSetIterator trainIterator = iterators.apply(train, true);
+        try (ParallelTrainer trainer = new ParallelTrainer(head, 1, 1)) {
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                trainIterator.reset();
+                trainer.fit(trainIterator);
+            }
+        } finally {
+            // stops prefetching, without closing the store
+            trainIterator.reset();
+        }
+
+        DataSetIterator testIterator = iterators.apply(test, false);
+        try {
+            Evaluation evaluation = head.evaluate(testIterator, labels, topN);
+            log.info("Evaluated head trained on {}: top-1 accuracy {}, top-{} accuracy {}", train, evaluation.accuracy(), topN,
+                    evaluation.topNAccuracy());
+            return evaluation;
+        } finally {
+            testIterator.reset();
+        }
+    }
+
+    /**
+     * Table of the codecs' bytes per vector and accuracies, relative to those of {@link ArrayCodec#FLOAT32}.
+     */
+    public static String report(Map<ArrayCodec, Evaluation> evaluations, int featureLength, int topN) {
+        Evaluation reference = evaluations.get(ArrayCodec.FLOAT32);
+        StringBuilder report = new StringBuilder(String.format("%-8s %10s %8s %8s %8s %8s%n", "codec", "bytes", "top-1", "diff",
+                "top-" + topN, "diff"));
+        evaluations.forEach((codec, evaluation) -> report.append(String.format("%-8s %10d %8.4f %+8.4f %8.4f %+8.4f%n", codec,
+                codec.recordBytes(featureLength), evaluation.accuracy(), evaluation.accuracy() - reference.accuracy(),
+                evaluation.topNAccuracy(), evaluation.topNAccuracy() - reference.topNAccuracy())));
+        return report.toString();
+    }
+}
@@ -1,8 +1,31 @@
 package info.magnolia.ai;
 
+import info.magnolia.ai.metrics.MetricsWriter;
+
+import java.io.File;
+import java.util.Optional;
+
 public class CustomImageRec {
+
+    private static final int COMPARISON_EPOCHS = 10;
+
+    /**
+     * Usage: no arguments to train from scratch, {@code resume <checkpoint>} to continue training,
+     * {@code export <checkpoint>} to store the full model of a checkpoint, or {@code compare-codecs [<epochs>]} to check
+     * the accuracy of heads trained on reduced precision samples. Metrics are written to the file given by
+     * {@code -Dmetrics.file=...}, if any.
+     */
     public static void main(String[] args) {
-        TrainingOrganizer trainer = new TrainingOrganizer();
-        trainer.train();
+        Optional<MetricsWriter> metricsWriter = MetricsWriter.fromSystemProperties();
+        try {
+            TrainingOrganizer trainer = new TrainingOrganizer();
+            if (args.length == 2 && args[0].equals("resume")) trainer.train(new File(args[1]));
+            else if (args.length == 2 && args[0].equals("export")) trainer.export(new File(args[1]));
+            else if (args.length >= 1 && args[0].equals("compare-codecs"))
+                trainer.compareCodecs(args.length == 2 ? Integer.parseInt(args[1]) : COMPARISON_EPOCHS);
+            else trainer.train();
+        } finally {
+            metricsWriter.ifPresent(MetricsWriter::close);
+        }
     }
 }
@@ -0,0 +1,106 @@
+package info.magnolia.ai;
+
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Decides when to stop training, based on an evaluation score (higher is better) recorded after every epoch: once it
+ * has not improved by at least {@code minDelta} for {@code patience} epochs, or once another epoch would likely exceed
+ * the time budget.
+ */
+public class EarlyStopping {
+
+    private final int patience;
+    private final double minDelta;
+    private final Duration timeBudget;
+    private final Clock clock;
+
+    private long start;
+    private long lastRecord;
+    private long longestEpoch;
+    private int epochs;
+    private int bestEpoch = -1;
+    private double bestScore = Double.NEGATIVE_INFINITY;
+    private String reason;
+
+    /**
+     * @param timeBudget max. time from {@link #start} until the last epoch is done, or {@code null} for unlimited
+     */
+    public EarlyStopping(int patience, double minDelta, Duration timeBudget) {
+        this(patience, minDelta, timeBudget, Clock.systemUTC());
+    }
+
+    EarlyStopping(int patience, double minDelta, Duration timeBudget, Clock clock) {
+        this.patience = patience;
+        this.minDelta = minDelta;
+        this.timeBudget = timeBudget;
+        this.clock = clock;
+        start();
+    }
+
+    /**
+     * (Re)start the clock, e.g. right before the first epoch.
+     */
+    public void start() {
+        start = clock.millis();
+        lastRecord = start;
+    }
+
+    /**
+     * Continue from an earlier run, e.g. when resuming from a {@link HeadCheckpoint}, so that patience is not reset.
+     *
+     * @param epochs number of epochs of the earlier run(s), i.e. the number of the next one
+     * @param bestEpoch number of the epoch with the best score, or -1 if none
+     */
+    public void resume(int epochs, int bestEpoch, double bestScore) {
+        this.epochs = epochs;
+        this.bestEpoch = bestEpoch;
+        this.bestScore = bestEpoch < 0 ? Double.NEGATIVE_INFINITY : bestScore;
+    }
+
+    /**
+     * Record the score after an epoch.
+     *
+     * @return whether it is the best so far (by at least the min. delta), i.e. worth keeping
+     */
+    public boolean record(double score) {
+        long now = clock.millis();
+        longestEpoch = Math.max(longestEpoch, now - lastRecord);
+        lastRecord = now;
+
+        boolean improved = score >= bestScore + minDelta || bestEpoch < 0;
+        if (improved) {
+            bestScore = score;
+            bestEpoch = epochs;
+        }
+        epochs++;
+
+        if (epochs - 1 - bestEpoch >= patience)
+            reason = String.format("no improvement by %s for %s epochs", minDelta, patience);
+        else if (timeBudget != null && now - start + longestEpoch > timeBudget.toMillis())
+            reason = String.format("another epoch would exceed the time budget of %s", timeBudget);
+        return improved;
+    }
+
+    public boolean shouldStop() {
+        return reason != null;
+    }
+
+    /**
+     * Why training should stop, or {@code null} if it should not.
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    public double getBestScore() {
+        return bestScore;
+    }
+
+    /**
+     * Number of the recorded epoch (counting from 0) with the best score, or -1 if none was recorded yet.
+     */
+    public int getBestEpoch() {
+        return bestEpoch;
+    }
+}
@@ -1,12 +1,13 @@
 package info.magnolia.ai;
 
-import info.magnolia.ai.cache.ArrayCache;
-import info.magnolia.ai.cache.FileSystemCache;
+import info.magnolia.ai.cache.Cache;
+import info.magnolia.ai.metrics.Counter;
+import info.magnolia.ai.metrics.Metrics;
+import info.magnolia.ai.metrics.Timer;
 
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 
 import org.deeplearning4j.nn.transferlearning.TransferLearningHelper;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -15,36 +16,60 @@ import org.nd4j.linalg.factory.Nd4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import net.sf.extjwnl.data.IndexWord;
-
 public class FeaturizedFetcher extends ImageNetDataFetcher {
 
-    private static final Logger log = LoggerFactory.getLogger(ImageNetDataFetcher.class);
+    private static final Logger log = LoggerFactory.getLogger(FeaturizedFetcher.class);
+
+    private static final Counter featurizedCacheHits = Metrics.counter("cache.featurized.hits");
+    private static final Counter featurizedCacheMisses = Metrics.counter("cache.featurized.misses");
+    /**
+     * Per minibatch.
+     */
+    private static final Timer featurizeTimer = Metrics.timer("featurize");
 
     private final TransferLearningHelper transferHelper;
-    private final FileSystemCache featurizedCache = new ArrayCache("custom-image-recognition-samples_featurized");
+    private final Cache<INDArray> featurizedCache;
 
-    public FeaturizedFetcher(Map<String, Set<IndexWord>> images, List<IndexWord> labels, TransferLearningHelper transferHelper) {
-        super(images, labels);
+    /**
+     * @param featurizeBatchSize max. number of images run through the frozen layers at once
+     */
+    public FeaturizedFetcher(ImageTable images, List<Label> labels, TransferLearningHelper transferHelper, Cache<INDArray> featurizedCache,
+                             int featurizeBatchSize) {
+        this(images, labels, transferHelper, featurizedCache, featurizeBatchSize, null);
+    }
+
+    /**
+     * @param featurizeBatchSize max. number of images run through the frozen layers at once
+     * @param pixelStore store for decoded images, so that featurizing them again (e.g. for a different cut-off layer)
+     * needs no downloading and decoding, or {@code null}
+     */
+    public FeaturizedFetcher(ImageTable images, List<Label> labels, TransferLearningHelper transferHelper, Cache<INDArray> featurizedCache,
+                             int featurizeBatchSize, Cache<ByteBuffer> pixelStore) {
+        super(images, labels, featurizeBatchSize, pixelStore);
         this.transferHelper = transferHelper;
+        this.featurizedCache = featurizedCache;
     }
 
     @Override
-    protected Optional<DataSet> fetchImage(String url) {
+    protected Optional<Sample> lookUpCached(String url) {
         // featurized arrays are much smaller than image ones, thus faster to load, so check them first
         final Optional<INDArray> featurizedCached = featurizedCache.get(url);
+        (featurizedCached.isPresent() ? featurizedCacheHits : featurizedCacheMisses).increment();
         if (featurizedCached.isPresent()) {
             log.debug("Found featurized in cache: " + url);
-            return featurizedCached.map(data -> toDataSet(url, data));
+            return featurizedCached.map(data -> Sample.processed(url, data));
         }
 
-        return super.fetchImage(url)
-                .map(dataSet -> featurize(dataSet, url));
+        return super.lookUpCached(url);
     }
 
-    private DataSet featurize(DataSet input, String url) {
-        DataSet featurized = transferHelper.featurize(input);
-        featurizedCache.put(url, featurized.getFeatures());
+    @Override
+    protected INDArray process(List<String> urls, INDArray inputs) {
+        // one forward pass per minibatch rather than per image
+        long start = System.nanoTime();
+        INDArray featurized = transferHelper.featurize(new DataSet(inputs, null)).getFeatures();
+        featurizeTimer.recordSince(start);
+        for (int i = 0; i < urls.size(); i++) featurizedCache.put(urls.get(i), row(featurized, i));
         return featurized;
     }
 
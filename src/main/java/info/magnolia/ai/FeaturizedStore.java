@@ -0,0 +1,254 @@
+package info.magnolia.ai;
+
+import info.magnolia.ai.cache.ArrayCodec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File of featurized samples in fixed-length records, for streaming them (see {@link StreamingDataSetIterator}) rather
+ * than holding them all in memory.
+ * <p>
+ * Every record holds a sample's features, encoded with the store's {@link ArrayCodec} (in little-endian order), followed
+ * by its (multi-hot) labels as a bit set, padded to whole floats. Samples are read by record number through positional
+ * reads, so the file may be much larger than memory.
+ * <p>
+ * The header carries a fingerprint of the inputs the samples were made from (e.g. images and labels), to tell whether
+ * the store can be reused for them.
+ */
+public class FeaturizedStore implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(FeaturizedStore.class);
+
+    private static final int MAGIC = 0x4D465333; // "MFS3"
+    private static final int FINGERPRINT_BYTES = 32;
+    private static final int HEADER_BYTES = 20 + FINGERPRINT_BYTES;
+
+    private final FileChannel channel;
+    private final int featureLength;
+    private final int numOutcomes;
+    private final int size;
+    private final ArrayCodec codec;
+    private final byte[] fingerprint;
+
+    private FeaturizedStore(FileChannel channel, int featureLength, int numOutcomes, int size, ArrayCodec codec, byte[] fingerprint) {
+        this.channel = channel;
+        this.featureLength = featureLength;
+        this.numOutcomes = numOutcomes;
+        this.size = size;
+        this.codec = codec;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Pull all samples through the given iterator (which e.g. featurizes them on the way) and write them to the file,
+     * at full precision.
+     */
+    public static FeaturizedStore write(File file, DataSetIterator source) throws IOException {
+        return write(file, source, ArrayCodec.FLOAT32);
+    }
+
+    /**
+     * Pull all samples through the given iterator (which e.g. featurizes them on the way) and write them to the file,
+     * encoding features with the given codec.
+     */
+    public static FeaturizedStore write(File file, DataSetIterator source, ArrayCodec codec) throws IOException {
+        return write(file, source, codec, new byte[FINGERPRINT_BYTES]);
+    }
+
+    /**
+     * Pull all samples through the given iterator (which e.g. featurizes them on the way) and write them to the file,
+     * encoding features with the given codec.
+     *
+     * @param fingerprint SHA-256 hash of the inputs, see {@link #getFingerprint}
+     */
+    public static FeaturizedStore write(File file, DataSetIterator source, ArrayCodec codec, byte[] fingerprint) throws IOException {
+        if (fingerprint.length != FINGERPRINT_BYTES)
+            throw new IllegalArgumentException("Fingerprint must be " + FINGERPRINT_BYTES + " bytes, not " + fingerprint.length);
+        source.reset();
+        int featureLength = -1;
+        int numOutcomes = source.totalOutcomes();
+        int size = 0;
+
+        file.getParentFile().mkdirs();
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile output = new RandomAccessFile(tempFile, "rw")) {
+            output.setLength(0);
+            output.seek(HEADER_BYTES);
+            try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(unclosable(output), 1 << 16))) {
+                while (source.hasNext()) {
+                    DataSet batch = source.next();
+                    if (batch == null || batch.getFeatures() == null) continue;
+                    INDArray features = batch.getFeatures();
+                    if (featureLength < 0) featureLength = (int) features.size(1);
+                    writeRecords(stream, features, batch.getLabels(), featureLength, numOutcomes, codec);
+                    size += features.size(0);
+                }
+            }
+            output.seek(0);
+            output.writeInt(MAGIC);
+            output.writeInt(Math.max(featureLength, 0));
+            output.writeInt(numOutcomes);
+            output.writeInt(size);
+            output.writeInt(codec.getId());
+            output.write(fingerprint);
+        }
+        source.reset();
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        log.info("Wrote {} featurized samples to: {}", size, file);
+
+        return open(file);
+    }
+
+    private static void writeRecords(DataOutputStream stream, INDArray features, INDArray labels, int featureLength, int numOutcomes,
+                                     ArrayCodec codec) throws IOException {
+        // one bulk copy per batch rather than one native call per value
+        float[] featureValues = features.dup('c').data().asFloat();
+        float[] labelValues = labels.dup('c').data().asFloat();
+        ByteBuffer record = ByteBuffer.allocate(recordBytes(featureLength, numOutcomes, codec)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int row = 0; row < features.size(0); row++) {
+            Arrays.fill(record.array(), (byte) 0);
+            record.clear();
+            codec.encode(featureValues, row * featureLength, featureLength, record);
+            int labelsStart = codec.recordBytes(featureLength);
+            for (int i = 0; i < numOutcomes; i++) {
+                if (labelValues[row * numOutcomes + i] > 0.5f) {
+                    int index = labelsStart + i / 8;
+                    record.put(index, (byte) (record.get(index) | 1 << (i % 8)));
+                }
+            }
+            stream.write(record.array());
+        }
+    }
+
+    public static FeaturizedStore open(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) if (channel.read(header) < 0) throw new EOFException("Truncated header: " + file);
+            header.flip();
+            if (header.getInt() != MAGIC) throw new IOException("Not a featurized store: " + file);
+            int featureLength = header.getInt();
+            int numOutcomes = header.getInt();
+            int size = header.getInt();
+            ArrayCodec codec = ArrayCodec.forId((byte) header.getInt());
+            byte[] fingerprint = new byte[FINGERPRINT_BYTES];
+            header.get(fingerprint);
+            FeaturizedStore store = new FeaturizedStore(channel, featureLength, numOutcomes, size, codec, fingerprint);
+            if (channel.size() < HEADER_BYTES + (long) store.size * store.getRecordBytes())
+                throw new EOFException("Truncated featurized store: " + file);
+            return store;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getFeatureLength() {
+        return featureLength;
+    }
+
+    public int getNumOutcomes() {
+        return numOutcomes;
+    }
+
+    public ArrayCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Fingerprint of the inputs the samples were made from, as given when writing the store (all zeros if none).
+     */
+    public byte[] getFingerprint() {
+        return fingerprint.clone();
+    }
+
+    public int getRecordBytes() {
+        return recordBytes(featureLength, numOutcomes, codec);
+    }
+
+    /**
+     * Read consecutive records into the given buffer (from its position on), which must have room for all of them.
+     * Safe to call from multiple threads.
+     */
+    public void read(int firstRecord, int count, ByteBuffer buffer) throws IOException {
+        if (firstRecord < 0 || count < 0 || firstRecord + count > size)
+            throw new IndexOutOfBoundsException(String.format("Records [%s, %s) out of [0, %s)", firstRecord, firstRecord + count, size));
+
+        ByteBuffer target = buffer.duplicate();
+        target.limit(target.position() + count * getRecordBytes());
+        long position = HEADER_BYTES + (long) firstRecord * getRecordBytes();
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position);
+            if (read < 0) throw new EOFException("Unexpected end of featurized store");
+            position += read;
+        }
+    }
+
+    /**
+     * Copy the features and labels of a record in the given buffer (at the given byte offset) into a batch's rows.
+     */
+    void decode(ByteBuffer records, int offset, float[] features, float[] labels, int row) {
+        ByteBuffer record = records.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        record.position(offset);
+        codec.decode(record, features, row * featureLength, featureLength);
+
+        int labelsStart = offset + codec.recordBytes(featureLength);
+        for (int i = 0; i < numOutcomes; i++) {
+            if ((record.get(labelsStart + i / 8) & 1 << (i % 8)) != 0) labels[row * numOutcomes + i] = 1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FeaturizedStore (%s samples of %s %s features, %s outcomes)", size, featureLength, codec, numOutcomes);
+    }
+
+    private static int recordBytes(int featureLength, int numOutcomes, ArrayCodec codec) {
+        int labelFloats = (numOutcomes + 8 * Float.BYTES - 1) / (8 * Float.BYTES);
+        return codec.recordBytes(featureLength) + labelFloats * Float.BYTES;
+    }
+
+    /**
+     * Stream onto the file at its current position, without closing it along with the stream.
+     */
+    private static OutputStream unclosable(RandomAccessFile file) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                file.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                file.write(b, off, len);
+            }
+        };
+    }
+}
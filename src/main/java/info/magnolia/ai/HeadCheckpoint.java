@@ -0,0 +1,127 @@
+package info.magnolia.ai;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * State of training the head (i.e. the unfrozen part of the network) after some epoch: its parameters, its updater
+ * state, the labels it is trained for and the best evaluation so far (see {@link EarlyStopping}). Together with the
+ * pre-trained network, this is enough to resume training or to assemble the full model.
+ */
+public class HeadCheckpoint {
+
+    private static final int MAGIC = 0x4D484332; // "MHC2"
+
+    private final int epoch;
+    private final List<Label> labels;
+    private final INDArray params;
+    /**
+     * {@code null} if the updater has no state.
+     */
+    private final INDArray updaterState;
+    /**
+     * -1 if no epoch was evaluated yet.
+     */
+    private final int bestEpoch;
+    private final double bestScore;
+
+    public HeadCheckpoint(int epoch, List<Label> labels, INDArray params, INDArray updaterState) {
+        this(epoch, labels, params, updaterState, -1, Double.NEGATIVE_INFINITY);
+    }
+
+    public HeadCheckpoint(int epoch, List<Label> labels, INDArray params, INDArray updaterState, int bestEpoch, double bestScore) {
+        this.epoch = epoch;
+        this.labels = labels;
+        this.params = params;
+        this.updaterState = updaterState;
+        this.bestEpoch = bestEpoch;
+        this.bestScore = bestScore;
+    }
+
+    /**
+     * Epoch after which the checkpoint was taken, i.e. training resumes with the next one.
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public List<Label> getLabels() {
+        return labels;
+    }
+
+    public INDArray getParams() {
+        return params;
+    }
+
+    public INDArray getUpdaterState() {
+        return updaterState;
+    }
+
+    /**
+     * Epoch with the best evaluation score up to this checkpoint, or -1 if none was evaluated.
+     */
+    public int getBestEpoch() {
+        return bestEpoch;
+    }
+
+    public double getBestScore() {
+        return bestScore;
+    }
+
+    public void write(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())))) {
+            stream.writeInt(MAGIC);
+            stream.writeInt(epoch);
+            stream.writeInt(bestEpoch);
+            stream.writeDouble(bestScore);
+            stream.writeInt(labels.size());
+            for (Label label : labels) {
+                stream.writeUTF(label.getLemma());
+                stream.writeInt(label.getSynsetIds().size());
+                for (String synsetId : label.getSynsetIds()) stream.writeUTF(synsetId);
+            }
+            Nd4j.write(params, stream);
+            stream.writeBoolean(updaterState != null);
+            if (updaterState != null) Nd4j.write(updaterState, stream);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static HeadCheckpoint read(File file) throws IOException {
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (stream.readInt() != MAGIC) throw new IOException("Not a head checkpoint: " + file);
+            int epoch = stream.readInt();
+            int bestEpoch = stream.readInt();
+            double bestScore = stream.readDouble();
+            int labelCount = stream.readInt();
+            List<Label> labels = new ArrayList<>(labelCount);
+            for (int i = 0; i < labelCount; i++) {
+                String lemma = stream.readUTF();
+                int synsetCount = stream.readInt();
+                List<String> synsetIds = new ArrayList<>(synsetCount);
+                for (int j = 0; j < synsetCount; j++) synsetIds.add(stream.readUTF());
+                labels.add(new Label(lemma, synsetIds));
+            }
+            INDArray params = Nd4j.read(stream);
+            INDArray updaterState = stream.readBoolean() ? Nd4j.read(stream) : null;
+            return new HeadCheckpoint(epoch, labels, params, updaterState, bestEpoch, bestScore);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HeadCheckpoint (epoch %s, %s labels, %s params)", epoch, labels.size(), params.length());
+    }
+}
@@ -0,0 +1,92 @@
+package info.magnolia.ai;
+
+import info.magnolia.ai.metrics.Metrics;
+import info.magnolia.ai.metrics.Timer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.evaluation.classification.Evaluation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * Evaluates a head either on the full test set, or - much cheaper - on a fixed sample of it, with up to
+ * {@code samplesPerLabel} samples per (first) label. The sample is drawn once, so scores of different epochs are
+ * comparable.
+ */
+public class HeadEvaluator {
+
+    private static final int OUTPUT_BATCH_SIZE = 256;
+
+    private static final Timer sampleTimer = Metrics.timer("evaluate.sample");
+    private static final Timer fullTimer = Metrics.timer("evaluate.full");
+
+    private final ComputationGraph head;
+    private final DataSetIterator testIterator;
+    private final List<String> labels;
+    private final int topN;
+    private final DataSet sample;
+
+    public HeadEvaluator(ComputationGraph head, DataSetIterator testIterator, List<String> labels, int topN, int samplesPerLabel) {
+        this.head = head;
+        this.testIterator = testIterator;
+        this.labels = labels;
+        this.topN = topN;
+        this.sample = drawStratified(testIterator, labels.size(), samplesPerLabel);
+    }
+
+    public int getSampleSize() {
+        return sample.numExamples();
+    }
+
+    public Evaluation evaluateSample() {
+        long start = System.nanoTime();
+        Evaluation evaluation = new Evaluation(labels, topN);
+        for (int from = 0; from < sample.numExamples(); from += OUTPUT_BATCH_SIZE) {
+            int to = Math.min(from + OUTPUT_BATCH_SIZE, sample.numExamples());
+            INDArray features = sample.getFeatures().get(NDArrayIndex.interval(from, to));
+            evaluation.eval(sample.getLabels().get(NDArrayIndex.interval(from, to)), head.outputSingle(features));
+        }
+        sampleTimer.recordSince(start);
+        return evaluation;
+    }
+
+    public Evaluation evaluateFull() {
+        long start = System.nanoTime();
+        Evaluation evaluation = head.evaluate(testIterator, labels, topN);
+        testIterator.reset();
+        fullTimer.recordSince(start);
+        return evaluation;
+    }
+
+    /**
+     * Take the first samples of every label (by their first label only), in a single pass.
+     */
+    static DataSet drawStratified(DataSetIterator iterator, int numLabels, int perLabel) {
+        int[] counts = new int[numLabels];
+        List<INDArray> features = new ArrayList<>();
+        List<INDArray> labels = new ArrayList<>();
+
+        iterator.reset();
+        while (iterator.hasNext()) {
+            DataSet batch = iterator.next();
+            INDArray firstLabels = Nd4j.argMax(batch.getLabels(), 1);
+            for (int row = 0; row < batch.numExamples(); row++) {
+                int label = firstLabels.getInt(row);
+                if (counts[label] >= perLabel) continue;
+                counts[label]++;
+                features.add(batch.getFeatures().getRow(row).dup());
+                labels.add(batch.getLabels().getRow(row).dup());
+            }
+        }
+        iterator.reset();
+
+        if (features.isEmpty()) throw new IllegalArgumentException("No samples to evaluate on");
+        return new DataSet(Nd4j.vstack(features), Nd4j.vstack(labels));
+    }
+}
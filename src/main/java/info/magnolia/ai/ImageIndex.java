@@ -1,18 +1,25 @@
 package info.magnolia.ai;
 
-import static java.util.stream.Collectors.toSet;
+import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
 
+import info.magnolia.ai.cache.Hashing;
 import info.magnolia.ai.cache.LinesCache;
+import info.magnolia.ai.download.Downloader;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.net.URL;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,36 +34,93 @@ public class ImageIndex {
 
     private static final Logger log = LoggerFactory.getLogger(ImageIndex.class);
 
-    private final List<String> availableSynsets;
+    private static final String LABELS_FILE = "labels-manual-short.txt";
+    private static final File SNAPSHOT_FILE = new File(System.getProperty("user.home") + File.separator + ".mgnl", "custom-image-recognition-index.snapshot");
+    private static final String SYNSET_LIST_URL = "http://www.image-net.org/api/text/imagenet.synset.obtain_synset_list";
+    private static final String SYNSET_URLS_URL = "http://www.image-net.org/api/text/imagenet.synset.geturls?wnid=";
+    /**
+     * URL lists are fetched by these threads, through at most {@value #MAX_CONNECTIONS_PER_HOST} connections at once.
+     */
+    private static final int FETCH_THREADS = 8;
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+    /**
+     * Cached URL lists are refetched after this, i.e. only those which are stale rather than all or none.
+     */
+    private static final Duration URL_LISTS_TTL = Duration.ofDays(30);
+
+    /**
+     * Only loaded when building the index rather than reading it from a snapshot.
+     */
+    private Set<String> availableSynsets;
     /**
      * Limit samples per label to reduce imbalance (and reduce training time)
      */
     private final int MAX_IMAGES_PER_LABEL = 1200;
     private final int MIN_IMAGES_PER_LABEL = 1000;
 
+    private final List<Label> labels;
+    private final ImageTable images;
+
+    private final LinesCache urlsCache = new LinesCache("imagenet-urls", URL_LISTS_TTL);
     /**
-     * Mapping from url to labels.
+     * Generous timeouts, as the ImageNet API can take a while to assemble URL lists.
      */
-    private final Map<String, Set<IndexWord>> images = new ConcurrentHashMap<>();
-
-    private final List<IndexWord> labels;
-
-    private final LinesCache urlsCache = new LinesCache("imagenet-urls");
+    private final Downloader downloader = new Downloader(FETCH_THREADS, MAX_CONNECTIONS_PER_HOST, 10000, 60000, 64 * 1024 * 1024);
 
+    /**
+     * Reads the index from a snapshot if there is an up-to-date one, otherwise builds it (and stores a snapshot).
+     */
     public ImageIndex() {
-        availableSynsets = fetchLines("http://www.image-net.org/api/text/imagenet.synset.obtain_synset_list");
         try {
+            Path labelsPath = Paths.get(getClass().getResource(LABELS_FILE).toURI());
+            byte[] labelsFile = Files.readAllBytes(labelsPath);
+            byte[] snapshotKey = snapshotKey(labelsFile);
+
+            Optional<ImageIndexSnapshot> snapshot = ImageIndexSnapshot.read(SNAPSHOT_FILE, snapshotKey);
+            if (snapshot.isPresent()) {
+                labels = snapshot.get().getLabels();
+                images = snapshot.get().getImages();
+                log.info("Read image index from snapshot: {}", SNAPSHOT_FILE);
+                return;
+            }
+
+            availableSynsets = new HashSet<>(fetchLines(SYNSET_LIST_URL));
             // TODO: Switch to using synset lists for more accuracy (i.e. not multiple meanings per lemma)
-            List<IndexWord> requestedLabels = loadLabels();
-            labels = loadImageInfo(requestedLabels);
+            List<IndexWord> requestedLabels = loadLabels(new String(labelsFile, StandardCharsets.UTF_8));
+            Map<String, Set<Label>> labelsByUrl = new HashMap<>();
+            labels = loadImageInfo(requestedLabels, labelsByUrl);
+            images = toTable(labelsByUrl, labels);
+            writeSnapshot(snapshotKey);
         } catch (IOException | JWNLException | URISyntaxException e) {
             throw new RuntimeException("Failed to load label list", e);
         }
     }
 
-    private List<IndexWord> loadLabels() throws IOException, JWNLException, URISyntaxException {
-        Path path = Paths.get(getClass().getResource("labels-manual-short.txt").toURI());
-        List<String> labelStrings = Files.readAllLines(path, Charset.forName("utf-8"));
+    private void writeSnapshot(byte[] snapshotKey) {
+        try {
+            ImageIndexSnapshot.write(SNAPSHOT_FILE, snapshotKey, labels, images);
+            log.info("Stored image index snapshot: {}", SNAPSHOT_FILE);
+        } catch (IOException e) {
+            log.warn("Failed to store image index snapshot", e);
+        }
+    }
+
+    /**
+     * Hash of everything the index is built from, apart from the (cached) ImageNet lists. It includes the current
+     * {@link #URL_LISTS_TTL} window, so that snapshots expire like the URL lists, which are then revalidated.
+     */
+    private byte[] snapshotKey(byte[] labelsFile) {
+        long ttlWindow = System.currentTimeMillis() / URL_LISTS_TTL.toMillis();
+        return Hashing.sha256(ByteBuffer.allocate(labelsFile.length + 16)
+                .put(labelsFile)
+                .putInt(MIN_IMAGES_PER_LABEL)
+                .putInt(MAX_IMAGES_PER_LABEL)
+                .putLong(ttlWindow)
+                .array());
+    }
+
+    private List<IndexWord> loadLabels(String labelsFile) throws JWNLException {
+        List<String> labelStrings = Arrays.stream(labelsFile.split("\\R")).filter(line -> !line.isEmpty()).collect(toList());
 
         Dictionary dictionary = Dictionary.getDefaultResourceInstance();
         List<IndexWord> labels = new ArrayList<>();
@@ -68,57 +132,117 @@ public class ImageIndex {
         return labels;
     }
 
-    private List<IndexWord> loadImageInfo(List<IndexWord> requestedLabels) {
-        List<IndexWord> supportedLabels = new ArrayList<>();
-        requestedLabels.parallelStream()
-                .forEach(label -> {
-                    try {
-                        loadForLabel(label);
-                        supportedLabels.add(label);
-                    } catch (NoSupportedSynsetException e) {
-                        log.warn("Skipping word because no supported synset: {}", label);
-                    } catch (NotEnoughSamplesException e) {
-                        log.warn("Skipping word because not enough sample images: {} ({})", label, e.getMessage());
-                    }
-                });
-        supportedLabels.sort(Comparator.comparing(IndexWord::getLemma));
+    /**
+     * Resolve the synsets of all labels, fetch all their URL lists concurrently, and then assign images to labels.
+     */
+    private List<Label> loadImageInfo(List<IndexWord> requestedLabels, Map<String, Set<Label>> labelsByUrl) {
+        Map<IndexWord, List<String>> synsetsByWord = new LinkedHashMap<>();
+        for (IndexWord word : requestedLabels) {
+            try {
+                synsetsByWord.put(word, resolveSynsets(word));
+            } catch (NoSupportedSynsetException e) {
+                log.warn("Skipping word because no supported synset: {}", word);
+            }
+        }
+
+        Map<String, List<String>> urlsBySynset = fetchUrlLists(synsetsByWord.values().stream()
+                .flatMap(List::stream)
+                .collect(toCollection(LinkedHashSet::new)));
+
+        // single-threaded, as there is nothing left to wait for
+        List<Label> supportedLabels = new ArrayList<>();
+        synsetsByWord.forEach((word, synsetIds) -> {
+            try {
+                supportedLabels.add(assignImages(word, synsetIds, urlsBySynset, labelsByUrl));
+            } catch (NotEnoughSamplesException e) {
+                log.warn("Skipping word because not enough sample images: {} ({})", word, e.getMessage());
+            }
+        });
+        supportedLabels.sort(Comparator.comparing(Label::getLemma));
         return supportedLabels;
     }
 
-    private void loadForLabel(IndexWord label) throws NoSupportedSynsetException, NotEnoughSamplesException {
-        log.info("Loading image URLs: {}", label.getLemma());
-
-        final List<Synset> senses = label.getSenses();
+    private List<String> resolveSynsets(IndexWord word) throws NoSupportedSynsetException {
+        final List<Synset> senses = word.getSenses();
         // XXX: Necessary to trigger lazy loading, currently not done on stream() due to: https://github.com/extjwnl/extjwnl/issues/25
         senses.iterator();
-        Set<String> synsetIds = senses.stream()
+        List<String> synsetIds = senses.stream()
                 .map(synset -> String.format("n%08d", synset.getOffset()))
                 .filter(availableSynsets::contains)
-                .collect(toSet());
+                .distinct()
+                .collect(toList());
         if (synsetIds.isEmpty())
-            throw new NoSupportedSynsetException("No supported synsets found for label: " + label.getLemma());
+            throw new NoSupportedSynsetException("No supported synsets found for label: " + word.getLemma());
+        return synsetIds;
+    }
 
-        Set<String> urls = new HashSet<>();
-        for (String synsetId : synsetIds) {
-            List<String> lines = fetchLines("http://www.image-net.org/api/text/imagenet.synset.geturls?wnid=" + synsetId);
+    /**
+     * Fetch the URL lists of all given synsets on a bounded pool of threads, rather than on the common pool.
+     */
+    private Map<String, List<String>> fetchUrlLists(Set<String> synsetIds) {
+        log.info("Loading image URLs of {} synsets", synsetIds.size());
+        ExecutorService executor = Executors.newFixedThreadPool(FETCH_THREADS);
+        try {
+            Map<String, CompletableFuture<List<String>>> futures = new LinkedHashMap<>();
+            for (String synsetId : synsetIds)
+                futures.put(synsetId, CompletableFuture.supplyAsync(() -> fetchUrlList(synsetId), executor));
+
+            Map<String, List<String>> urlsBySynset = new HashMap<>();
+            futures.forEach((synsetId, future) -> urlsBySynset.put(synsetId, future.join()));
+            return urlsBySynset;
+        } finally {
+            executor.shutdown();
+        }
+    }
 
-            if (lines.size() == 1 && !lines.get(0).startsWith("http"))
-                log.error("Fetching URLs for '{}' caused problems: '{}'", synsetId, lines.get(0));
-            if (lines.size() < 100)
-                log.warn("Synset '{}' only has {} images", synsetId, lines.size());
+    private List<String> fetchUrlList(String synsetId) {
+        List<String> lines = fetchLines(SYNSET_URLS_URL + synsetId);
 
-            urls.addAll(lines);
-        }
+        if (lines.size() == 1 && !lines.get(0).startsWith("http"))
+            log.error("Fetching URLs for '{}' caused problems: '{}'", synsetId, lines.get(0));
+        if (lines.size() < 100)
+            log.warn("Synset '{}' only has {} images", synsetId, lines.size());
+
+        return lines;
+    }
+
+    /**
+     * Build the image table, with label ids being indexes in the given label list. Labels not in the list are left
+     * out, as are images without any label.
+     */
+    static ImageTable toTable(Map<String, Set<Label>> labelsByUrl, List<Label> labels) {
+        Map<Label, Integer> labelIds = new HashMap<>();
+        for (int i = 0; i < labels.size(); i++) labelIds.put(labels.get(i), i);
+
+        ImageTable.Builder builder = new ImageTable.Builder();
+        labelsByUrl.forEach((url, urlLabels) -> {
+            int[] ids = urlLabels.stream()
+                    .map(labelIds::get)
+                    .filter(Objects::nonNull)
+                    .mapToInt(Integer::intValue)
+                    .sorted()
+                    .toArray();
+            if (ids.length > 0) builder.add(url, ids);
+            else log.warn("Skipping image without known labels: {}", url);
+        });
+        return builder.build();
+    }
+
+    private Label assignImages(IndexWord word, List<String> synsetIds, Map<String, List<String>> urlsBySynset,
+                               Map<String, Set<Label>> labelsByUrl) throws NotEnoughSamplesException {
+        Set<String> urls = new HashSet<>();
+        for (String synsetId : synsetIds) urls.addAll(urlsBySynset.get(synsetId));
 
         if (urls.size() < MIN_IMAGES_PER_LABEL)
             throw new NotEnoughSamplesException(String.format("Only %s sample image(s)", urls.size()));
 
         urls = limitRandomized(urls);
 
+        Label label = new Label(word.getLemma(), synsetIds);
         for (String url : urls) {
-            if (!images.containsKey(url)) images.put(url, Collections.synchronizedSet(new HashSet<>()));
-            images.get(url).add(label);
+            labelsByUrl.computeIfAbsent(url, key -> new HashSet<>()).add(label);
         }
+        return label;
     }
 
     /**
@@ -134,32 +258,30 @@ public class ImageIndex {
 
     private List<String> fetchLines(String url) {
         Optional<List<String>> cached = urlsCache.get(url);
-        if (cached.isPresent()) return cached.get();
+        if (cached.isPresent() && !urlsCache.isStale(url)) return cached.get();
 
-        List<String> lines = new ArrayList<>();
-        try (Scanner scanner = new Scanner(new URL(url).openStream())) {
-            while (scanner.hasNextLine()) {
-                final String line = scanner.nextLine();
-                if (!line.isEmpty()) lines.add(line);
-            }
+        try {
+            List<String> lines = downloader.downloadLines(url);
             urlsCache.put(url, lines);
             return lines;
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            if (!cached.isPresent()) throw new RuntimeException(e);
+            log.warn("Failed to refetch stale URL list, using cached one: {}", url, e);
+            return cached.get();
         }
     }
 
-    public List<IndexWord> getLabels() {
+    public List<Label> getLabels() {
         return new ArrayList<>(labels);
     }
 
-    public Map<String, Set<IndexWord>> getImages() {
+    public ImageTable getImages() {
         return images;
     }
 
     @Override
     public String toString() {
-        return String.format("ImageIndex (%s labels, %s image URLs)", labels.size(), images.keySet().size());
+        return String.format("ImageIndex (%s labels, %s image URLs)", labels.size(), images.size());
     }
 
     private static class NoSupportedSynsetException extends Exception {
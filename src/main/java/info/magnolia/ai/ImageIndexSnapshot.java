@@ -0,0 +1,140 @@
+package info.magnolia.ai;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary snapshot of a built {@link ImageIndex}: its labels (with synset ids) and its {@link ImageTable}, whose arrays
+ * are stored as they are.
+ * <p>
+ * A snapshot is only valid for the inputs it was built from, so it carries a key (e.g. a hash of those) which must
+ * match on reading. It is read through a single memory mapping.
+ */
+class ImageIndexSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageIndexSnapshot.class);
+
+    private static final int MAGIC = 0x4D495831; // "MIX1"
+    /**
+     * To be increased whenever the format changes, which invalidates existing snapshots.
+     */
+    private static final int VERSION = 2;
+
+    private final List<Label> labels;
+    private final ImageTable images;
+
+    private ImageIndexSnapshot(List<Label> labels, ImageTable images) {
+        this.labels = labels;
+        this.images = images;
+    }
+
+    List<Label> getLabels() {
+        return labels;
+    }
+
+    ImageTable getImages() {
+        return images;
+    }
+
+    static void write(File file, byte[] key, List<Label> labels, ImageTable images) throws IOException {
+        for (int id : images.getLabelIds())
+            if (id < 0 || id >= labels.size()) throw new IllegalArgumentException("Image has unknown label id: " + id);
+
+        file.getParentFile().mkdirs();
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())))) {
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.writeInt(key.length);
+            stream.write(key);
+
+            stream.writeInt(labels.size());
+            for (Label label : labels) {
+                writeString(stream, label.getLemma());
+                stream.writeInt(label.getSynsetIds().size());
+                for (String synsetId : label.getSynsetIds()) writeString(stream, synsetId);
+            }
+
+            stream.writeInt(images.getUrlBytes().length);
+            stream.write(images.getUrlBytes());
+            writeInts(stream, images.getUrlOffsets());
+            writeInts(stream, images.getLabelIds());
+            writeInts(stream, images.getLabelOffsets());
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeInts(DataOutputStream stream, int[] values) throws IOException {
+        stream.writeInt(values.length);
+        for (int value : values) stream.writeInt(value);
+    }
+
+    private static void writeString(DataOutputStream stream, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        stream.writeInt(bytes.length);
+        stream.write(bytes);
+    }
+
+    /**
+     * Read a snapshot, unless there is none with the given key (or it cannot be read).
+     */
+    static Optional<ImageIndexSnapshot> read(File file, byte[] key) {
+        if (!file.exists()) return Optional.empty();
+
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return Optional.empty();
+            byte[] storedKey = new byte[buffer.getInt()];
+            buffer.get(storedKey);
+            if (!Arrays.equals(key, storedKey)) return Optional.empty();
+
+            int labelCount = buffer.getInt();
+            List<Label> labels = new ArrayList<>(labelCount);
+            for (int i = 0; i < labelCount; i++) {
+                String lemma = readString(buffer);
+                int synsetCount = buffer.getInt();
+                List<String> synsetIds = new ArrayList<>(synsetCount);
+                for (int j = 0; j < synsetCount; j++) synsetIds.add(readString(buffer));
+                labels.add(new Label(lemma, synsetIds));
+            }
+
+            byte[] urlBytes = new byte[buffer.getInt()];
+            buffer.get(urlBytes);
+            int[] urlOffsets = readInts(buffer);
+            int[] labelIds = readInts(buffer);
+            int[] labelOffsets = readInts(buffer);
+            return Optional.of(new ImageIndexSnapshot(labels, new ImageTable(urlBytes, urlOffsets, labelIds, labelOffsets)));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to read image index snapshot, ignoring it: {}", file, e);
+            return Optional.empty();
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer) {
+        int[] values = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * values.length);
+        return values;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
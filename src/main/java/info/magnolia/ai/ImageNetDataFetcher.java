@@ -3,132 +3,418 @@ package info.magnolia.ai;
 import static java.util.stream.Collectors.toList;
 
 import info.magnolia.ai.cache.ArrayCache;
+import info.magnolia.ai.cache.Cache;
+import info.magnolia.ai.cache.ContentRegistry;
+import info.magnolia.ai.cache.FailureRegistry;
+import info.magnolia.ai.cache.FailureRegistry.Reason;
 import info.magnolia.ai.cache.FileSystemCache;
+import info.magnolia.ai.download.Downloader;
+import info.magnolia.ai.image.ImageDecoder;
+import info.magnolia.ai.image.InputBatch;
+import info.magnolia.ai.image.InputBatchPool;
+import info.magnolia.ai.metrics.Counter;
+import info.magnolia.ai.metrics.Metrics;
+import info.magnolia.ai.metrics.Timer;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
-import javax.imageio.ImageIO;
-
-import org.datavec.image.loader.NativeImageLoader;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.dataset.api.iterator.fetcher.BaseDataFetcher;
-import org.nd4j.linalg.dataset.api.preprocessor.VGG16ImagePreProcessor;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import net.sf.extjwnl.data.IndexWord;
+/**
+ * Fetches sample images through a pipeline of three stages, each with its own threads and bounded queue: download
+ * (cache lookups and starting non-blocking downloads), decode and pre-process (CPU bound), and process (e.g.
+ * featurization, which uses a shared network and thus runs on a single thread). The first two stages work per image,
+ * whereas processing takes images stacked into minibatches of up to {@code processBatchSize}, each started as soon as
+ * its images are decoded. While a batch is being consumed, the next one is already going through the pipeline.
+ * <p>
+ * Downloaded images are fingerprinted by content (see {@link ContentRegistry}), so that images of the same content can
+ * be merged before they are fetched (see {@link ImageTable#deduplicate}).
+ * <p>
+ * Every fetcher has threads of its own, so it must be closed once done with.
+ */
+public class ImageNetDataFetcher extends BaseDataFetcher implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageNetDataFetcher.class);
+
+    private static final int CONNECT_TIMEOUT = 1000;
+    private static final int READ_TIMEOUT = 2000;
+    private static final int MAX_CONNECTIONS = 128;
+    private static final int MAX_CONNECTIONS_PER_HOST = 8;
+    private static final int MAX_IMAGE_BYTES = 20 * 1024 * 1024;
+
+    /**
+     * Shared by all fetchers, so connections are reused and limits apply globally.
+     */
+    private static final Downloader downloader = new Downloader(MAX_CONNECTIONS, MAX_CONNECTIONS_PER_HOST, CONNECT_TIMEOUT, READ_TIMEOUT, MAX_IMAGE_BYTES);
 
-// TODO: Write test for this (some things, like one-hot-encoding, might be incorrect)
-public class ImageNetDataFetcher extends BaseDataFetcher {
+    /**
+     * Images might become available (again) at some point, e.g. after a server outage.
+     */
+    private static final Duration FAILURE_TTL = Duration.ofDays(30);
+    private static final FailureRegistry failures = new FailureRegistry("custom-image-recognition-failures", FAILURE_TTL);
+    /**
+     * Contents of all downloaded images, to recognize the same image under different URLs.
+     */
+    private static final ContentRegistry contents = new ContentRegistry("custom-image-recognition-contents");
 
-    private static final Logger log = LoggerFactory.getLogger(BaseDataFetcher.class);
+    /**
+     * Besides these totals, downloads are timed and failures counted per host, e.g. as {@code download.example.com}.
+     */
+    private static final Timer downloadTimer = Metrics.timer("download");
+    private static final Counter downloadFailures = Metrics.counter("download.failures");
+    private static final Counter rawCacheHits = Metrics.counter("cache.raw.hits");
+    private static final Counter rawCacheMisses = Metrics.counter("cache.raw.misses");
+    private static final Counter pixelStoreHits = Metrics.counter("cache.pixels.hits");
+    private static final Counter pixelStoreMisses = Metrics.counter("cache.pixels.misses");
 
-    private static final long FETCH_TIMEOUT = 1000;
+    /**
+     * Downloads themselves don't occupy threads, so these only do cache lookups.
+     */
+    private static final int DOWNLOAD_THREADS = 8;
+    private static final int DECODE_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int PROCESS_THREADS = 1;
+    /**
+     * Large enough to take the lookups of the current and the prefetched batch without blocking the consumer.
+     */
+    private static final int DOWNLOAD_QUEUE_CAPACITY = 256;
+    private static final int DECODE_QUEUE_CAPACITY = 64;
+    private static final int PROCESS_QUEUE_CAPACITY = 64;
+    private static final int BATCHES_IN_FLIGHT = 3;
 
-    private final ExecutorService fetcherPool = Executors.newCachedThreadPool();
+    private final PipelineStage downloadStage = new PipelineStage("download", DOWNLOAD_THREADS, DOWNLOAD_QUEUE_CAPACITY);
+    /**
+     * Takes completed downloads over from the downloader's I/O threads, which must never block (on a full queue), as
+     * they serve all connections; unbounded, as there are at most as many completions as downloads in flight.
+     */
+    private final PipelineStage downloadedStage = new PipelineStage("downloaded", 1, Integer.MAX_VALUE);
+    private final PipelineStage decodeStage = new PipelineStage("decode", DECODE_THREADS, DECODE_QUEUE_CAPACITY);
+    private final PipelineStage processStage = new PipelineStage("featurize", PROCESS_THREADS, PROCESS_QUEUE_CAPACITY);
 
-    private final NativeImageLoader imageLoader = new NativeImageLoader(224, 224, 3);
-    private final VGG16ImagePreProcessor preProcessor = new VGG16ImagePreProcessor();
-    private final FileSystemCache cache = new ArrayCache("custom-image-recognition-samples");
+    private final ImageDecoder imageDecoder = new ImageDecoder(224, 224);
+    /**
+     * Input tensors of the batches in flight: the one being consumed, the prefetched one and possibly one still being
+     * drained after a reset.
+     */
+    private InputBatchPool inputPool;
+    private final FileSystemCache<INDArray> cache = new ArrayCache("custom-image-recognition-samples");
+    /**
+     * Only holds failure markers of earlier runs (which are moved to the registry on lookup), if anything.
+     */
+    private final boolean cacheInUse = !cache.isEmpty();
 
-    private final Map<String, Set<IndexWord>> images;
-    private final List<String> urls;
-    private final List<IndexWord> labels;
+    private final ImageTable images;
+    private final int processBatchSize;
+    /**
+     * Decoded, resized images as raw pixels, or {@code null} if not in use.
+     */
+    private final Cache<ByteBuffer> pixelStore;
+
+    private int prefetchedCursor = -1;
+    private CompletableFuture<List<Optional<INDArray>>> prefetched;
+    /**
+     * Next batch with at least one image, fetched by {@link #hasMore} to tell whether there is one, if any.
+     */
+    private DataSet ahead;
+    /**
+     * Position of the last fetched batch, e.g. of the one fetched ahead.
+     */
+    private int fetchedFrom;
+    /**
+     * Number of examples last fetched at once, i.e. of batches fetched ahead; 0 before the first fetch.
+     */
+    private int batchSize;
+
+    public ImageNetDataFetcher(ImageTable images, List<Label> labels) {
+        this(images, labels, Integer.MAX_VALUE);
+    }
 
-    public ImageNetDataFetcher(Map<String, Set<IndexWord>> images, List<IndexWord> labels) {
-        this.totalExamples = images.keySet().size();
+    /**
+     * @param processBatchSize max. number of images processed at once
+     */
+    public ImageNetDataFetcher(ImageTable images, List<Label> labels, int processBatchSize) {
+        this(images, labels, processBatchSize, null);
+    }
+
+    /**
+     * @param processBatchSize max. number of images processed at once
+     * @param pixelStore store for decoded images (as returned by {@link ImageDecoder#decode}), so they don't need to be
+     * downloaded and decoded again, or {@code null}
+     */
+    public ImageNetDataFetcher(ImageTable images, List<Label> labels, int processBatchSize, Cache<ByteBuffer> pixelStore) {
+        this.totalExamples = images.size();
         this.numOutcomes = labels.size();
 
         this.images = images;
-        this.urls = new ArrayList<>(images.keySet());
-        this.labels = labels;
+        this.processBatchSize = processBatchSize;
+        this.pixelStore = pixelStore;
+    }
+
+    /**
+     * Contents of all images downloaded so far (or in earlier runs), by URL.
+     */
+    public static ContentRegistry getContentRegistry() {
+        return contents;
     }
 
+    /**
+     * Fetch the next batch with at least one image, skipping those of which no image could be fetched.
+     *
+     * @throws NoSuchElementException if there is none left, which {@link #hasMore} only tells once the batch size is
+     * known, i.e. after the first fetch
+     */
     @Override
     public void fetch(int numExamples) {
+        batchSize = numExamples;
+        curr = ahead != null ? ahead : fetchNonEmpty(numExamples);
+        ahead = null;
+        if (curr == null) throw new NoSuchElementException("None of the remaining images could be fetched");
+    }
+
+    /**
+     * Whether there is another batch with at least one image, which means fetching it (once the batch size is known).
+     */
+    @Override
+    public boolean hasMore() {
+        if (batchSize == 0) return super.hasMore();
+        if (ahead == null) ahead = fetchNonEmpty(batchSize);
+        return ahead != null;
+    }
+
+    /**
+     * Position of the next batch to hand out, even if it was fetched ahead already.
+     */
+    @Override
+    public int cursor() {
+        return ahead != null ? fetchedFrom : cursor;
+    }
+
+    /**
+     * @return {@code null} if no image of the remaining batches could be fetched
+     */
+    private DataSet fetchNonEmpty(int numExamples) {
+        while (super.hasMore()) {
+            fetchedFrom = cursor;
+            DataSet batch = fetchBatch(numExamples);
+            if (batch != null) return batch;
+        }
+        return null;
+    }
+
+    /**
+     * @return {@code null} if none of the batch's images could be fetched
+     */
+    private DataSet fetchBatch(int numExamples) {
         log.info("Going to fetch up to {} sample images, starting at {}...", numExamples, cursor);
 
-        List<String> toFetch = urls.subList(cursor, Math.min(cursor + numExamples, urls.size()));
-        List<DataSet> dataSets = toFetch.parallelStream()
-                .map(this::fetchImage)
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(toList());
-        if (!dataSets.isEmpty())
-            this.initializeCurrFromList(dataSets);
+        CompletableFuture<List<Optional<INDArray>>> pending = prefetchedCursor == cursor ? prefetched : submit(cursor, numExamples);
+        prefetched = cursor + numExamples < images.size() ? submit(cursor + numExamples, numExamples) : null;
+        prefetchedCursor = cursor + numExamples;
+
+        List<Optional<INDArray>> samples = pending.join();
+        DataSet batch = null;
+        int[] fetchedImages = IntStream.range(0, samples.size())
+                .filter(i -> samples.get(i).isPresent())
+                .map(i -> cursor + i)
+                .toArray();
+        if (fetchedImages.length > 0) {
+            INDArray features = Nd4j.concat(0, samples.stream().filter(Optional::isPresent).map(Optional::get).toArray(INDArray[]::new));
+            // multi-hot, written right into the batch's label matrix
+            INDArray labels = Nd4j.zeros(fetchedImages.length, numOutcomes);
+            for (int row = 0; row < fetchedImages.length; row++) images.writeLabels(fetchedImages[row], labels, row);
+            batch = new DataSet(features, labels);
+        }
 
         cursor += numExamples;
 
-        log.info("Batch done");
+        log.info("Batch done (queue depths: {})", getQueueDepths());
+        return batch;
     }
 
-    protected Optional<DataSet> fetchImage(String url) {
-        Optional<INDArray> cached = cache.get(url);
-        if (cached.isPresent()) {
-            if (Nd4j.empty().equals(cached.get())) {
-                log.debug("Skipping image (previous failure signaled by cache): {}", url);
-                return Optional.empty();
-            }
+    @Override
+    public void reset() {
+        if (prefetched != null) prefetched.cancel(false);
+        prefetched = null;
+        prefetchedCursor = -1;
+        ahead = null;
+        super.reset();
+    }
+
+    /**
+     * Stop prefetching and shut the pipeline's threads down; images still in flight are finished first, in the
+     * background.
+     */
+    @Override
+    public void close() {
+        reset();
+        for (PipelineStage stage : getStages()) stage.shutdown();
+    }
+
+    /**
+     * Number of tasks waiting in each stage of the pipeline, by stage name.
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        for (PipelineStage stage : getStages()) depths.put(stage.getName(), stage.getQueueDepth());
+        return depths;
+    }
 
-            log.debug("Loaded image from cache: ", url);
-            return cached.map(arr -> toDataSet(url, arr));
+    private PipelineStage[] getStages() {
+        return new PipelineStage[]{downloadStage, downloadedStage, decodeStage, processStage};
+    }
+
+    private CompletableFuture<List<Optional<INDArray>>> submit(int from, int numExamples) {
+        Batch batch = new Batch(from, Math.min(from + numExamples, images.size()) - from, getInputPool(numExamples));
+        if (batch.size == 0) batch.finish();
+        for (int i = 0; i < batch.size; i++) {
+            int sample = i;
+            CompletableFuture.supplyAsync(() -> fetchImage(images.getUrl(from + sample)), downloadStage)
+                    .thenCompose(Function.identity())
+                    .thenApplyAsync(fetched -> fetched.flatMap(s -> decode(s, batch, sample)), decodeStage)
+                    .whenComplete((decoded, e) -> batch.sampleDone(sample, decoded, e));
         }
+        return batch.processed;
+    }
+
+    private InputBatchPool getInputPool(int batchSize) {
+        if (inputPool == null || inputPool.getBatchCapacity() < batchSize)
+            inputPool = imageDecoder.createPool(BATCHES_IN_FLIGHT, batchSize);
+        return inputPool;
+    }
+
+    /**
+     * First stage: look up the image in caches, or download it.
+     */
+    protected final CompletableFuture<Optional<Sample>> fetchImage(String url) {
+        if (isKnownFailure(url)) return CompletableFuture.completedFuture(Optional.empty());
 
+        Optional<Sample> cached = lookUpCached(url);
+        if (cached.isPresent()) return CompletableFuture.completedFuture(cached);
+
+        // looking up might have revealed a failure signaled by the legacy cache
+        if (isKnownFailure(url)) return CompletableFuture.completedFuture(Optional.empty());
+
+        // hand over to a stage which never blocks the downloader's I/O thread; from there, handing over to the decoding
+        // stage may block on a full queue
+        long start = System.nanoTime();
+        return downloader.download(url)
+                .whenComplete((bytes, e) -> recordDownload(url, start, e))
+                .handleAsync((bytes, e) -> e == null ? Optional.of(Sample.downloaded(url, bytes)) : skip(url, Reason.DOWNLOAD), downloadedStage);
+    }
+
+    private static void recordDownload(String url, long startNanos, Throwable failure) {
+        long nanos = System.nanoTime() - startNanos;
+        String host = host(url);
+        if (failure == null) {
+            downloadTimer.record(nanos);
+            Metrics.timer("download." + host).record(nanos);
+        } else {
+            downloadFailures.increment();
+            Metrics.counter("download.failures." + host).increment();
+        }
+    }
+
+    private static String host(String url) {
         try {
-            BufferedImage image = readImage(url);
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return "invalid";
+        }
+    }
 
-            INDArray matrix = imageLoader.asMatrix(image);
-            preProcessor.transform(matrix);
+    private boolean isKnownFailure(String url) {
+        Optional<Reason> failure = failures.getReason(url);
+        failure.ifPresent(reason -> log.debug("Skipping image (previous failure: {}): {}", reason, url));
+        return failure.isPresent();
+    }
 
-            log.debug("Successfully fetched image: ", url);
+    /**
+     * Look up a sample in caches, before falling back to downloading it.
+     */
+    protected Optional<Sample> lookUpCached(String url) {
+        if (pixelStore != null) {
+            Optional<ByteBuffer> pixels = pixelStore.get(url);
+            (pixels.isPresent() ? pixelStoreHits : pixelStoreMisses).increment();
+            if (pixels.isPresent()) return pixels.map(p -> Sample.stored(url, p));
+        }
 
-            // Commented out because only caching not-found ones currently (as found ones are cached in featurized form anyway)
-            // cache.put(url, matrix);
+        if (!cacheInUse) return Optional.empty();
 
-            return Optional.of(toDataSet(url, matrix));
-        } catch (Exception e) { // might not just be IOException but e.g. IllegalStateException in case of invalid encoding (server might return 200 with HTML)
-            log.debug("Skipping image; failed to fetch: ", url);
-            // cache empty matrix signaling missing data
-            cache.put(url, Nd4j.empty());
+        Optional<INDArray> cached = cache.get(url);
+        if (cached.isPresent() && Nd4j.empty().equals(cached.get())) {
+            // failures used to be signaled by empty cache entries, move them over to the registry
+            failures.record(url, Reason.DOWNLOAD);
+            cache.remove(url);
             return Optional.empty();
         }
+
+        (cached.isPresent() ? rawCacheHits : rawCacheMisses).increment();
+        cached.ifPresent(arr -> log.debug("Loaded image from cache: ", url));
+        return cached.map(arr -> Sample.decoded(url, arr));
     }
 
-    private BufferedImage readImage(String url) throws IOException {
+    /**
+     * Second stage: decode a downloaded image (or convert stored pixels) right into a row of the batch's input tensor.
+     */
+    private Optional<Sample> decode(Sample sample, Batch batch, int sampleIndex) {
+        if (sample.processed) return Optional.of(sample);
+        if (sample.pixels != null) return batch.writeRow(sampleIndex, sample.url, row -> imageDecoder.writeInto(sample.pixels, batch.inputs, row));
+        if (sample.imageBytes == null) return batch.writeRow(sampleIndex, sample.url, row -> batch.inputs.copyRow(sample.features, row)); // e.g. from a cache
+
+        contents.record(sample.url, sample.imageBytes);
+
+        ByteBuffer pixels;
         try {
-            BufferedImage image = fetcherPool.submit(() -> ImageIO.read(new URL(url)))
-                    .get(FETCH_TIMEOUT, TimeUnit.MILLISECONDS);
-            if (image == null) throw new IOException("Failed to read image from url: " + url);
-            return image;
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            log.debug("Image-fetching interrupted", e);
-            throw new IOException("Fetching image was interrupted: " + url, e);
+            pixels = imageDecoder.decode(sample.imageBytes);
+        } catch (Exception e) { // might not just be IOException but e.g. IllegalStateException in case of invalid encoding (server might return 200 with HTML)
+            return skip(sample.url, Reason.DECODE);
         }
+        if (pixelStore != null) pixelStore.put(sample.url, pixels);
+        log.debug("Successfully fetched image: ", sample.url);
+        return batch.writeRow(sampleIndex, sample.url, row -> imageDecoder.writeInto(pixels, batch.inputs, row));
+    }
+
+    private Optional<Sample> skip(String url, Reason reason) {
+        log.debug("Skipping image; failed to fetch: ", url);
+        failures.record(url, reason);
+        return Optional.empty();
     }
 
-    protected DataSet toDataSet(String url, INDArray matrix) {
-        return new DataSet(matrix, oneHotEncode(images.get(url)));
+    /**
+     * Transform decoded samples' features (stacked along the first dimension, in the order of the given URLs) before
+     * they are handed out; runs on {@value #PROCESS_THREADS} thread(s). The given features are only valid during the
+     * call, as their memory is reused for later batches.
+     */
+    protected INDArray process(List<String> urls, INDArray features) {
+        return features;
     }
 
-    private INDArray oneHotEncode(Set<IndexWord> indexWords) {
-        float[] array = new float[labels.size()];
-        // FIXME: How does labels sometimes not contain one of the words?
-        indexWords.forEach(word -> array[labels.indexOf(word)] = 1);
-        return Nd4j.create(array);
+    /**
+     * Copy of a single sample of stacked features, keeping the first dimension.
+     */
+    protected static INDArray row(INDArray stacked, int row) {
+        return stacked.get(NDArrayIndex.interval(row, row + 1)).dup();
     }
 
     @Override
@@ -140,4 +426,191 @@ public class ImageNetDataFetcher extends BaseDataFetcher {
     public int inputColumns() {
         throw new UnsupportedOperationException("This shape is higher-dimensional");
     }
+
+    /**
+     * A batch on its way through the pipeline. Samples which need processing are written into rows of the batch's
+     * input tensor in the order they are decoded, and every {@code processBatchSize} consecutive rows are processed
+     * (third stage) as soon as all of them are written, so a slow download only holds up its own minibatch.
+     */
+    private class Batch {
+        final int from;
+        final int size;
+        final InputBatchPool pool;
+        final InputBatch inputs;
+        /**
+         * Not chained to anything: cancelling it must not give back inputs which are still being written.
+         */
+        final CompletableFuture<List<Optional<INDArray>>> processed = new CompletableFuture<>();
+
+        private final List<Optional<INDArray>> results;
+        /**
+         * Index of the sample written into every claimed row, or -1 where writing failed.
+         */
+        private final int[] rowSamples;
+        private final int[] rowsWritten;
+        private int rowsClaimed;
+        private int samplesDone;
+        private int minibatchesStarted;
+        private int minibatchesDone;
+        private Throwable failure;
+
+        Batch(int from, int size, InputBatchPool pool) {
+            this.from = from;
+            this.size = size;
+            this.pool = pool;
+            this.inputs = pool.take();
+            this.results = new ArrayList<>(Collections.nCopies(size, Optional.empty()));
+            this.rowSamples = new int[size];
+            this.rowsWritten = new int[size == 0 ? 0 : (size - 1) / processBatchSize + 1];
+        }
+
+        /**
+         * Write a sample into the next free row.
+         */
+        Optional<Sample> writeRow(int sample, String url, IntConsumer write) {
+            int row;
+            synchronized (this) {
+                row = rowsClaimed++;
+            }
+            boolean written = false;
+            try {
+                write.accept(row);
+                written = true;
+                return Optional.of(Sample.decodedInPlace(url));
+            } catch (RuntimeException e) {
+                return skip(url, Reason.DECODE);
+            } finally {
+                rowWritten(row, written ? sample : -1);
+            }
+        }
+
+        private void rowWritten(int row, int sample) {
+            int minibatch = row / processBatchSize;
+            synchronized (this) {
+                rowSamples[row] = sample;
+                if (++rowsWritten[minibatch] < processBatchSize) return;
+                minibatchesStarted++;
+            }
+            startMinibatch(minibatch * processBatchSize, (minibatch + 1) * processBatchSize);
+        }
+
+        void sampleDone(int sample, Optional<Sample> decoded, Throwable e) {
+            int partialFrom;
+            int partialTo;
+            boolean finished;
+            synchronized (this) {
+                if (e != null) failure = e;
+                else if (decoded.isPresent() && decoded.get().processed) results.set(sample, Optional.of(decoded.get().features));
+                if (++samplesDone < size) return;
+
+                // all rows are written by now, so the last, partial minibatch can start as well
+                partialFrom = rowsClaimed % processBatchSize == 0 ? -1 : rowsClaimed - rowsClaimed % processBatchSize;
+                partialTo = rowsClaimed;
+                if (partialFrom >= 0) minibatchesStarted++;
+                finished = minibatchesDone == minibatchesStarted;
+            }
+            if (partialFrom >= 0) startMinibatch(partialFrom, partialTo);
+            else if (finished) finish();
+        }
+
+        private void startMinibatch(int fromRow, int toRow) {
+            try {
+                processStage.execute(() -> processMinibatch(fromRow, toRow));
+            } catch (RejectedExecutionException e) {
+                minibatchDone(e);
+            }
+        }
+
+        /**
+         * Third stage: process the written rows of a minibatch, moved to its front so that they are a contiguous view.
+         */
+        private void processMinibatch(int fromRow, int toRow) {
+            RuntimeException processingFailure = null;
+            try {
+                if (processed.isDone()) return;
+
+                List<Integer> samples = new ArrayList<>();
+                for (int row = fromRow; row < toRow; row++) {
+                    if (rowSamples[row] < 0) continue;
+                    inputs.copyRow(row, fromRow + samples.size());
+                    samples.add(rowSamples[row]);
+                }
+                if (samples.isEmpty()) return;
+
+                List<String> urls = samples.stream().map(i -> images.getUrl(from + i)).collect(toList());
+                INDArray outputs = process(urls, inputs.rows(fromRow, fromRow + samples.size()));
+                synchronized (this) {
+                    for (int row = 0; row < samples.size(); row++) results.set(samples.get(row), Optional.of(row(outputs, row)));
+                }
+            } catch (RuntimeException e) {
+                processingFailure = e;
+            } finally {
+                minibatchDone(processingFailure);
+            }
+        }
+
+        private void minibatchDone(Throwable e) {
+            synchronized (this) {
+                if (e != null) failure = e;
+                if (++minibatchesDone < minibatchesStarted || samplesDone < size) return;
+            }
+            finish();
+        }
+
+        void finish() {
+            synchronized (this) {
+                if (failure != null) processed.completeExceptionally(failure);
+                else processed.complete(new ArrayList<>(results));
+            }
+            pool.release(inputs);
+        }
+    }
+
+    /**
+     * An image on its way through the pipeline.
+     */
+    protected static class Sample {
+        final String url;
+        final byte[] imageBytes;
+        final ByteBuffer pixels;
+        final INDArray features;
+        final boolean processed;
+
+        private Sample(String url, byte[] imageBytes, ByteBuffer pixels, INDArray features, boolean processed) {
+            this.url = url;
+            this.imageBytes = imageBytes;
+            this.pixels = pixels;
+            this.features = features;
+            this.processed = processed;
+        }
+
+        static Sample downloaded(String url, byte[] imageBytes) {
+            return new Sample(url, imageBytes, null, null, false);
+        }
+
+        /**
+         * A sample found decoded, but not yet converted to input, in the pixel store.
+         */
+        static Sample stored(String url, ByteBuffer pixels) {
+            return new Sample(url, null, pixels, null, false);
+        }
+
+        static Sample decoded(String url, INDArray features) {
+            return new Sample(url, null, null, features, false);
+        }
+
+        /**
+         * A sample decoded right into its row of the batch's input tensor.
+         */
+        static Sample decodedInPlace(String url) {
+            return new Sample(url, null, null, null, false);
+        }
+
+        /**
+         * A sample that needs no further work, e.g. because it was found in its final form in a cache.
+         */
+        static Sample processed(String url, INDArray features) {
+            return new Sample(url, null, null, features, true);
+        }
+    }
 }
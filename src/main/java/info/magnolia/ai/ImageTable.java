@@ -0,0 +1,200 @@
+package info.magnolia.ai;
+
+import info.magnolia.ai.cache.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Compact table of sample images: their URLs and the (dense, int) ids of their labels.
+ * <p>
+ * All URLs are stored back to back as UTF-8 in one byte array, and all label ids in one int array, each with an array
+ * of offsets per image, so there are no objects per image at all.
+ */
+public class ImageTable {
+
+    private final byte[] urlBytes;
+    /**
+     * URL of image {@code i} at {@code [urlOffsets[i], urlOffsets[i + 1])}.
+     */
+    private final int[] urlOffsets;
+    private final int[] labelIds;
+    /**
+     * Label ids of image {@code i} at {@code [labelOffsets[i], labelOffsets[i + 1])}.
+     */
+    private final int[] labelOffsets;
+
+    ImageTable(byte[] urlBytes, int[] urlOffsets, int[] labelIds, int[] labelOffsets) {
+        if (urlOffsets.length != labelOffsets.length || urlOffsets[urlOffsets.length - 1] != urlBytes.length
+                || labelOffsets[labelOffsets.length - 1] != labelIds.length)
+            throw new IllegalArgumentException("Inconsistent image table");
+        this.urlBytes = urlBytes;
+        this.urlOffsets = urlOffsets;
+        this.labelIds = labelIds;
+        this.labelOffsets = labelOffsets;
+    }
+
+    public int size() {
+        return urlOffsets.length - 1;
+    }
+
+    public String getUrl(int image) {
+        return new String(urlBytes, urlOffsets[image], urlOffsets[image + 1] - urlOffsets[image], StandardCharsets.UTF_8);
+    }
+
+    public int[] getLabelIds(int image) {
+        return Arrays.copyOfRange(labelIds, labelOffsets[image], labelOffsets[image + 1]);
+    }
+
+    /**
+     * Set the given image's labels to 1 in the given row of a (multi-hot) label matrix, leaving other columns as is.
+     */
+    public void writeLabels(int image, INDArray labels, int row) {
+        for (int i = labelOffsets[image]; i < labelOffsets[image + 1]; i++) labels.putScalar(row, labelIds[i], 1);
+    }
+
+    /**
+     * Table of only those images whose URL matches the given filter.
+     */
+    public ImageTable filter(Predicate<String> urlFilter) {
+        Builder builder = new Builder();
+        for (int image = 0; image < size(); image++) {
+            if (urlFilter.test(getUrl(image)))
+                builder.add(urlBytes, urlOffsets[image], urlOffsets[image + 1], labelIds, labelOffsets[image], labelOffsets[image + 1]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Table with images of the same content merged into the first of them, which gets the labels of all of them.
+     * Images of unknown content are kept as they are.
+     *
+     * @param contentOf content (hash) of the image at the given URL, if known
+     */
+    public ImageTable deduplicate(Function<String, Optional<Long>> contentOf) {
+        // images of the same content as a linked list, from the first one on
+        int[] next = new int[size()];
+        int[] last = new int[size()];
+        boolean[] merged = new boolean[size()];
+        Map<Long, Integer> firstByContent = new HashMap<>();
+        for (int image = 0; image < size(); image++) {
+            next[image] = -1;
+            last[image] = image;
+            Optional<Long> content = contentOf.apply(getUrl(image));
+            if (!content.isPresent()) continue;
+
+            Integer first = firstByContent.putIfAbsent(content.get(), image);
+            if (first != null) {
+                next[last[first]] = image;
+                last[first] = image;
+                merged[image] = true;
+            }
+        }
+
+        Builder builder = new Builder();
+        for (int image = 0; image < size(); image++) {
+            if (merged[image]) continue;
+            if (next[image] < 0) {
+                builder.add(urlBytes, urlOffsets[image], urlOffsets[image + 1], labelIds, labelOffsets[image], labelOffsets[image + 1]);
+                continue;
+            }
+
+            int[] ids = new int[0];
+            for (int duplicate = image; duplicate >= 0; duplicate = next[duplicate]) {
+                int[] duplicateIds = getLabelIds(duplicate);
+                ids = Arrays.copyOf(ids, ids.length + duplicateIds.length);
+                System.arraycopy(duplicateIds, 0, ids, ids.length - duplicateIds.length, duplicateIds.length);
+            }
+            ids = Arrays.stream(ids).distinct().toArray();
+            builder.add(urlBytes, urlOffsets[image], urlOffsets[image + 1], ids, 0, ids.length);
+        }
+        return builder.build();
+    }
+
+    /**
+     * SHA-256 hash of all URLs and their label ids, in order.
+     */
+    public byte[] fingerprint() {
+        ByteBuffer bytes = ByteBuffer.allocate(urlBytes.length + Integer.BYTES * (urlOffsets.length + labelIds.length + labelOffsets.length));
+        bytes.put(urlBytes);
+        bytes.asIntBuffer().put(urlOffsets);
+        bytes.position(bytes.position() + Integer.BYTES * urlOffsets.length);
+        bytes.asIntBuffer().put(labelIds);
+        bytes.position(bytes.position() + Integer.BYTES * labelIds.length);
+        bytes.asIntBuffer().put(labelOffsets);
+        return Hashing.sha256(bytes.array());
+    }
+
+    byte[] getUrlBytes() {
+        return urlBytes;
+    }
+
+    int[] getUrlOffsets() {
+        return urlOffsets;
+    }
+
+    int[] getLabelIds() {
+        return labelIds;
+    }
+
+    int[] getLabelOffsets() {
+        return labelOffsets;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ImageTable (%s images, %s labels assigned)", size(), labelIds.length);
+    }
+
+    public static class Builder {
+        private byte[] urlBytes = new byte[1024];
+        private int[] urlOffsets = new int[64];
+        private int[] labelIds = new int[64];
+        private int[] labelOffsets = new int[64];
+        private int size;
+
+        public Builder add(String url, int... ids) {
+            byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+            return add(bytes, 0, bytes.length, ids, 0, ids.length);
+        }
+
+        private Builder add(byte[] url, int urlFrom, int urlTo, int[] ids, int idsFrom, int idsTo) {
+            int urlStart = urlOffsets[size];
+            int labelStart = labelOffsets[size];
+            if (size + 2 > urlOffsets.length) {
+                urlOffsets = Arrays.copyOf(urlOffsets, 2 * urlOffsets.length);
+                labelOffsets = Arrays.copyOf(labelOffsets, 2 * labelOffsets.length);
+            }
+            urlBytes = ensureCapacity(urlBytes, urlStart + urlTo - urlFrom);
+            labelIds = ensureCapacity(labelIds, labelStart + idsTo - idsFrom);
+
+            System.arraycopy(url, urlFrom, urlBytes, urlStart, urlTo - urlFrom);
+            System.arraycopy(ids, idsFrom, labelIds, labelStart, idsTo - idsFrom);
+            size++;
+            urlOffsets[size] = urlStart + urlTo - urlFrom;
+            labelOffsets[size] = labelStart + idsTo - idsFrom;
+            return this;
+        }
+
+        private static byte[] ensureCapacity(byte[] array, int capacity) {
+            return capacity <= array.length ? array : Arrays.copyOf(array, Math.max(capacity, 2 * array.length));
+        }
+
+        private static int[] ensureCapacity(int[] array, int capacity) {
+            return capacity <= array.length ? array : Arrays.copyOf(array, Math.max(capacity, 2 * array.length));
+        }
+
+        public ImageTable build() {
+            return new ImageTable(Arrays.copyOf(urlBytes, urlOffsets[size]), Arrays.copyOf(urlOffsets, size + 1),
+                    Arrays.copyOf(labelIds, labelOffsets[size]), Arrays.copyOf(labelOffsets, size + 1));
+        }
+    }
+}
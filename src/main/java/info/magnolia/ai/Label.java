@@ -0,0 +1,48 @@
+package info.magnolia.ai;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A label to recognize: a word and the ImageNet synsets (i.e. WordNet noun senses) providing its sample images.
+ */
+public class Label {
+
+    private final String lemma;
+    private final List<String> synsetIds;
+
+    public Label(String lemma, List<String> synsetIds) {
+        this.lemma = lemma;
+        this.synsetIds = Collections.unmodifiableList(new ArrayList<>(synsetIds));
+    }
+
+    public String getLemma() {
+        return lemma;
+    }
+
+    /**
+     * Synset ids in ImageNet format, e.g. {@code n02084071}.
+     */
+    public List<String> getSynsetIds() {
+        return synsetIds;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Label label = (Label) o;
+        return lemma.equals(label.lemma) && synsetIds.equals(label.synsetIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * lemma.hashCode() + synsetIds.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return lemma + synsetIds;
+    }
+}
@@ -2,16 +2,25 @@ package info.magnolia.ai;
 
 import static java.util.stream.Collectors.toList;
 
+import info.magnolia.ai.cache.ArrayCodec;
+import info.magnolia.ai.detect.HeadModel;
+import info.magnolia.ai.metrics.Metrics;
+import info.magnolia.ai.metrics.Timer;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 import org.deeplearning4j.api.storage.StatsStorage;
+import org.deeplearning4j.nn.api.Layer;
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
 import org.deeplearning4j.nn.conf.distribution.NormalDistribution;
 import org.deeplearning4j.nn.conf.layers.OutputLayer;
@@ -28,6 +37,7 @@ import org.deeplearning4j.zoo.PretrainedType;
 import org.deeplearning4j.zoo.model.VGG16;
 import org.nd4j.evaluation.classification.Evaluation;
 import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.learning.config.Nesterovs;
@@ -35,24 +45,63 @@ import org.nd4j.linalg.lossfunctions.LossFunctions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import net.sf.extjwnl.data.IndexWord;
-
 public class NetworkManager {
 
     private static final boolean STATS_ON = false;
-    private static final int STORE_FREQUENCY = 20;
+    /**
+     * Checkpoints of the head only are cheap and written in the background, so they can be taken quite often.
+     */
+    private static final int CHECKPOINT_FREQUENCY = 5;
+    private static final int CHECKPOINTS_TO_KEEP = 3;
+    /**
+     * Training stops once the (sampled) top-N accuracy has not improved by the min. delta for this many epochs.
+     */
+    private static final int PATIENCE = 10;
+    private static final double MIN_DELTA = 0.002;
+    private static final Duration TIME_BUDGET = Duration.ofHours(24);
+    private static final int TOP_N = 3;
+    /**
+     * Every epoch is evaluated on a fixed sample of this many test images per label, the full test set is only
+     * evaluated every few epochs and at the end.
+     */
+    private static final int EVALUATION_SAMPLES_PER_LABEL = 5;
+    private static final int FULL_EVALUATION_FREQUENCY = 10;
+    /**
+     * Threads training replicas of the head in parallel, see {@link ParallelTrainer}; configurable through the
+     * {@value #TRAINING_WORKERS_PROPERTY} system property. A single worker by default, as it was fastest where measured
+     * and averaging changes how training converges.
+     */
+    public static final String TRAINING_WORKERS_PROPERTY = "training.workers";
+    private static final int TRAINING_WORKERS = Integer.getInteger(TRAINING_WORKERS_PROPERTY, 1);
+    /**
+     * Minibatches per worker between averaging parameters; more means less synchronization, but replicas drifting
+     * further apart.
+     */
+    private static final int AVERAGING_FREQUENCY = 4;
 
     private static final Logger log = LoggerFactory.getLogger(NetworkManager.class);
 
-    private final List<IndexWord> labels;
+    /**
+     * Wall time of whole epochs, including evaluation and checkpointing.
+     */
+    private static final Timer epochTimer = Metrics.timer("epoch");
+
+    private final List<Label> labels;
     private final ComputationGraph network;
     private final TransferLearningHelper transferHelper;
     private final LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
     private final File persistenceFile = new File("custom-images-trained-network_" + now.format(DateTimeFormatter.ISO_DATE_TIME));
     private final File labelsFile = new File("custom-images-labels_" + now.format(DateTimeFormatter.ISO_DATE_TIME));
+    private final File headFile = new File("custom-images-head_" + now.format(DateTimeFormatter.ISO_DATE_TIME));
+    private final File checkpointDir = new File("custom-images-checkpoints_" + now.format(DateTimeFormatter.ISO_DATE_TIME));
     private final StatsStorage statsStorage = new InMemoryStatsStorage();
+    private int startEpoch;
+    /**
+     * Checkpoint to continue early stopping from in the next training run, if any.
+     */
+    private HeadCheckpoint resumedFrom;
 
-    public NetworkManager(List<IndexWord> labels) {
+    public NetworkManager(List<Label> labels) {
         this.labels = labels;
         network = buildNetwork();
         transferHelper = new TransferLearningHelper(network);
@@ -100,58 +149,134 @@ public class NetworkManager {
     public void train(DataSetIterator trainIterator, DataSetIterator testIterator, int epochs) {
         if (STATS_ON) transferHelper.unfrozenGraph().setListeners(new StatsListener(statsStorage, 100));
 
-        log.info("Going to featurize images...");
-        // load ahead of time rather than lazily to avoid issues with multiple workspaces (and cache featurized already)
-        preLoad(trainIterator);
-        preLoad(testIterator);
+        List<String> labelStrings = labels.stream().map(Label::getLemma).collect(toList());
 
-        List<String> labelStrings = labels.stream().map(IndexWord::getLemma).collect(toList());
+        ComputationGraph head = transferHelper.unfrozenGraph();
+        HeadEvaluator evaluator = new HeadEvaluator(head, testIterator, labelStrings, TOP_N, EVALUATION_SAMPLES_PER_LABEL);
+        log.info("Evaluating on a sample of {} test images per epoch", evaluator.getSampleSize());
+        log.info(evaluator.evaluateSample().stats(false, false));
 
-        Evaluation evalBefore = transferHelper.unfrozenGraph().evaluate(testIterator, labelStrings);
-        log.info(evalBefore.stats(false, false));
-        testIterator.reset();
-
-        for (int i = 0; i < epochs; i++) {
+        ParallelTrainer trainer = new ParallelTrainer(head, TRAINING_WORKERS, AVERAGING_FREQUENCY);
+        Checkpointer checkpointer = new Checkpointer(checkpointDir, CHECKPOINTS_TO_KEEP);
+        EarlyStopping earlyStopping = new EarlyStopping(PATIENCE, MIN_DELTA, TIME_BUDGET);
+        HeadCheckpoint best = null;
+        if (resumedFrom != null) {
+            earlyStopping.resume(startEpoch, resumedFrom.getBestEpoch(), resumedFrom.getBestScore());
+            if (resumedFrom.getBestEpoch() == resumedFrom.getEpoch()) best = resumedFrom;
+            resumedFrom = null;
+        }
+        int i = startEpoch;
+        for (; i < epochs && !earlyStopping.shouldStop(); i++) {
             log.info("*** Starting training epoch {}", i);
 
-            transferHelper.fitFeaturized(trainIterator);
+            long start = System.nanoTime();
+            trainer.fit(trainIterator);
+            copyHeadToNetwork();
             trainIterator.reset();
+            log.info("Epoch trained in {} s on {} worker(s)", String.format("%.1f", (System.nanoTime() - start) / 1e9), trainer.getWorkers());
 
             log.info("Epoch done, starting evaluation...");
 
-            Evaluation eval = transferHelper.unfrozenGraph().evaluate(testIterator, labelStrings, 3);
-            log.info(eval.stats(false, false));
-            testIterator.reset();
+            boolean full = i % FULL_EVALUATION_FREQUENCY == FULL_EVALUATION_FREQUENCY - 1;
+            Evaluation eval = full ? evaluator.evaluateFull() : evaluator.evaluateSample();
+            log.info("{} evaluation:\n{}", full ? "Full" : "Sampled", eval.stats(false, false));
+            // always score the sample, so scores are comparable across epochs
+            double score = full ? evaluator.evaluateSample().topNAccuracy() : eval.topNAccuracy();
+            if (earlyStopping.record(score)) best = snapshot(i, head);
 
-            if (i > 0 && i % STORE_FREQUENCY == 0) {
-                log.info("Going to store results...");
-                store();
-            }
+            if (i % CHECKPOINT_FREQUENCY == CHECKPOINT_FREQUENCY - 1)
+                checkpointer.checkpoint(i, labels, head, earlyStopping.getBestEpoch(), earlyStopping.getBestScore());
+            epochTimer.recordSince(start);
         }
+        if (earlyStopping.shouldStop()) log.info("Stopping early after epoch {}: {}", i - 1, earlyStopping.getReason());
 
-        if ((epochs - 1) % STORE_FREQUENCY != 0) {
-            log.info("Training complete, storing one last time...");
-            store();
+        trainer.close();
+        if (best != null) {
+            // checkpoint the last epoch as trained, so resuming continues where training stopped
+            checkpointer.checkpoint(i - 1, labels, head, earlyStopping.getBestEpoch(), earlyStopping.getBestScore());
+            log.info("Keeping parameters of epoch {} (sampled top-{} accuracy: {})", best.getEpoch(), TOP_N, earlyStopping.getBestScore());
+            restore(best, head);
+            copyHeadToNetwork();
+            log.info("Final evaluation:\n{}", evaluator.evaluateFull().stats(false, false));
         }
+        checkpointer.close();
+        startEpoch = Math.max(i, startEpoch);
 
         log.info("DONE");
     }
 
-    public void store() {
+    /**
+     * Train copies of the head, as it is now, on the samples as encoded by each codec and evaluate them, see
+     * {@link CodecComparison}.
+     */
+    public void compareCodecs(FeaturizedStore trainStore, FeaturizedStore testStore, int epochs,
+                              BiFunction<FeaturizedStore, Boolean, DataSetIterator> iterators, File workDir) throws IOException {
+        List<String> labelStrings = labels.stream().map(Label::getLemma).collect(toList());
+        CodecComparison comparison = new CodecComparison(transferHelper.unfrozenGraph(), labelStrings, TOP_N, epochs, iterators);
+        Map<ArrayCodec, Evaluation> evaluations = comparison.compare(trainStore, testStore, workDir);
+        log.info("Accuracy by codec after {} epoch(s):\n{}", epochs, CodecComparison.report(evaluations, trainStore.getFeatureLength(), TOP_N));
+    }
+
+    /**
+     * Continue from a checkpoint taken by {@link #train}, i.e. restore the head's parameters and updater state, and
+     * start training with the epoch after it.
+     */
+    public void resume(File checkpointFile) {
+        HeadCheckpoint checkpoint;
+        try {
+            checkpoint = HeadCheckpoint.read(checkpointFile);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read checkpoint: " + checkpointFile, e);
+        }
+        if (!checkpoint.getLabels().equals(labels))
+            throw new IllegalArgumentException("Checkpoint was taken for different labels: " + checkpointFile);
+
+        restore(checkpoint, transferHelper.unfrozenGraph());
+        copyHeadToNetwork();
+        startEpoch = checkpoint.getEpoch() + 1;
+        resumedFrom = checkpoint;
+        log.info("Resuming from {}: {}", checkpoint, checkpointFile.getAbsolutePath());
+    }
+
+    /**
+     * Copy of the head's parameters and updater state, to restore later on.
+     */
+    private HeadCheckpoint snapshot(int epoch, ComputationGraph head) {
+        INDArray updaterState = head.getUpdater().getStateViewArray();
+        return new HeadCheckpoint(epoch, labels, head.params().dup(), updaterState == null ? null : updaterState.dup());
+    }
+
+    private static void restore(HeadCheckpoint checkpoint, ComputationGraph head) {
+        head.params().assign(checkpoint.getParams());
+        if (checkpoint.getUpdaterState() != null) head.getUpdater().getStateViewArray().assign(checkpoint.getUpdaterState());
+    }
+
+    /**
+     * Copy trained parameters from the unfrozen part to the full network, as fitting through the transfer helper
+     * would.
+     */
+    private void copyHeadToNetwork() {
+        for (Layer layer : transferHelper.unfrozenGraph().getLayers())
+            network.getLayer(layer.conf().getLayer().getLayerName()).setParams(layer.params());
+    }
+
+    /**
+     * Store the full trained network (assembled from pre-trained and trained layers), its labels and its head model.
+     */
+    public void export() {
         try {
             ModelSerializer.writeModel(network, persistenceFile, true);
             log.info("Stored trained network to: {}", persistenceFile.getAbsolutePath());
 
-            List<String> labelStrings = labels.stream().map(IndexWord::getLemma).collect(Collectors.toList());
+            List<String> labelStrings = labels.stream().map(Label::getLemma).collect(Collectors.toList());
             Files.write(labelsFile.toPath(), labelStrings);
             log.info("Stored labels to: {}", labelsFile.getAbsolutePath());
+
+            // output layer and labels only, for scoring pre-computed features without the pre-trained network
+            HeadModel.fromNetwork(network, labelStrings).write(headFile);
+            log.info("Stored head model to: {}", headFile.getAbsolutePath());
         } catch (IOException e) {
             log.error("Failed to store outcome", e);
         }
     }
-
-    private void preLoad(DataSetIterator dataSetIterator) {
-        while (dataSetIterator.hasNext()) dataSetIterator.next();
-        dataSetIterator.reset();
-    }
 }
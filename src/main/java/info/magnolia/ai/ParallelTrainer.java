@@ -0,0 +1,160 @@
+package info.magnolia.ai;
+
+import info.magnolia.ai.metrics.Metrics;
+import info.magnolia.ai.metrics.Timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Trains a network on multiple threads through parameter averaging: every worker fits a replica of the network on its
+ * own share of minibatches, and after every {@code averagingFrequency} minibatches per worker, parameters and updater
+ * state of all replicas are averaged and handed back to all of them (and to the network itself).
+ * <p>
+ * With a single worker, the network is simply fit on the calling thread. Mind that native ops may use multiple threads
+ * on their own, so workers times op threads should not exceed the number of cores.
+ * <p>
+ * Either way, the network's iteration count advances by one per minibatch and its epoch count by one per
+ * {@link #fit(DataSetIterator)}, so epoch or iteration dependent schedules and listeners behave alike.
+ */
+public class ParallelTrainer implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelTrainer.class);
+
+    /**
+     * Per minibatch, on any worker.
+     */
+    private static final Timer fitTimer = Metrics.timer("fit");
+
+    private final ComputationGraph network;
+    private final int averagingFrequency;
+    private final List<ComputationGraph> replicas = new ArrayList<>();
+    private final ExecutorService executor;
+
+    public ParallelTrainer(ComputationGraph network, int workers, int averagingFrequency) {
+        if (workers < 1 || averagingFrequency < 1)
+            throw new IllegalArgumentException("Workers and averaging frequency must be positive");
+        this.network = network;
+        this.averagingFrequency = averagingFrequency;
+
+        if (workers > 1) {
+            for (int i = 0; i < workers; i++) replicas.add(network.clone());
+            AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(workers, runnable -> {
+                Thread thread = new Thread(runnable, "trainer-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            executor = null;
+        }
+        log.info("Training on {} worker(s), averaging every {} minibatch(es)", workers, averagingFrequency);
+    }
+
+    public int getWorkers() {
+        return Math.max(replicas.size(), 1);
+    }
+
+    /**
+     * Fit the network on all minibatches of the given iterator, i.e. for one epoch.
+     */
+    public void fit(DataSetIterator iterator) {
+        if (replicas.isEmpty()) {
+            // minibatch by minibatch rather than fit(iterator), to time each of them
+            while (iterator.hasNext()) fit(network, iterator.next());
+            network.incrementEpochCount();
+            return;
+        }
+
+        // the network might have been changed in between, e.g. by restoring a checkpoint
+        for (ComputationGraph replica : replicas) copyState(network, replica);
+
+        while (iterator.hasNext()) {
+            List<Future<?>> rounds = new ArrayList<>();
+            List<ComputationGraph> participants = new ArrayList<>();
+            int minibatches = 0;
+            for (ComputationGraph replica : replicas) {
+                List<DataSet> share = new ArrayList<>(averagingFrequency);
+                while (share.size() < averagingFrequency && iterator.hasNext()) share.add(iterator.next());
+                if (share.isEmpty()) break;
+
+                participants.add(replica);
+                minibatches += share.size();
+                rounds.add(executor.submit(() -> share.forEach(minibatch -> fit(replica, minibatch))));
+            }
+            for (Future<?> round : rounds) join(round);
+
+            average(participants);
+            network.getConfiguration().setIterationCount(network.getIterationCount() + minibatches);
+            for (ComputationGraph replica : replicas) copyState(network, replica);
+        }
+        network.incrementEpochCount();
+    }
+
+    private static void fit(ComputationGraph graph, DataSet minibatch) {
+        long start = System.nanoTime();
+        graph.fit(minibatch);
+        fitTimer.recordSince(start);
+    }
+
+    private static void join(Future<?> round) {
+        try {
+            round.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while training", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Training worker failed", e.getCause());
+        }
+    }
+
+    /**
+     * Average parameters and updater state of the given replicas into the network.
+     */
+    private void average(List<ComputationGraph> participants) {
+        INDArray params = participants.get(0).params().dup();
+        INDArray updaterState = updaterState(participants.get(0));
+        if (updaterState != null) updaterState = updaterState.dup();
+        for (int i = 1; i < participants.size(); i++) {
+            params.addi(participants.get(i).params());
+            if (updaterState != null) updaterState.addi(updaterState(participants.get(i)));
+        }
+        params.divi(participants.size());
+        if (updaterState != null) updaterState.divi(participants.size());
+
+        network.params().assign(params);
+        if (updaterState != null) updaterState(network).assign(updaterState);
+    }
+
+    private static void copyState(ComputationGraph from, ComputationGraph to) {
+        to.params().assign(from.params());
+        INDArray state = updaterState(from);
+        if (state != null) updaterState(to).assign(state);
+        to.getConfiguration().setIterationCount(from.getIterationCount());
+        to.getConfiguration().setEpochCount(from.getEpochCount());
+    }
+
+    /**
+     * Flattened state of the graph's updater, e.g. momentum, or {@code null} if it has none.
+     */
+    private static INDArray updaterState(ComputationGraph graph) {
+        return graph.getUpdater().getStateViewArray();
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) executor.shutdownNow();
+    }
+}
@@ -0,0 +1,58 @@
+package info.magnolia.ai;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-size executor with a bounded queue for one stage of a processing pipeline.
+ * <p>
+ * Submitting to a full queue blocks the submitting thread (usually a worker of the preceding stage) until there is
+ * room again, so a slow stage throttles the ones before it instead of letting work pile up in memory.
+ */
+public class PipelineStage extends ThreadPoolExecutor {
+
+    private final String name;
+
+    /**
+     * @param queueCapacity max. number of waiting tasks, or {@link Integer#MAX_VALUE} for a stage that never blocks
+     * submitters, e.g. one taking over from threads which must not block
+     */
+    public PipelineStage(String name, int threads, int queueCapacity) {
+        super(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(queueCapacity), daemonThreads(name), PipelineStage::blockUntilQueued);
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Number of tasks waiting for a thread of this stage.
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    private static void blockUntilQueued(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) throw new RejectedExecutionException("Pipeline stage has been shut down");
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for pipeline stage", e);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
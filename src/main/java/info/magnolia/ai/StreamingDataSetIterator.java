@@ -0,0 +1,259 @@
+package info.magnolia.ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Iterates over the samples of a {@link FeaturizedStore} in minibatches, reading them from disk as it goes, so memory
+ * use is bounded no matter how large the store is.
+ * <p>
+ * Samples are read in blocks of consecutive records (i.e. sequential I/O), which a background thread turns into
+ * batches ahead of time: at most {@code prefetchBatches} batches plus one block are held at once. If shuffling, every
+ * epoch visits the blocks in a different order, and the samples within each block in a different order as well.
+ * Resetting merely starts a new epoch.
+ */
+public class StreamingDataSetIterator implements DataSetIterator, AutoCloseable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingDataSetIterator.class);
+
+    private static final Object END = new Object();
+
+    private final FeaturizedStore store;
+    private final int batchSize;
+    private final int blockSize;
+    private final int prefetchBatches;
+    private final boolean shuffle;
+    private final long seed;
+
+    private DataSetPreProcessor preProcessor;
+    private int epoch;
+    private Producer producer;
+    private Object peeked;
+
+    /**
+     * @param blockBatches number of batches read from disk in one go, and shuffled among each other
+     * @param shuffle whether to visit samples in a different order every epoch, or in stored order
+     */
+    public StreamingDataSetIterator(FeaturizedStore store, int batchSize, int blockBatches, int prefetchBatches, boolean shuffle, long seed) {
+        this.store = store;
+        this.batchSize = batchSize;
+        this.blockSize = batchSize * blockBatches;
+        this.prefetchBatches = prefetchBatches;
+        this.shuffle = shuffle;
+        this.seed = seed;
+    }
+
+    /**
+     * Max. number of bytes of samples held at once, apart from the batch being consumed.
+     */
+    public long getMemoryBudget() {
+        return ((long) blockSize + (long) prefetchBatches * batchSize) * store.getRecordBytes();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (producer == null) start();
+        if (peeked == null) peeked = producer.take();
+        return peeked != END;
+    }
+
+    @Override
+    public DataSet next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        DataSet batch = (DataSet) peeked;
+        peeked = null;
+        if (preProcessor != null) preProcessor.preProcess(batch);
+        return batch;
+    }
+
+    @Override
+    public DataSet next(int num) {
+        throw new UnsupportedOperationException("Batch size is fixed to " + batchSize);
+    }
+
+    private void start() {
+        int blocks = (store.size() + blockSize - 1) / blockSize;
+        List<Integer> blockOrder = new ArrayList<>(blocks);
+        for (int block = 0; block < blocks; block++) blockOrder.add(block);
+        Random random = new Random(seed + epoch);
+        if (shuffle) Collections.shuffle(blockOrder, random);
+
+        producer = new Producer(blockOrder, random);
+        Thread thread = new Thread(producer, "streaming-iterator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void reset() {
+        if (producer != null) producer.cancel();
+        producer = null;
+        peeked = null;
+        epoch++;
+    }
+
+    @Override
+    public void close() {
+        reset();
+        try {
+            store.close();
+        } catch (IOException e) {
+            log.warn("Failed to close featurized store", e);
+        }
+    }
+
+    @Override
+    public int inputColumns() {
+        return store.getFeatureLength();
+    }
+
+    @Override
+    public int totalOutcomes() {
+        return store.getNumOutcomes();
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    /**
+     * Prefetching is done here already, so there is no need for wrapping this in an async iterator.
+     */
+    @Override
+    public boolean asyncSupported() {
+        return false;
+    }
+
+    @Override
+    public int batch() {
+        return batchSize;
+    }
+
+    @Override
+    public void setPreProcessor(DataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public DataSetPreProcessor getPreProcessor() {
+        return preProcessor;
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return null;
+    }
+
+    /**
+     * Reads the blocks of one epoch and hands out their batches through a bounded queue.
+     */
+    private class Producer implements Runnable {
+        private final List<Integer> blockOrder;
+        private final Random random;
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(Math.max(prefetchBatches, 1));
+        private volatile boolean cancelled;
+
+        Producer(List<Integer> blockOrder, Random random) {
+            this.blockOrder = blockOrder;
+            this.random = random;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(blockSize * store.getRecordBytes());
+                int[] order = new int[blockSize];
+                for (int block : blockOrder) {
+                    int first = block * blockSize;
+                    int count = Math.min(blockSize, store.size() - first);
+                    buffer.clear();
+                    store.read(first, count, buffer);
+
+                    for (int i = 0; i < count; i++) order[i] = i;
+                    if (shuffle) shuffle(order, count);
+
+                    for (int from = 0; from < count; from += batchSize) {
+                        if (!offer(toBatch(buffer, order, from, Math.min(from + batchSize, count)))) return;
+                    }
+                }
+                offer(END);
+            } catch (Exception e) {
+                offer(e);
+            }
+        }
+
+        private void shuffle(int[] order, int count) {
+            for (int i = count - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+        }
+
+        private DataSet toBatch(ByteBuffer buffer, int[] order, int from, int to) {
+            int rows = to - from;
+            float[] features = new float[rows * store.getFeatureLength()];
+            float[] labels = new float[rows * store.getNumOutcomes()];
+            for (int row = 0; row < rows; row++)
+                store.decode(buffer, order[from + row] * store.getRecordBytes(), features, labels, row);
+            return new DataSet(Nd4j.create(features, new int[]{rows, store.getFeatureLength()}),
+                    Nd4j.create(labels, new int[]{rows, store.getNumOutcomes()}));
+        }
+
+        /**
+         * Wait for room in the queue, unless cancelled in the meantime.
+         */
+        private boolean offer(Object item) {
+            try {
+                while (!cancelled) {
+                    if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        Object take() {
+            try {
+                Object item = queue.take();
+                if (item instanceof Exception) {
+                    // keep failing rather than blocking on later calls
+                    queue.offer(item);
+                    throw new RuntimeException("Failed to read featurized samples", (Exception) item);
+                }
+                return item;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for featurized samples", e);
+            }
+        }
+
+        /**
+         * Not interrupting, as that would close the store's channel.
+         */
+        void cancel() {
+            cancelled = true;
+            queue.clear();
+        }
+    }
+}
@@ -1,49 +1,192 @@
 package info.magnolia.ai;
 
-import static java.util.stream.Collectors.toMap;
-
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import info.magnolia.ai.cache.ArrayCache;
+import info.magnolia.ai.cache.ArrayCodec;
+import info.magnolia.ai.cache.Cache;
+import info.magnolia.ai.cache.ContentRegistry;
+import info.magnolia.ai.cache.Hashing;
+import info.magnolia.ai.cache.ShardedArrayCache;
+import info.magnolia.ai.cache.ShardedPixelCache;
+import info.magnolia.ai.cache.TieredCache;
+import info.magnolia.ai.image.ImageDecoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
 import java.util.function.Predicate;
 
 import org.jetbrains.annotations.NotNull;
+import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.iterator.BaseDatasetIterator;
-import org.nd4j.linalg.dataset.api.iterator.CachingDataSetIterator;
-import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
-import org.nd4j.linalg.dataset.api.iterator.cache.InMemoryDataSetCache;
-import org.nd4j.linalg.dataset.api.iterator.fetcher.DataSetFetcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import net.sf.extjwnl.data.IndexWord;
-
 public class TrainingOrganizer {
 
     private static final Logger log = LoggerFactory.getLogger(TrainingOrganizer.class);
 
     private static final int EPOCHS = 100;
+    /**
+     * Keep every decoded image as raw pixels (150 KB each), so that featurizing again, e.g. after changing the cut-off
+     * layer, needs neither downloads nor decoding.
+     */
+    private static final boolean PIXEL_STORE_ON = false;
+    /**
+     * Memory budget for featurized samples kept in front of the on-disk cache.
+     */
+    private static final long FEATURIZED_MEMORY_CACHE_BYTES = 512L * 1024 * 1024;
+    /**
+     * Encoding of featurized samples in the on-disk cache and the store trained on; reduced precision takes 2 (float16)
+     * to 4 (int8) times less disk and page cache, see {@link #compareCodecs} for what it costs in accuracy.
+     */
+    private static final ArrayCodec FEATURIZED_CODEC = ArrayCodec.FLOAT32;
+    private static final int BATCH_SIZE = 50;
+    /**
+     * Images run through the frozen layers at once, i.e. one forward pass per this many cache misses; configurable
+     * through the {@value #FEATURIZE_BATCH_SIZE_PROPERTY} system property. Expected to pay off on GPUs (fewer, larger
+     * kernel launches), but mind activation memory, which grows linearly with it; on CPUs, larger minibatches were
+     * measured to be slower (1.87 images/s for 16 vs. 2.43 for 1), hence 1 by default.
+     */
+    public static final String FEATURIZE_BATCH_SIZE_PROPERTY = "featurize.batchSize";
+    private static final int FEATURIZE_BATCH_SIZE = Integer.getInteger(FEATURIZE_BATCH_SIZE_PROPERTY, 1);
+    /**
+     * Images fetched at once when featurizing; featurization batch sizes should divide it to avoid partial minibatches.
+     */
+    private static final int FETCH_BATCH_SIZE = 64;
+    /**
+     * Featurized samples to train on are streamed from here rather than held in memory; rewritten on every run.
+     */
+    private static final File STORE_DIR = new File(System.getProperty("user.home"), ".mgnl");
+    /**
+     * Batches read from disk in one go; larger blocks mean more sequential I/O and better shuffling, but more memory.
+     */
+    private static final int BLOCK_BATCHES = 64;
+    private static final int PREFETCH_BATCHES = 16;
+    private static final long SHUFFLE_SEED = 42;
 
     private final ImageIndex imageIndex;
     private final NetworkManager networkManager;
+    /**
+     * Shared by train and test fetchers, as the sharded cache must only be opened once.
+     */
+    private final TieredCache<INDArray> featurizedCache;
+    private final ShardedPixelCache pixelStore;
+    /**
+     * Images to train and test on, with those known to have the same content merged; see {@link #getImages}.
+     */
+    private ImageTable images;
 
     public TrainingOrganizer() {
         this.imageIndex = new ImageIndex();
         this.networkManager = new NetworkManager(imageIndex.getLabels());
+        // records of different codecs differ in size, so they cannot share a directory
+        String codecSuffix = FEATURIZED_CODEC == ArrayCodec.FLOAT32 ? "" : "-" + FEATURIZED_CODEC.name().toLowerCase();
+        Cache<INDArray> featurizedDiskCache = new ShardedArrayCache("custom-image-recognition-samples_featurized-packed" + codecSuffix,
+                networkManager.getTransferHelper().unfrozenGraph().layerInputSize(0), FEATURIZED_CODEC,
+                new ArrayCache("custom-image-recognition-samples_featurized"));
+        this.featurizedCache = new TieredCache<>(featurizedDiskCache, FEATURIZED_MEMORY_CACHE_BYTES, ArrayCache::sizeInBytes);
+        this.pixelStore = PIXEL_STORE_ON ? new ShardedPixelCache("custom-image-recognition-samples_pixels", 224, 224, ImageDecoder.CHANNELS) : null;
 
         log.info("Image index: {}", imageIndex);
     }
 
+    /**
+     * Featurize the selected images (where not cached yet) into a store on disk, and stream batches from there.
+     */
     @NotNull
-    private DataSetIterator buildIterator(Predicate<String> filter) {
-        Map<String, Set<IndexWord>> images = this.imageIndex.getImages().entrySet().stream()
-                .filter(entry -> filter.test(entry.getKey()))
-                .collect(toMap(Entry::getKey, Entry::getValue));
+    private StreamingDataSetIterator buildIterator(String name, Predicate<String> filter, boolean shuffle, boolean reuseStore) {
+        FeaturizedStore store = buildStore(name, filter, FEATURIZED_CODEC, reuseStore);
+        StreamingDataSetIterator iterator = stream(store, shuffle);
+        log.info("Streaming {} from {} (memory budget: {} MB)", name, store, iterator.getMemoryBudget() / (1024 * 1024));
+        return iterator;
+    }
 
-        // FIXME: Why are some words in images values not in labels?
+    /**
+     * Featurize the selected images (where not cached yet) into a store on disk, or open the existing one, if asked to
+     * and written with the same codec from the same images and labels.
+     */
+    private FeaturizedStore buildStore(String name, Predicate<String> filter, ArrayCodec codec, boolean reuseStore) {
+        ImageTable images = getImages().filter(filter);
+        byte[] fingerprint = fingerprint(images, imageIndex.getLabels());
+
+        File storeFile = new File(STORE_DIR, "custom-image-recognition-" + name + ".featurized");
+        try {
+            if (reuseStore && storeFile.exists()) {
+                Optional<FeaturizedStore> store = openStore(storeFile, codec, fingerprint);
+                if (store.isPresent()) return store.get();
+            }
+
+            long start = System.nanoTime();
+            FeaturizedStore store;
+            try (FeaturizedFetcher fetcher = new FeaturizedFetcher(images, imageIndex.getLabels(), networkManager.getTransferHelper(),
+                    featurizedCache, FEATURIZE_BATCH_SIZE, pixelStore)) {
+                store = FeaturizedStore.write(storeFile, new BaseDatasetIterator(FETCH_BATCH_SIZE, images.size(), fetcher), codec, fingerprint);
+            }
+            featurizedCache.flush();
+            if (pixelStore != null) pixelStore.flush();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            log.info("Featurized {} {} images in {} s ({} images/s)", store.size(), name, String.format("%.1f", seconds),
+                    String.format("%.1f", store.size() / seconds));
+            if (pixelStore != null) log.info("Pixel store: {}", pixelStore);
+            log.info("Image contents: {}", ImageNetDataFetcher.getContentRegistry());
+            return store;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to store featurized samples: " + storeFile, e);
+        }
+    }
+
+    /**
+     * Open an existing store, if it was written with the given codec and fingerprint.
+     */
+    private static Optional<FeaturizedStore> openStore(File storeFile, ArrayCodec codec, byte[] fingerprint) {
+        try {
+            FeaturizedStore store = FeaturizedStore.open(storeFile);
+            if (store.getCodec() == codec && Arrays.equals(store.getFingerprint(), fingerprint)) return Optional.of(store);
+            log.info("Not reusing {}, as it was written with a different codec or from different images or labels", storeFile);
+            store.close();
+        } catch (IOException e) {
+            log.warn("Not reusing unreadable store: {}", storeFile, e);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Fingerprint of the images and labels a store is written from, so it is only reused for the same ones.
+     */
+    private static byte[] fingerprint(ImageTable images, List<Label> labels) {
+        StringBuilder labelText = new StringBuilder();
+        for (Label label : labels) labelText.append(label.getLemma()).append('\t').append(String.join(",", label.getSynsetIds())).append('\n');
+        byte[] labelHash = Hashing.sha256(labelText.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] imageHash = images.fingerprint();
+
+        byte[] both = Arrays.copyOf(imageHash, imageHash.length + labelHash.length);
+        System.arraycopy(labelHash, 0, both, imageHash.length, labelHash.length);
+        return Hashing.sha256(both);
+    }
+
+    /**
+     * All images of the index, with those of the same content (as far as known from earlier downloads) merged into one
+     * carrying all of their labels. Determined once, so that train and test set are split on the same images, and
+     * duplicates cannot end up in both of them. Contents first downloaded by this run are only merged by the next one,
+     * which then rebuilds its stores, as they no longer match the images.
+     */
+    private ImageTable getImages() {
+        if (images == null) {
+            ImageTable all = imageIndex.getImages();
+            ContentRegistry contents = ImageNetDataFetcher.getContentRegistry();
+            images = all.deduplicate(contents::getContent);
+            int merged = all.size() - images.size();
+            log.info("Merged {} images with the same content as others ({}% of {}), {} images left; contents known of {} URLs",
+                    merged, String.format("%.1f", all.size() == 0 ? 0 : 100.0 * merged / all.size()), all.size(), images.size(), contents.size());
+        }
+        return images;
+    }
 
-        DataSetFetcher fetcher = new FeaturizedFetcher(images, imageIndex.getLabels(), networkManager.getTransferHelper());
-        return new CachingDataSetIterator(new BaseDatasetIterator(50, images.size(), fetcher), new InMemoryDataSetCache());
+    private StreamingDataSetIterator stream(FeaturizedStore store, boolean shuffle) {
+        return new StreamingDataSetIterator(store, BATCH_SIZE, BLOCK_BATCHES, PREFETCH_BATCHES, shuffle, SHUFFLE_SEED);
     }
 
     /**
@@ -55,9 +198,48 @@ public class TrainingOrganizer {
     }
 
     public void train() {
-        DataSetIterator trainIterator = buildIterator(url -> !this.useForEval(url));
-        DataSetIterator evalIterator = buildIterator(this::useForEval);
+        train(null);
+    }
+
+    /**
+     * @param checkpoint checkpoint to resume training from (reusing the featurized samples of the previous run), or
+     * {@code null} to start from scratch
+     */
+    public void train(File checkpoint) {
+        boolean resume = checkpoint != null;
+        if (resume) networkManager.resume(checkpoint);
+
+        log.info("Going to featurize images...");
+        try (StreamingDataSetIterator trainIterator = buildIterator("train", url -> !this.useForEval(url), true, resume);
+             StreamingDataSetIterator evalIterator = buildIterator("eval", this::useForEval, false, resume)) {
+            networkManager.train(trainIterator, evalIterator, EPOCHS);
+        }
+        log.info("Featurized cache: {}", featurizedCache);
+        networkManager.export();
+    }
 
-        networkManager.train(trainIterator, evalIterator, EPOCHS);
+    /**
+     * Check what reduced precision of featurized samples costs: train the head from scratch for the given number of
+     * epochs on samples as encoded by each {@link ArrayCodec}, and compare top-1 and top-N accuracy of the results.
+     * Reuses the featurized samples of the previous run, if they are at full precision.
+     */
+    public void compareCodecs(int epochs) {
+        if (FEATURIZED_CODEC != ArrayCodec.FLOAT32)
+            log.warn("Featurized cache is at reduced precision ({}), so full precision samples are not exact", FEATURIZED_CODEC);
+        log.info("Going to featurize images...");
+        try (FeaturizedStore trainStore = buildStore("train", url -> !this.useForEval(url), ArrayCodec.FLOAT32, true);
+             FeaturizedStore evalStore = buildStore("eval", this::useForEval, ArrayCodec.FLOAT32, true)) {
+            networkManager.compareCodecs(trainStore, evalStore, epochs, this::stream, STORE_DIR);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to compare codecs", e);
+        }
+    }
+
+    /**
+     * Assemble the full model from a checkpoint and store it, without any training.
+     */
+    public void export(File checkpoint) {
+        networkManager.resume(checkpoint);
+        networkManager.export();
     }
 }
@@ -1,32 +1,89 @@
 package info.magnolia.ai.cache;
 
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Optional;
 
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
+/**
+ * Cache of arrays, one file per array; entries consist of the {@link ArrayCodec} used, the array's shape and its
+ * encoded values. Entries serialized by ND4J, as written by earlier versions, can still be read.
+ */
 public class ArrayCache extends FileSystemCache<INDArray> {
+
+    /**
+     * Rough size of an array apart from its data: java objects plus (off-heap) shape information.
+     */
+    private static final long ARRAY_OVERHEAD = 256;
+    /**
+     * First byte of ND4J's serialization (the high byte of a short string length), as opposed to the codec ids.
+     */
+    private static final int ND4J_FORMAT = 0;
+
+    private final ArrayCodec codec;
+
     public ArrayCache(String dirName) {
+        this(dirName, ArrayCodec.FLOAT32);
+    }
+
+    /**
+     * @param codec codec to write entries with; entries written with any other one can still be read
+     */
+    public ArrayCache(String dirName, ArrayCodec codec) {
         super(dirName);
+        this.codec = codec;
     }
 
-    protected Optional<INDArray> readFromFile(File file) throws IOException {
-        if (file.length() == 0) return Optional.of(Nd4j.empty());
+    protected Optional<INDArray> readFrom(InputStream stream) throws IOException {
+        PushbackInputStream pushbackStream = new PushbackInputStream(stream);
+        int first = pushbackStream.read();
+        if (first == -1) return Optional.of(Nd4j.empty());
 
-        try (InputStream stream = new FileInputStream(file)) {
-            return Optional.of(Nd4j.read(stream));
+        if (first == ND4J_FORMAT) {
+            pushbackStream.unread(first);
+            return Optional.of(Nd4j.read(pushbackStream));
         }
+
+        ArrayCodec entryCodec = ArrayCodec.forId((byte) first);
+        DataInputStream data = new DataInputStream(pushbackStream);
+        long[] shape = new long[data.readByte()];
+        for (int i = 0; i < shape.length; i++) shape[i] = data.readLong();
+        int length = (int) Arrays.stream(shape).reduce(1, (a, b) -> a * b);
+        byte[] encoded = new byte[entryCodec.recordBytes(length)];
+        data.readFully(encoded);
+
+        float[] values = new float[length];
+        entryCodec.decode(ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN), values, 0, length);
+        return Optional.of(Nd4j.create(values, shape, 'c'));
+    }
+
+    protected void writeTo(INDArray array, OutputStream stream) throws IOException {
+        // signal empty array simply by empty content
+        if (array.isEmpty()) return;
+
+        DataOutputStream data = new DataOutputStream(stream);
+        data.writeByte(codec.getId());
+        data.writeByte(array.rank());
+        for (long size : array.shape()) data.writeLong(size);
+        ByteBuffer encoded = ByteBuffer.allocate(codec.recordBytes((int) array.length())).order(ByteOrder.LITTLE_ENDIAN);
+        codec.encode(array, encoded);
+        data.write(encoded.array());
     }
 
-    protected void writeToFile(INDArray array, File file) throws IOException {
-        if (array.isEmpty())
-            // signal empty array simply by empty file
-            file.createNewFile();
-        else
-            Nd4j.saveBinary(array, file);
+    /**
+     * Memory taken up by an array, including its off-heap data; for use as {@link TieredCache} weigher.
+     */
+    public static long sizeInBytes(INDArray array) {
+        if (array.isEmpty()) return ARRAY_OVERHEAD;
+        return ARRAY_OVERHEAD + array.length() * array.data().getElementSize();
     }
 }
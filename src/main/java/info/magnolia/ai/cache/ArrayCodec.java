@@ -0,0 +1,184 @@
+package info.magnolia.ai.cache;
+
+import java.nio.ByteBuffer;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Encoding of float vectors (e.g. featurized samples) in caches and stores, trading precision for space. Encoded
+ * vectors are decoded straight into floats again.
+ * <p>
+ * All methods read and write relative to the buffer's position, in the buffer's byte order.
+ */
+public enum ArrayCodec {
+
+    /**
+     * Lossless, 4 bytes per value.
+     */
+    FLOAT32(1) {
+        @Override
+        public int recordBytes(int length) {
+            return length * Float.BYTES;
+        }
+
+        @Override
+        public void encode(float[] values, int offset, int length, ByteBuffer target) {
+            target.asFloatBuffer().put(values, offset, length);
+            target.position(target.position() + length * Float.BYTES);
+        }
+
+        @Override
+        public void decode(ByteBuffer source, float[] values, int offset, int length) {
+            source.asFloatBuffer().get(values, offset, length);
+            source.position(source.position() + length * Float.BYTES);
+        }
+    },
+
+    /**
+     * IEEE half precision, 2 bytes per value: about three significant decimal digits, values beyond 65504 become
+     * infinite.
+     */
+    FLOAT16(2) {
+        @Override
+        public int recordBytes(int length) {
+            return length * 2;
+        }
+
+        @Override
+        public void encode(float[] values, int offset, int length, ByteBuffer target) {
+            for (int i = offset; i < offset + length; i++) target.putShort(toHalf(values[i]));
+        }
+
+        @Override
+        public void decode(ByteBuffer source, float[] values, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) values[i] = HALF_TO_FLOAT[source.getShort() & 0xFFFF];
+        }
+    },
+
+    /**
+     * Per-vector scaled 8 bits: each vector's range is split into 255 steps, i.e. values are off by at most half a
+     * step. One byte per value plus 8 bytes per vector (offset and step); the range's minimum, e.g. the zeros of a
+     * post-ReLU vector, is kept exactly.
+     */
+    INT8(3) {
+        @Override
+        public int recordBytes(int length) {
+            return 2 * Float.BYTES + length;
+        }
+
+        @Override
+        public void encode(float[] values, int offset, int length, ByteBuffer target) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = offset; i < offset + length; i++) {
+                min = Math.min(min, values[i]);
+                max = Math.max(max, values[i]);
+            }
+            if (length == 0) min = max = 0;
+            float step = (max - min) / 255;
+
+            target.putFloat(min).putFloat(step);
+            for (int i = offset; i < offset + length; i++) {
+                int quantized = step == 0 ? 0 : Math.round((values[i] - min) / step);
+                target.put((byte) Math.max(0, Math.min(255, quantized)));
+            }
+        }
+
+        @Override
+        public void decode(ByteBuffer source, float[] values, int offset, int length) {
+            float min = source.getFloat();
+            float step = source.getFloat();
+            for (int i = offset; i < offset + length; i++) values[i] = min + (source.get() & 0xFF) * step;
+        }
+    };
+
+    private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+    static {
+        for (int half = 0; half < HALF_TO_FLOAT.length; half++) HALF_TO_FLOAT[half] = fromHalf(half);
+    }
+
+    private final byte id;
+
+    ArrayCodec(int id) {
+        this.id = (byte) id;
+    }
+
+    /**
+     * Stable identifier, for recording the codec along with encoded data.
+     */
+    public byte getId() {
+        return id;
+    }
+
+    public static ArrayCodec forId(byte id) {
+        for (ArrayCodec codec : values()) if (codec.id == id) return codec;
+        throw new IllegalArgumentException("Unknown codec: " + id);
+    }
+
+    /**
+     * Number of bytes a vector of the given length is encoded into.
+     */
+    public abstract int recordBytes(int length);
+
+    public abstract void encode(float[] values, int offset, int length, ByteBuffer target);
+
+    public abstract void decode(ByteBuffer source, float[] values, int offset, int length);
+
+    /**
+     * Encode all values of an array, in c order.
+     */
+    public void encode(INDArray array, ByteBuffer target) {
+        float[] values = array.dup('c').data().asFloat();
+        encode(values, 0, values.length, target);
+    }
+
+    /**
+     * Decode a vector into a row vector.
+     */
+    public INDArray decode(ByteBuffer source, int length) {
+        float[] values = new float[length];
+        decode(source, values, 0, length);
+        return Nd4j.create(values);
+    }
+
+    /**
+     * Round to the nearest half precision value (ties to even).
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = bits >>> 16 & 0x8000;
+        if ((bits & 0x7FFFFFFF) > 0x7F800000) return (short) (sign | 0x7E00); // NaN
+
+        int exponent = (bits >>> 23 & 0xFF) - 127 + 15;
+        int mantissa = bits & 0x7FFFFF;
+        if (exponent >= 0x1F) return (short) (sign | 0x7C00); // infinity
+        if (exponent <= 0) {
+            // subnormal, or zero
+            if (exponent < -10) return (short) sign;
+            return (short) (sign | round(mantissa | 0x800000, 14 - exponent));
+        }
+        // rounding up may carry into the exponent, which is just right
+        return (short) (sign | round(exponent << 23 | mantissa, 13));
+    }
+
+    private static int round(int value, int shift) {
+        int rounded = value >> shift;
+        int remainder = value & (1 << shift) - 1;
+        int halfway = 1 << shift - 1;
+        return remainder > halfway || remainder == halfway && (rounded & 1) != 0 ? rounded + 1 : rounded;
+    }
+
+    static float fromHalf(int half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = half >>> 10 & 0x1F;
+        int mantissa = half & 0x3FF;
+        if (exponent == 0x1F) return Float.intBitsToFloat(sign | 0x7F800000 | mantissa << 13);
+        if (exponent == 0) {
+            float subnormal = mantissa * 0x1p-24f;
+            return sign == 0 ? subnormal : -subnormal;
+        }
+        return Float.intBitsToFloat(sign | exponent + 127 - 15 << 23 | mantissa << 13);
+    }
+}
@@ -0,0 +1,25 @@
+package info.magnolia.ai.cache;
+
+import java.util.Optional;
+
+public interface Cache<T> {
+
+    /**
+     * Whether there is an entry for the given key, ideally without reading it.
+     */
+    boolean isCached(String key);
+
+    Optional<T> get(String key);
+
+    void put(String key, T item);
+
+    void remove(String key);
+
+    void clear();
+
+    /**
+     * Make entries put so far durable, for caches writing them in batches.
+     */
+    default void flush() {
+    }
+}
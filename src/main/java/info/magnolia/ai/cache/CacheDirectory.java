@@ -0,0 +1,66 @@
+package info.magnolia.ai.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Directory of a cache, in the user's {@code .mgnl} folder, with helpers for listing and deleting its entries.
+ */
+class CacheDirectory {
+
+    private static final String MGNL_FOLDER = ".mgnl";
+
+    private final File dir;
+
+    CacheDirectory(String dirName) {
+        dir = new File(System.getProperty("user.home") + File.separator + MGNL_FOLDER, dirName);
+    }
+
+    File getFile() {
+        return dir;
+    }
+
+    File resolve(String name) {
+        return new File(dir, name);
+    }
+
+    boolean mkdirs() {
+        return dir.mkdirs();
+    }
+
+    List<File> listEntries() {
+        return listEntries(dir);
+    }
+
+    /**
+     * Delete all entries, down to one level of subdirectories, and the directory itself; deleting subdirectories in
+     * parallel.
+     */
+    void delete() {
+        listEntries(dir).parallelStream().forEach(entry -> {
+            if (entry.isDirectory()) listEntries(entry).forEach(File::delete);
+            entry.delete();
+        });
+        dir.delete();
+    }
+
+    @Override
+    public String toString() {
+        return dir.toString();
+    }
+
+    static List<File> listEntries(File directory) {
+        List<File> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath())) {
+            stream.forEach(path -> entries.add(path.toFile()));
+        } catch (IOException e) {
+            // not existing (anymore)
+        }
+        return entries;
+    }
+}
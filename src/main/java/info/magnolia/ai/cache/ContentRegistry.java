@@ -0,0 +1,133 @@
+package info.magnolia.ai.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of contents (e.g. image bytes) by key (e.g. image URL), to find the same content under several keys, like
+ * mirrors or CDN variants of an image.
+ * <p>
+ * Contents are only kept as the first 64 bits of their SHA-256 hash, and keys as 64-bit fingerprints. All entries live
+ * in memory and are persisted in a single append-only file, which is read once on startup.
+ */
+public class ContentRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentRegistry.class);
+
+    private static final String MGNL_FOLDER = ".mgnl";
+    private static final String SUFFIX = ".contents";
+    /**
+     * Key fingerprint (8 bytes), content hash (8 bytes).
+     */
+    private static final int RECORD_BYTES = 16;
+
+    private final File file;
+    /**
+     * Mapping from key fingerprint to content hash.
+     */
+    private final Map<Long, Long> contents = new ConcurrentHashMap<>();
+    private FileChannel channel;
+
+    public ContentRegistry(String name) {
+        this.file = new File(System.getProperty("user.home") + File.separator + MGNL_FOLDER, name + SUFFIX);
+
+        try {
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load content registry: " + file, e);
+        }
+        log.info("Loaded contents of {} keys from {}", contents.size(), file);
+    }
+
+    private synchronized void load() throws IOException {
+        file.getParentFile().mkdirs();
+        channel = new RandomAccessFile(file, "rw").getChannel();
+
+        long records = channel.size() / RECORD_BYTES;
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, records * RECORD_BYTES);
+        for (long i = 0; i < records; i++) contents.put(buffer.getLong(), buffer.getLong());
+
+        // drop a partially written record
+        channel.truncate(records * RECORD_BYTES);
+        channel.position(channel.size());
+    }
+
+    /**
+     * Hash of the content recorded for the given key, if any.
+     */
+    public Optional<Long> getContent(String key) {
+        return Optional.ofNullable(contents.get(fingerprint(key)));
+    }
+
+    /**
+     * Record the content of a key.
+     */
+    public void record(String key, byte[] content) {
+        long fingerprint = fingerprint(key);
+        long hash = hash(content);
+        Long previous = contents.put(fingerprint, hash);
+        if (previous == null || previous != hash) append(fingerprint, hash);
+    }
+
+    public int size() {
+        return contents.size();
+    }
+
+    /**
+     * Number of keys sharing their content with another key, i.e. all but one key of every content.
+     */
+    public int getDuplicateCount() {
+        return contents.size() - new HashSet<>(contents.values()).size();
+    }
+
+    public synchronized void clear() {
+        contents.clear();
+        try {
+            channel.truncate(0);
+        } catch (IOException e) {
+            log.error("Failed to clear content registry", e);
+        }
+    }
+
+    private synchronized void append(long fingerprint, long hash) {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES);
+        buffer.putLong(fingerprint).putLong(hash).flip();
+        try {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } catch (IOException e) {
+            log.error("Failed to write to content registry", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        int duplicates = getDuplicateCount();
+        return String.format("ContentRegistry (%s keys, %s duplicates, i.e. %.1f%%)", contents.size(), duplicates,
+                contents.isEmpty() ? 0 : 100.0 * duplicates / contents.size());
+    }
+
+    /**
+     * Fingerprint of a key, as recorded.
+     */
+    public static long fingerprint(String key) {
+        return FailureRegistry.fingerprint(key);
+    }
+
+    /**
+     * First 64 bits of the content's SHA-256 hash; collisions are practically impossible at the number of contents
+     * involved.
+     */
+    static long hash(byte[] content) {
+        return ByteBuffer.wrap(Hashing.sha256(content)).getLong();
+    }
+}
@@ -0,0 +1,196 @@
+package info.magnolia.ai.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Negative cache remembering keys (e.g. image URLs) whose processing failed, so they can be skipped right away.
+ * <p>
+ * Keys are only kept as 64-bit fingerprints, together with the failure reason and time. All entries live in memory and
+ * are persisted in a single append-only file, which is read once on startup. Entries expire after a given time to
+ * let failures be retried.
+ */
+public class FailureRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(FailureRegistry.class);
+
+    private static final String MGNL_FOLDER = ".mgnl";
+    private static final String SUFFIX = ".failures";
+    /**
+     * Fingerprint (8 bytes), timestamp (8 bytes), reason (1 byte).
+     */
+    private static final int RECORD_BYTES = 17;
+    /**
+     * Reason code of records which remove earlier ones.
+     */
+    private static final byte REMOVED = -1;
+
+    public enum Reason {
+        DOWNLOAD, DECODE
+    }
+
+    private final File file;
+    private final long ttl;
+    private final Clock clock;
+    /**
+     * Mapping from key fingerprint to failure time (upper 56 bits) and reason (lower 8 bits).
+     */
+    private final Map<Long, Long> failures = new ConcurrentHashMap<>();
+    private FileChannel channel;
+
+    public FailureRegistry(String name, Duration ttl) {
+        this(name, ttl, Clock.systemUTC());
+    }
+
+    FailureRegistry(String name, Duration ttl, Clock clock) {
+        this.file = new File(System.getProperty("user.home") + File.separator + MGNL_FOLDER, name + SUFFIX);
+        this.ttl = ttl.toMillis();
+        this.clock = clock;
+
+        try {
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load failure registry: " + file, e);
+        }
+        log.info("Loaded {} failures from {}", failures.size(), file);
+    }
+
+    private synchronized void load() throws IOException {
+        file.getParentFile().mkdirs();
+        channel = new RandomAccessFile(file, "rw").getChannel();
+
+        long records = channel.size() / RECORD_BYTES;
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, records * RECORD_BYTES);
+        for (long i = 0; i < records; i++) {
+            long fingerprint = buffer.getLong();
+            long timestamp = buffer.getLong();
+            byte reason = buffer.get();
+
+            if (reason == REMOVED || isExpired(timestamp)) failures.remove(fingerprint);
+            else failures.put(fingerprint, pack(timestamp, reason));
+        }
+
+        // drop a partially written record as well as superseded and expired ones
+        if (records > 2L * failures.size() + 1024 || channel.size() != records * RECORD_BYTES) compact();
+        channel.position(channel.size());
+    }
+
+    private void compact() throws IOException {
+        File compacted = new File(file.getPath() + ".tmp");
+        try (FileChannel out = new RandomAccessFile(compacted, "rw").getChannel()) {
+            out.truncate(0);
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES * 1024);
+            for (Map.Entry<Long, Long> entry : failures.entrySet()) {
+                if (!buffer.hasRemaining()) flush(buffer, out);
+                put(buffer, entry.getKey(), timestamp(entry.getValue()), reason(entry.getValue()));
+            }
+            flush(buffer, out);
+        }
+        channel.close();
+        if (!compacted.renameTo(file)) throw new IOException("Failed to replace failure registry with compacted one");
+        channel = new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Whether a failure of the given key has been recorded and has not expired yet.
+     */
+    public boolean isFailed(String key) {
+        return getReason(key).isPresent();
+    }
+
+    /**
+     * Reason of the recorded failure of the given key, unless there is none or it has expired.
+     */
+    public Optional<Reason> getReason(String key) {
+        Long failure = failures.get(fingerprint(key));
+        if (failure == null || isExpired(timestamp(failure))) return Optional.empty();
+        return Optional.of(Reason.values()[reason(failure)]);
+    }
+
+    private boolean isExpired(long timestamp) {
+        return clock.millis() - timestamp >= ttl;
+    }
+
+    public void record(String key, Reason reason) {
+        long fingerprint = fingerprint(key);
+        long timestamp = clock.millis();
+        failures.put(fingerprint, pack(timestamp, (byte) reason.ordinal()));
+        append(fingerprint, timestamp, (byte) reason.ordinal());
+    }
+
+    /**
+     * Forget about a failure, e.g. because a retry succeeded.
+     */
+    public void remove(String key) {
+        long fingerprint = fingerprint(key);
+        if (failures.remove(fingerprint) != null) append(fingerprint, clock.millis(), REMOVED);
+    }
+
+    public int size() {
+        return failures.size();
+    }
+
+    public synchronized void clear() {
+        failures.clear();
+        try {
+            channel.truncate(0);
+        } catch (IOException e) {
+            log.error("Failed to clear failure registry", e);
+        }
+    }
+
+    private synchronized void append(long fingerprint, long timestamp, byte reason) {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES);
+        put(buffer, fingerprint, timestamp, reason);
+        try {
+            flush(buffer, channel);
+        } catch (IOException e) {
+            log.error("Failed to write to failure registry", e);
+        }
+    }
+
+    private static void put(ByteBuffer buffer, long fingerprint, long timestamp, byte reason) {
+        buffer.putLong(fingerprint).putLong(timestamp).put(reason);
+    }
+
+    private static long pack(long timestamp, byte reason) {
+        return timestamp << 8 | reason & 0xFF;
+    }
+
+    private static long timestamp(long packed) {
+        return packed >>> 8;
+    }
+
+    private static byte reason(long packed) {
+        return (byte) packed;
+    }
+
+    /**
+     * 64-bit FNV-1a hash; collisions are practically impossible at the number of keys involved.
+     */
+    static long fingerprint(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -1,70 +1,205 @@
 package info.magnolia.ai.cache;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Optional;
+import java.util.UUID;
 
-import org.nd4j.linalg.api.ndarray.INDArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public abstract class FileSystemCache<T> {
+/**
+ * Cache storing each entry in a file of its own.
+ * <p>
+ * Files are named by a hash of their key and spread over subdirectories by hash prefix, to keep directories small.
+ * Every file starts with the full key, so that (unlikely) hash collisions are detected rather than returning another
+ * key's entry. Files are written to a temporary file first and then atomically moved into place, so a crash never
+ * leaves a partially written entry behind.
+ * <p>
+ * Entries written by earlier versions - in one flat directory, named by the escaped key and without header - can
+ * still be read.
+ */
+public abstract class FileSystemCache<T> implements Cache<T> {
 
     private static final Logger log = LoggerFactory.getLogger(FileSystemCache.class);
 
     private static final String SUFFIX = ".cache";
-    private static final String MGNL_FOLDER = ".mgnl";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int HEADER_MAGIC = 0x4D434332; // "MCC2", key as length-prefixed UTF-8
+    /**
+     * Number of hex digits of the hash used for subdirectory names, i.e. there are up to 16^n subdirectories.
+     */
+    private static final int PREFIX_LENGTH = 2;
+
+    private final CacheDirectory directory;
     private final File dir;
+    private final boolean legacyEntriesPresent;
 
     public FileSystemCache(String dirName) {
-        dir = new File(System.getProperty("user.home") + File.separator + MGNL_FOLDER, dirName);
+        directory = new CacheDirectory(dirName);
+        dir = directory.getFile();
         dir.mkdirs();
+        legacyEntriesPresent = hasLegacyEntries();
     }
 
+    /**
+     * Whether there is an entry for the given key, checking its header so that hash collisions are not reported.
+     */
+    @Override
     public boolean isCached(String key) {
-        return get(key).isPresent();
+        File file = getFile(key);
+        if (file.exists()) {
+            try (DataInputStream stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+                return readKey(stream, file).equals(key);
+            } catch (IOException e) {
+                log.error("Failed to read from cache file", e);
+                return false;
+            }
+        }
+        return legacyEntriesPresent && getLegacyFile(key).exists();
     }
 
+    @Override
     public Optional<T> get(String key) {
-        File file = getTempFile(key);
-
-        if (!file.exists()) return Optional.empty();
+        File file = getFile(key);
 
         try {
-            return readFromFile(file);
+            if (file.exists()) return readEntry(file, key);
+            if (legacyEntriesPresent && getLegacyFile(key).exists()) return readLegacyEntry(getLegacyFile(key));
+            return Optional.empty();
         } catch (IOException e) {
             log.error("Failed to read from cache file", e);
             return Optional.empty();
         }
     }
 
-    protected abstract Optional<T> readFromFile(File file) throws IOException;
+    private Optional<T> readEntry(File file, String key) throws IOException {
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            String storedKey = readKey(stream, file);
+            if (!storedKey.equals(key)) {
+                log.warn("Hash collision of keys '{}' and '{}', treating as not cached", key, storedKey);
+                return Optional.empty();
+            }
+            return readFrom(stream);
+        }
+    }
+
+    private static String readKey(DataInputStream stream, File file) throws IOException {
+        if (stream.readInt() != HEADER_MAGIC) throw new IOException("Not a cache file: " + file);
+
+        byte[] keyBytes = new byte[stream.readInt()];
+        stream.readFully(keyBytes);
+        return new String(keyBytes, StandardCharsets.UTF_8);
+    }
+
+    private Optional<T> readLegacyEntry(File file) throws IOException {
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            return readFrom(stream);
+        }
+    }
+
+    /**
+     * Read an entry's value, i.e. the rest of its file after the header.
+     */
+    protected abstract Optional<T> readFrom(InputStream stream) throws IOException;
 
+    @Override
     public void put(String key, T item) {
+        File file = getFile(key);
+        File tempFile = new File(file.getParentFile(), file.getName() + "." + UUID.randomUUID() + TEMP_SUFFIX);
         try {
-            writeToFile(item, getTempFile(key));
+            file.getParentFile().mkdirs();
+            try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())))) {
+                // not writeUTF, which fails on keys longer than 64 KB
+                byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                stream.writeInt(HEADER_MAGIC);
+                stream.writeInt(keyBytes.length);
+                stream.write(keyBytes);
+                writeTo(item, stream);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
         } catch (IOException e) {
             log.error("Failed to write to cache file", e);
+            tempFile.delete();
         }
     }
 
-    protected abstract void writeToFile(T item, File file) throws IOException;
+    /**
+     * Write an entry's value, following the header.
+     */
+    protected abstract void writeTo(T item, OutputStream stream) throws IOException;
+
+    @Override
+    public void remove(String key) {
+        getFile(key).delete();
+        if (legacyEntriesPresent) getLegacyFile(key).delete();
+    }
+
+    /**
+     * Time of the last write of the given key's entry, in milliseconds since the epoch, or 0 if there is none.
+     */
+    protected long getLastModified(String key) {
+        File file = getFile(key);
+        if (!file.exists() && legacyEntriesPresent) file = getLegacyFile(key);
+        return file.lastModified();
+    }
+
+    public boolean isEmpty() {
+        return directory.listEntries().stream()
+                .noneMatch(entry -> entry.isFile() || CacheDirectory.listEntries(entry).stream().anyMatch(File::isFile));
+    }
+
+    /**
+     * Number of entries, counting subdirectories in parallel.
+     */
+    public long size() {
+        return directory.listEntries().parallelStream()
+                .mapToLong(entry -> entry.isDirectory() ? CacheDirectory.listEntries(entry).stream().filter(FileSystemCache::isEntry).count() : isEntry(entry) ? 1 : 0)
+                .sum();
+    }
+
+    protected File getDir() {
+        return dir;
+    }
+
+    private File getFile(String key) {
+        String hash = Hashing.sha256Hex(key.getBytes(StandardCharsets.UTF_8));
+        return new File(new File(dir, hash.substring(0, PREFIX_LENGTH)), hash + SUFFIX);
+    }
 
-    private File getTempFile(String key) {
+    private File getLegacyFile(String key) {
         String escaped = key.replaceAll("[^\\w-]+", "_");
         return new File(dir, escaped + SUFFIX);
     }
 
-    public void clear() {
-        try {
-            Files.walk(dir.toPath())
-                    .map(Path::toFile)
-                    .sorted((a, b) -> -a.compareTo(b))
-                    .forEach(File::delete);
+    private boolean hasLegacyEntries() {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir.toPath(), "*" + SUFFIX)) {
+            return entries.iterator().hasNext();
         } catch (IOException e) {
-            throw new RuntimeException("Failed to delete image cache temp dir", e);
+            return false;
         }
     }
+
+    private static boolean isEntry(File file) {
+        return file.getName().endsWith(SUFFIX);
+    }
+
+    /**
+     * Delete all entries (and the cache directory itself), deleting subdirectories in parallel.
+     */
+    @Override
+    public void clear() {
+        directory.delete();
+    }
 }
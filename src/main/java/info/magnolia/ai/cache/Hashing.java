@@ -0,0 +1,31 @@
+package info.magnolia.ai.cache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 hashes, e.g. for naming cache entries by key or content.
+ */
+public final class Hashing {
+
+    private Hashing() {
+    }
+
+    public static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always supported", e);
+        }
+    }
+
+    /**
+     * SHA-256 hash as a string of 64 lower-case hex digits.
+     */
+    public static String sha256Hex(byte[] bytes) {
+        byte[] digest = sha256(bytes);
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+}
@@ -1,24 +1,52 @@
 package info.magnolia.ai.cache;
 
-import java.io.File;
+import static java.util.stream.Collectors.toList;
+
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 
 public class LinesCache extends FileSystemCache<List<String>> {
 
+    private final Duration ttl;
+
     public LinesCache(String dirName) {
+        this(dirName, null);
+    }
+
+    /**
+     * @param ttl time after which entries are considered stale (see {@link #isStale}), or {@code null} for never
+     */
+    public LinesCache(String dirName, Duration ttl) {
         super(dirName);
+        this.ttl = ttl;
+    }
+
+    /**
+     * Whether the given key's entry is older than the time to live, and should thus be revalidated. Stale entries are
+     * still returned by {@link #get}, e.g. to fall back to if revalidation fails.
+     */
+    public boolean isStale(String key) {
+        return ttl != null && System.currentTimeMillis() - getLastModified(key) >= ttl.toMillis();
     }
 
     @Override
-    protected Optional<List<String>> readFromFile(File file) throws IOException {
-        return Optional.of(Files.readAllLines(file.toPath()));
+    protected Optional<List<String>> readFrom(InputStream stream) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        return Optional.of(reader.lines().collect(toList()));
     }
 
     @Override
-    protected void writeToFile(List<String> lines, File file) throws IOException {
-        Files.write(file.toPath(), lines);
+    protected void writeTo(List<String> lines, OutputStream stream) throws IOException {
+        for (String line : lines) {
+            stream.write(line.getBytes(StandardCharsets.UTF_8));
+            stream.write('\n');
+        }
     }
 }
@@ -0,0 +1,81 @@
+package info.magnolia.ai.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Array cache packing fixed-length row vectors into large, memory-mapped shard files rather than one file per key, see
+ * {@link ShardedCache}. Vectors are stored with an {@link ArrayCodec}, so all entries are of the same size.
+ * <p>
+ * With {@link ArrayCodec#FLOAT32}, and where the platform byte order allows, reads do not copy, i.e. returned arrays
+ * are views on the mapped file and must be treated as read-only.
+ */
+public class ShardedArrayCache extends ShardedCache<INDArray> {
+
+    private static final int DEFAULT_RECORDS_PER_SHARD = 16384;
+
+    private final int recordLength;
+    private final ArrayCodec codec;
+
+    public ShardedArrayCache(String dirName, int recordLength) {
+        this(dirName, recordLength, null);
+    }
+
+    /**
+     * @param legacyCache per-file cache to migrate entries from, or {@code null} if there is none
+     */
+    public ShardedArrayCache(String dirName, int recordLength, FileSystemCache<INDArray> legacyCache) {
+        this(dirName, recordLength, ArrayCodec.FLOAT32, legacyCache);
+    }
+
+    /**
+     * @param codec codec of all entries; as it determines the size of records, it must not change for a directory
+     * @param legacyCache per-file cache to migrate entries from, or {@code null} if there is none
+     */
+    public ShardedArrayCache(String dirName, int recordLength, ArrayCodec codec, FileSystemCache<INDArray> legacyCache) {
+        this(dirName, recordLength, codec, DEFAULT_RECORDS_PER_SHARD, legacyCache);
+    }
+
+    ShardedArrayCache(String dirName, int recordLength, int recordsPerShard, FileSystemCache<INDArray> legacyCache) {
+        this(dirName, recordLength, ArrayCodec.FLOAT32, recordsPerShard, legacyCache);
+    }
+
+    ShardedArrayCache(String dirName, int recordLength, ArrayCodec codec, int recordsPerShard, FileSystemCache<INDArray> legacyCache) {
+        super(dirName, codec.recordBytes(recordLength), recordsPerShard, legacyCache);
+        this.recordLength = recordLength;
+        this.codec = codec;
+    }
+
+    @Override
+    protected INDArray read(ByteBuffer record) {
+        if (codec == ArrayCodec.FLOAT32 && ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN)
+            return Nd4j.create(Nd4j.createBuffer(record, DataBuffer.Type.FLOAT, recordLength), new int[]{1, recordLength});
+
+        return codec.decode(record, recordLength);
+    }
+
+    @Override
+    protected void write(INDArray item, ByteBuffer record) {
+        codec.encode(item, record);
+    }
+
+    @Override
+    protected boolean isEmptyItem(INDArray item) {
+        return item.isEmpty();
+    }
+
+    @Override
+    protected INDArray emptyItem() {
+        return Nd4j.empty();
+    }
+
+    @Override
+    protected void checkItem(INDArray item) {
+        if (item.length() != recordLength)
+            throw new IllegalArgumentException(String.format("Expected array of length %s, but got %s", recordLength, item.length()));
+    }
+}
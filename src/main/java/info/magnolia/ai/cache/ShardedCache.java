@@ -0,0 +1,359 @@
+package info.magnolia.ai.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache packing fixed-size records into large, memory-mapped shard files rather than one file per key; subclasses
+ * define how items are encoded into records.
+ * <p>
+ * Records are appended into shards of {@code recordsPerShard} slots each; an append-only index file maps every key to
+ * its shard and slot and is loaded once on startup. Reads are served straight from the mapped shards.
+ * <p>
+ * Writes are made durable in batches, see {@link #flush}: shards are forced to disk before the index entries pointing
+ * into them are appended, so after a crash, the index never points to records which were not written. Entries put
+ * since the last flush are lost then, i.e. merely become cache misses.
+ * <p>
+ * Entries of a legacy per-file cache are migrated lazily: on the first lookup of a key that is not yet packed, and
+ * only deleted from the legacy cache once flushed. Once all of them are migrated, the legacy cache is no longer
+ * consulted.
+ */
+public abstract class ShardedCache<T> implements Cache<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedCache.class);
+
+    private static final String INDEX_FILE = "index";
+    private static final String SHARD_FILE_FORMAT = "shard-%05d.bin";
+    /**
+     * Slot marking an empty item, which occupies no space in any shard.
+     */
+    private static final int EMPTY_SLOT = -1;
+    /**
+     * Slot marking a removed key in the index.
+     */
+    private static final int REMOVED_SLOT = -2;
+    /**
+     * Keys are stored with an unsigned short length prefix in the index.
+     */
+    private static final int MAX_KEY_BYTES = 0xFFFF;
+    /**
+     * Puts (and removes) after which to flush, to bound how many entries a crash may lose.
+     */
+    private static final int FLUSH_ENTRIES = 1024;
+
+    private final CacheDirectory directory;
+    private final int recordBytes;
+    private final int recordsPerShard;
+    private final FileSystemCache<T> legacyCache;
+    /**
+     * Number of legacy entries not migrated yet, as counted on startup.
+     */
+    private volatile long legacyPending;
+
+    /**
+     * Mapping from key to location, with the shard number in the upper and the slot in the lower half.
+     */
+    private final Map<String, Long> locations = new ConcurrentHashMap<>();
+    private final List<MappedByteBuffer> shards = new ArrayList<>();
+    private FileChannel indexChannel;
+    private int nextShard;
+    private int nextSlot;
+    /**
+     * Index entries not flushed yet, and the shards and legacy entries to be forced and deleted, respectively, before.
+     */
+    private final ByteArrayOutputStream pendingIndex = new ByteArrayOutputStream();
+    private int pendingEntries;
+    private final Set<Integer> dirtyShards = new HashSet<>();
+    private final List<String> pendingLegacyRemovals = new ArrayList<>();
+
+    /**
+     * @param legacyCache per-file cache to migrate entries from, or {@code null} if there is none
+     */
+    protected ShardedCache(String dirName, int recordBytes, int recordsPerShard, FileSystemCache<T> legacyCache) {
+        if ((long) recordBytes * recordsPerShard > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Shards must not exceed 2GB, as they are mapped as a whole");
+        this.directory = new CacheDirectory(dirName);
+        this.recordBytes = recordBytes;
+        this.recordsPerShard = recordsPerShard;
+        this.legacyCache = legacyCache;
+        this.legacyPending = legacyCache == null ? 0 : legacyCache.size();
+
+        try {
+            open();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open sharded cache: " + directory, e);
+        }
+        log.info("Opened sharded cache with {} entries: {}", locations.size(), directory);
+    }
+
+    private synchronized void open() throws IOException {
+        if (!directory.resolve(INDEX_FILE).exists()) return;
+        openIndex();
+
+        ByteBuffer index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+        int validEnd = 0;
+        try {
+            while (index.hasRemaining()) {
+                byte[] key = new byte[index.getShort() & 0xFFFF];
+                index.get(key);
+                int shard = index.getInt();
+                int slot = index.getInt();
+
+                if (slot == REMOVED_SLOT) locations.remove(new String(key, StandardCharsets.UTF_8));
+                else locations.put(new String(key, StandardCharsets.UTF_8), toLocation(shard, slot));
+                if (slot >= 0 && (shard > nextShard || shard == nextShard && slot >= nextSlot)) {
+                    nextShard = shard;
+                    nextSlot = slot + 1;
+                }
+                validEnd = index.position();
+            }
+        } catch (BufferUnderflowException e) {
+            log.warn("Discarding truncated index entry at byte {}: {}", validEnd, directory);
+            indexChannel.truncate(validEnd);
+        }
+        indexChannel.position(validEnd);
+    }
+
+    private void openIndex() throws IOException {
+        directory.mkdirs();
+        indexChannel = new RandomAccessFile(directory.resolve(INDEX_FILE), "rw").getChannel();
+        indexChannel.position(indexChannel.size());
+    }
+
+    /**
+     * Get the mapped buffer of a shard, mapping it (and creating its file) first if necessary.
+     */
+    private synchronized ByteBuffer shard(int shard) throws IOException {
+        while (shards.size() <= shard) {
+            directory.mkdirs();
+            File file = directory.resolve(String.format(SHARD_FILE_FORMAT, shards.size()));
+            try (RandomAccessFile shardFile = new RandomAccessFile(file, "rw")) {
+                // mapping stays valid after the channel is closed
+                shards.add(shardFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerShard * recordBytes));
+            }
+        }
+        return shards.get(shard).duplicate();
+    }
+
+    @Override
+    public boolean isCached(String key) {
+        return locations.containsKey(key) || legacyPending > 0 && legacyCache.isCached(key);
+    }
+
+    @Override
+    public Optional<T> get(String key) {
+        Long location = locations.get(key);
+        if (location == null) return migrate(key);
+
+        int slot = slotOf(location);
+        if (slot == EMPTY_SLOT) return Optional.of(emptyItem());
+
+        try {
+            ByteBuffer record = shard(shardOf(location));
+            record.position(slot * recordBytes).limit((slot + 1) * recordBytes);
+            return Optional.of(read(record.slice().order(ByteOrder.LITTLE_ENDIAN)));
+        } catch (IOException e) {
+            log.error("Failed to read from sharded cache", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Decode an item from its record, a little-endian buffer of exactly {@code recordBytes}, which is a view on the
+     * mapped shard.
+     */
+    protected abstract T read(ByteBuffer record);
+
+    /**
+     * Encode a (non-empty) item into its record, a little-endian buffer of exactly {@code recordBytes}.
+     */
+    protected abstract void write(T item, ByteBuffer record);
+
+    /**
+     * Whether the item is empty, e.g. marks a failure, so that it needs no record.
+     */
+    protected abstract boolean isEmptyItem(T item);
+
+    protected abstract T emptyItem();
+
+    /**
+     * @throws IllegalArgumentException if the item cannot be encoded into a record
+     */
+    protected abstract void checkItem(T item);
+
+    private Optional<T> migrate(String key) {
+        if (legacyPending <= 0) return Optional.empty();
+
+        synchronized (this) {
+            // migrated by another thread in the meantime
+            if (locations.containsKey(key)) return get(key);
+
+            Optional<T> legacy = legacyCache.get(key);
+            if (legacy.isPresent() && tryPut(key, legacy.get())) {
+                // the legacy entry is the only copy until flushed
+                pendingLegacyRemovals.add(key);
+                log.debug("Migrated legacy cache entry: {}", key);
+                if (--legacyPending == 0) log.info("Migrated all legacy cache entries to: {}", directory);
+            }
+            return legacy;
+        }
+    }
+
+    @Override
+    public void put(String key, T item) {
+        tryPut(key, item);
+    }
+
+    /**
+     * @return whether the item was written (though not necessarily flushed yet)
+     */
+    private synchronized boolean tryPut(String key, T item) {
+        if (key.getBytes(StandardCharsets.UTF_8).length > MAX_KEY_BYTES)
+            throw new IllegalArgumentException("Key exceeds " + MAX_KEY_BYTES + " bytes: " + key.substring(0, 100) + "...");
+        boolean empty = isEmptyItem(item);
+        if (!empty) checkItem(item);
+
+        try {
+            long location = empty ? toLocation(0, EMPTY_SLOT) : writeRecord(item);
+            appendToIndex(key, location);
+            locations.put(key, location);
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to write to sharded cache", e);
+            return false;
+        }
+    }
+
+    private long writeRecord(T item) throws IOException {
+        if (nextSlot == recordsPerShard) {
+            nextShard++;
+            nextSlot = 0;
+        }
+
+        ByteBuffer record = shard(nextShard);
+        record.position(nextSlot * recordBytes).limit((nextSlot + 1) * recordBytes);
+        write(item, record.slice().order(ByteOrder.LITTLE_ENDIAN));
+        dirtyShards.add(nextShard);
+
+        return toLocation(nextShard, nextSlot++);
+    }
+
+    private void appendToIndex(String key, long location) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(2 + keyBytes.length + 8);
+        entry.putShort((short) keyBytes.length).put(keyBytes).putInt(shardOf(location)).putInt(slotOf(location));
+        pendingIndex.write(entry.array(), 0, entry.position());
+        if (++pendingEntries >= FLUSH_ENTRIES) flushPending();
+    }
+
+    /**
+     * Make all entries put (or removed) so far durable: force the shards written to, then append and force their index
+     * entries, and finally delete migrated legacy entries.
+     */
+    @Override
+    public synchronized void flush() {
+        try {
+            flushPending();
+        } catch (IOException e) {
+            log.error("Failed to flush sharded cache", e);
+        }
+    }
+
+    private void flushPending() throws IOException {
+        if (pendingEntries == 0) return;
+        if (indexChannel == null) openIndex();
+
+        for (int shard : dirtyShards) shards.get(shard).force();
+        dirtyShards.clear();
+
+        ByteBuffer entries = ByteBuffer.wrap(pendingIndex.toByteArray());
+        while (entries.hasRemaining()) indexChannel.write(entries);
+        indexChannel.force(false);
+        pendingIndex.reset();
+        pendingEntries = 0;
+
+        for (String key : pendingLegacyRemovals) legacyCache.remove(key);
+        pendingLegacyRemovals.clear();
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        // space is not reclaimed; re-putting the key appends a new record which supersedes the old one
+        if (locations.remove(key) == null) return;
+
+        try {
+            appendToIndex(key, toLocation(0, REMOVED_SLOT));
+        } catch (IOException e) {
+            log.error("Failed to write to sharded cache", e);
+        }
+    }
+
+    public long size() {
+        return locations.size();
+    }
+
+    public boolean isEmpty() {
+        return locations.isEmpty();
+    }
+
+    @Override
+    public synchronized void clear() {
+        try {
+            if (indexChannel != null) indexChannel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close index of sharded cache", e);
+        }
+        indexChannel = null;
+        pendingIndex.reset();
+        pendingEntries = 0;
+        dirtyShards.clear();
+        pendingLegacyRemovals.clear();
+        locations.clear();
+        shards.clear();
+        nextShard = 0;
+        nextSlot = 0;
+        directory.delete();
+    }
+
+    /**
+     * Bytes taken up by the records of all entries (not counting superseded ones), as opposed to the space reserved
+     * for whole shards.
+     */
+    public long getRecordBytesInUse() {
+        return locations.values().stream().filter(location -> slotOf(location) >= 0).count() * recordBytes;
+    }
+
+    public int getRecordBytes() {
+        return recordBytes;
+    }
+
+    private static long toLocation(int shard, int slot) {
+        return (long) shard << 32 | slot & 0xFFFFFFFFL;
+    }
+
+    private static int shardOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int slotOf(long location) {
+        return (int) location;
+    }
+}
@@ -0,0 +1,147 @@
+package info.magnolia.ai.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Cache keeping recently used entries in memory, in front of a (slower) backing cache, e.g. a {@link FileSystemCache}.
+ * <p>
+ * The memory tier is bounded by the total size of its entries as measured by a given weigher (which should count
+ * off-heap data as well), evicting least recently used entries first. Writes go through to the backing cache.
+ */
+public class TieredCache<T> implements Cache<T> {
+
+    private final Cache<T> backingCache;
+    private final long maxBytes;
+    private final ToLongFunction<T> weigher;
+
+    /**
+     * Entries in order of access, least recently used first; guarded by itself.
+     */
+    private final LinkedHashMap<String, Entry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public TieredCache(Cache<T> backingCache, long maxBytes, ToLongFunction<T> weigher) {
+        this.backingCache = backingCache;
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+    }
+
+    @Override
+    public boolean isCached(String key) {
+        synchronized (entries) {
+            if (entries.containsKey(key)) return true;
+        }
+        return backingCache.isCached(key);
+    }
+
+    @Override
+    public Optional<T> get(String key) {
+        synchronized (entries) {
+            Entry<T> entry = entries.get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return Optional.of(entry.item);
+            }
+        }
+
+        misses.incrementAndGet();
+        Optional<T> item = backingCache.get(key);
+        // a put since reading the backing cache has kept a newer item, which must not be replaced
+        item.ifPresent(value -> keep(key, value, false));
+        return item;
+    }
+
+    @Override
+    public void put(String key, T item) {
+        backingCache.put(key, item);
+        keep(key, item, true);
+    }
+
+    private void keep(String key, T item, boolean replace) {
+        long weight = weigher.applyAsLong(item);
+        synchronized (entries) {
+            if (!replace && entries.containsKey(key)) return;
+            Entry<T> previous = entries.remove(key);
+            if (previous != null) bytes -= previous.weight;
+            if (weight > maxBytes) return;
+
+            entries.put(key, new Entry<>(item, weight));
+            bytes += weight;
+
+            Iterator<Entry<T>> leastRecentlyUsed = entries.values().iterator();
+            while (bytes > maxBytes) {
+                bytes -= leastRecentlyUsed.next().weight;
+                leastRecentlyUsed.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        synchronized (entries) {
+            Entry<T> previous = entries.remove(key);
+            if (previous != null) bytes -= previous.weight;
+        }
+        backingCache.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+        backingCache.clear();
+    }
+
+    @Override
+    public void flush() {
+        backingCache.flush();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Total weight of the entries currently held in memory.
+     */
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TieredCache (%s hits, %s misses, %s evictions, %s bytes in memory)", hits, misses, evictions, getBytes());
+    }
+
+    private static class Entry<T> {
+        final T item;
+        final long weight;
+
+        Entry(T item, long weight) {
+            this.item = item;
+            this.weight = weight;
+        }
+    }
+}
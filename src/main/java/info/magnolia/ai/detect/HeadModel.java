@@ -0,0 +1,166 @@
+package info.magnolia.ai.detect;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.layers.BaseLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.activations.impl.ActivationTanH;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * The trained output layer of a transfer model on its own: a dense layer with tanh activation, plus its labels.
+ * <p>
+ * Scores pre-computed features (see {@link Recognizer}) with plain loops over {@code float[]}, without ND4J or the
+ * pre-trained network. Weights are kept row-major per output, so every score is a dot product over contiguous memory.
+ */
+public class HeadModel {
+
+    private static final String OUTPUT_LAYER = "predictions";
+    private static final int MAGIC = 0x4D484431; // "MHD1"
+
+    private final int inputSize;
+    private final int outputSize;
+    /**
+     * Weights of output {@code j} at {@code [j * inputSize, (j + 1) * inputSize)}.
+     */
+    private final float[] weights;
+    private final float[] bias;
+    private final List<String> labels;
+
+    HeadModel(int inputSize, int outputSize, float[] weights, float[] bias, List<String> labels) {
+        if (weights.length != inputSize * outputSize || bias.length != outputSize || labels.size() != outputSize)
+            throw new IllegalArgumentException("Weights, bias and labels do not match " + inputSize + "x" + outputSize);
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+        this.weights = weights;
+        this.bias = bias;
+        this.labels = Collections.unmodifiableList(new ArrayList<>(labels));
+    }
+
+    /**
+     * Extract the output layer of a trained transfer model.
+     */
+    public static HeadModel fromNetwork(ComputationGraph network, List<String> labels) {
+        Layer layer = network.getLayer(OUTPUT_LAYER);
+        if (layer == null) throw new IllegalArgumentException("Network has no layer " + OUTPUT_LAYER);
+        if (!(((BaseLayer) layer.conf().getLayer()).getActivationFn() instanceof ActivationTanH))
+            throw new IllegalArgumentException("Only tanh output layers are supported");
+
+        INDArray weights = layer.getParam("W"); // nIn x nOut
+        INDArray bias = layer.getParam("b");
+        return new HeadModel(weights.rows(), weights.columns(),
+                weights.transpose().dup('c').data().asFloat(), bias.dup('c').data().asFloat(), labels);
+    }
+
+    public void write(File file) throws IOException {
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+            stream.writeInt(MAGIC);
+            stream.writeInt(inputSize);
+            stream.writeInt(outputSize);
+            for (String label : labels) stream.writeUTF(label);
+            for (float weight : weights) stream.writeFloat(weight);
+            for (float b : bias) stream.writeFloat(b);
+        }
+    }
+
+    public static HeadModel read(File file) throws IOException {
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) throw new IOException("Not a head model file: " + file);
+            int inputSize = buffer.getInt();
+            int outputSize = buffer.getInt();
+
+            List<String> labels = new ArrayList<>(outputSize);
+            for (int i = 0; i < outputSize; i++) {
+                byte[] label = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(label);
+                // modified UTF-8 equals UTF-8 except for NUL and supplementary characters, which labels do not contain
+                labels.add(new String(label, StandardCharsets.UTF_8));
+            }
+
+            float[] weights = new float[inputSize * outputSize];
+            buffer.asFloatBuffer().get(weights);
+            buffer.position(buffer.position() + 4 * weights.length);
+            float[] bias = new float[outputSize];
+            buffer.asFloatBuffer().get(bias);
+            return new HeadModel(inputSize, outputSize, weights, bias, labels);
+        }
+    }
+
+    /**
+     * Score a single feature vector, writing one score per label into {@code scores}.
+     */
+    public void score(float[] features, float[] scores) {
+        score(features, 1, scores);
+    }
+
+    /**
+     * Score a batch of feature vectors, stored one after the other in {@code features}; scores are written the same
+     * way, {@link #getOutputSize()} per vector.
+     */
+    public void score(float[] features, int count, float[] scores) {
+        if (features.length < count * inputSize || scores.length < count * outputSize)
+            throw new IllegalArgumentException("Arrays too small for a batch of " + count);
+
+        // output-major, so each weight row is reused for the whole batch while in cache; four vectors at a time, as
+        // independent sums keep the CPU busy rather than waiting for each addition, and every weight is loaded once
+        for (int j = 0; j < outputSize; j++) {
+            int w = j * inputSize;
+            int n = 0;
+            for (; n + 4 <= count; n += 4) {
+                int f0 = n * inputSize, f1 = f0 + inputSize, f2 = f1 + inputSize, f3 = f2 + inputSize;
+                float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+                for (int i = 0; i < inputSize; i++) {
+                    float weight = weights[w + i];
+                    sum0 += weight * features[f0 + i];
+                    sum1 += weight * features[f1 + i];
+                    sum2 += weight * features[f2 + i];
+                    sum3 += weight * features[f3 + i];
+                }
+                scores[n * outputSize + j] = activate(sum0 + bias[j]);
+                scores[(n + 1) * outputSize + j] = activate(sum1 + bias[j]);
+                scores[(n + 2) * outputSize + j] = activate(sum2 + bias[j]);
+                scores[(n + 3) * outputSize + j] = activate(sum3 + bias[j]);
+            }
+            for (; n < count; n++) {
+                int f = n * inputSize;
+                float sum = 0;
+                for (int i = 0; i < inputSize; i++) sum += weights[w + i] * features[f + i];
+                scores[n * outputSize + j] = activate(sum + bias[j]);
+            }
+        }
+    }
+
+    private static float activate(float value) {
+        return (float) Math.tanh(value);
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HeadModel (%s inputs, %s labels)", inputSize, outputSize);
+    }
+}
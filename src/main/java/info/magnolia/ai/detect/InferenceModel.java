@@ -0,0 +1,175 @@
+package info.magnolia.ai.detect;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Model file for inference only: the network configuration followed by its parameters as raw floats, without updater
+ * state or compression.
+ * <p>
+ * Parameters start at a page boundary and are memory-mapped on loading rather than read into memory, so loading takes
+ * no time and pages are only brought in (and shared with the page cache) as the network uses them.
+ */
+public class InferenceModel {
+
+    private static final Logger log = LoggerFactory.getLogger(InferenceModel.class);
+
+    private static final int MAGIC = 0x4D494D31; // "MIM1"
+    private static final int PAGE_SIZE = 4096;
+    private static final int INPUT_SIZE = 224;
+
+    private InferenceModel() {
+    }
+
+    /**
+     * Write the given network's configuration and parameters (but no updater state) to the given file.
+     */
+    public static void write(ComputationGraph network, File file) throws IOException {
+        byte[] config = network.getConfiguration().toJson().getBytes(StandardCharsets.UTF_8);
+        INDArray params = network.params();
+        if (params.data().dataType() != DataBuffer.Type.FLOAT) throw new IllegalArgumentException("Only float networks are supported");
+        long paramsOffset = align(4 + 4 + 8 + config.length);
+
+        Path tempFile = new File(file.getPath() + ".tmp").toPath();
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate((int) paramsOffset);
+            header.putInt(MAGIC).putInt(config.length).putLong(params.length()).put(config);
+            header.rewind();
+            while (header.hasRemaining()) channel.write(header);
+
+            ByteBuffer data = params.dup('c').data().asNio().order(ByteOrder.nativeOrder());
+            data.limit((int) (4 * params.length()));
+            if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) data = littleEndianCopy(data);
+            while (data.hasRemaining()) channel.write(data);
+        }
+        Files.move(tempFile, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static ByteBuffer littleEndianCopy(ByteBuffer data) {
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+        copy.asFloatBuffer().put(data.asFloatBuffer());
+        return copy;
+    }
+
+    private static long align(long offset) {
+        return (offset + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    /**
+     * Whether the given file has been written by {@link #write}.
+     */
+    public static boolean isInferenceModel(File file) throws IOException {
+        if (file.length() < 4) return false;
+        try (DataInputStream stream = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            return stream.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Load a network written by {@link #write}, with its parameters mapped from the file rather than copied.
+     * <p>
+     * The mapping is private if the file is writable, so the file is never modified, even if the network's parameters
+     * are (e.g. by training). Otherwise the parameters are read-only, i.e. the network must only be used for inference.
+     */
+    public static ComputationGraph load(File file) throws IOException {
+        boolean writable = file.canWrite();
+        try (FileChannel channel = new RandomAccessFile(file, writable ? "rw" : "r").getChannel()) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 16));
+            if (header.getInt() != MAGIC) throw new IOException("Not an inference model file: " + file);
+            int configLength = header.getInt();
+            long paramCount = header.getLong();
+
+            ByteBuffer config = channel.map(FileChannel.MapMode.READ_ONLY, 16, configLength);
+            byte[] json = new byte[configLength];
+            config.get(json);
+
+            long paramsOffset = align(16 + configLength);
+            if (channel.size() < paramsOffset + 4 * paramCount) throw new IOException("Truncated inference model file: " + file);
+            FileChannel.MapMode mode = writable ? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY;
+            ByteBuffer data = channel.map(mode, paramsOffset, 4 * paramCount).order(ByteOrder.LITTLE_ENDIAN);
+            INDArray params = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN
+                    ? Nd4j.create(Nd4j.createBuffer(data, DataBuffer.Type.FLOAT, (int) paramCount), new int[]{1, (int) paramCount})
+                    : Nd4j.create(toFloats(data));
+
+            ComputationGraph network = new ComputationGraph(ComputationGraphConfiguration.fromJson(new String(json, StandardCharsets.UTF_8)));
+            network.init(params, false);
+            return network;
+        }
+    }
+
+    private static float[] toFloats(ByteBuffer data) {
+        float[] values = new float[data.remaining() / 4];
+        data.asFloatBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * Load a network from either an inference model file or a regular model file, in which case updater state is
+     * skipped.
+     */
+    public static ComputationGraph restore(File file) throws IOException {
+        long start = System.nanoTime();
+        boolean inferenceModel = isInferenceModel(file);
+        ComputationGraph network = inferenceModel ? load(file) : ModelSerializer.restoreComputationGraph(file, false);
+        log.info("Loaded {} from {} in {}ms", inferenceModel ? "inference model" : "model", file, (System.nanoTime() - start) / 1000000);
+        return network;
+    }
+
+    /**
+     * Run a batch of blank images through the network, so native kernels are loaded and allocations done before the
+     * first real images arrive.
+     */
+    public static void warmUp(ComputationGraph network, int batchSize) {
+        long start = System.nanoTime();
+        network.outputSingle(Nd4j.zeros(batchSize, 3, INPUT_SIZE, INPUT_SIZE));
+        log.info("Warmed up in {}ms", (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Peak resident memory of this process in MB as reported by the OS, or -1 if unavailable (i.e. not on Linux).
+     */
+    public static long getPeakRssMegabytes() {
+        try {
+            for (String line : Files.readAllLines(new File("/proc/self/status").toPath())) {
+                if (line.startsWith("VmHWM:")) return Long.parseLong(line.replaceAll("\\D", "")) / 1024;
+            }
+        } catch (IOException | RuntimeException e) {
+            // not available on this platform
+        }
+        return -1;
+    }
+
+    /**
+     * Convert a regular model file into an inference model file.
+     *
+     * @param args model file and inference model file to write
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: InferenceModel <model-file> <inference-model-file>");
+            System.exit(1);
+        }
+
+        write(ModelSerializer.restoreComputationGraph(new File(args[0]), false), new File(args[1]));
+        log.info("Wrote inference model to {}", args[1]);
+    }
+}
@@ -0,0 +1,45 @@
+package info.magnolia.ai.detect;
+
+import java.util.Arrays;
+
+/**
+ * Latency percentiles over a sliding window of the most recent measurements.
+ */
+public class LatencyStats {
+
+    private final long[] window;
+    private long count;
+
+    public LatencyStats(int windowSize) {
+        this.window = new long[windowSize];
+    }
+
+    public synchronized void record(long nanos) {
+        window[(int) (count++ % window.length)] = nanos;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return latency in milliseconds, or 0 if nothing was recorded yet
+     */
+    public double getPercentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(window, (int) Math.min(count, window.length));
+        }
+        if (sorted.length == 0) return 0;
+
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s requests, p50 %.1fms, p99 %.1fms", getCount(), getPercentile(50), getPercentile(99));
+    }
+}
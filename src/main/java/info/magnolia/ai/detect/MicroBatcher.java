@@ -0,0 +1,123 @@
+package info.magnolia.ai.detect;
+
+import info.magnolia.ai.detect.Recognition.Prediction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrently submitted images into batches for the {@link Recognizer}.
+ * <p>
+ * A single thread takes the oldest waiting image and then waits for more, until either the max. batch size or the max.
+ * wait time (counted from the first image of the batch) is reached. Submissions are admitted through a bounded queue
+ * and rejected right away when it is full, rather than piling up. On closing, images still waiting are rejected.
+ */
+public class MicroBatcher implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(MicroBatcher.class);
+
+    private final Recognizer recognizer;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue;
+    private final Thread worker;
+    private volatile boolean closed;
+
+    public MicroBatcher(Recognizer recognizer, int maxBatchSize, long maxWaitMillis, int queueCapacity) {
+        this.recognizer = recognizer;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        worker = new Thread(this::run, "micro-batcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Submit a decoded image (see {@link Recognizer#decode}) for recognition.
+     *
+     * @throws RejectedExecutionException if too many images are waiting already, or the batcher is closed
+     */
+    public CompletableFuture<List<Prediction>> submit(INDArray decodedImage) {
+        if (closed) throw new RejectedExecutionException("Micro-batcher is closed");
+        Request request = new Request(decodedImage);
+        if (!queue.offer(request)) throw new RejectedExecutionException("Too many images waiting for recognition");
+        // closed concurrently, after the queue was drained
+        if (closed && queue.remove(request)) throw new RejectedExecutionException("Micro-batcher is closed");
+        return request.result;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (!batch.isEmpty()) process(batch);
+            batch.clear();
+        }
+        rejectWaiting();
+    }
+
+    private void process(List<Request> batch) {
+        List<INDArray> images = new ArrayList<>(batch.size());
+        for (Request request : batch) images.add(request.image);
+
+        try {
+            List<List<Prediction>> predictions = recognizer.predict(images);
+            for (int i = 0; i < batch.size(); i++) batch.get(i).result.complete(predictions.get(i));
+        } catch (RuntimeException e) {
+            log.error("Failed to recognize batch of {} images", batch.size(), e);
+            for (Request request : batch) request.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Stop recognizing; the current batch is still finished, whereas images waiting for one fail with a
+     * {@link RejectedExecutionException}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+        rejectWaiting();
+    }
+
+    private void rejectWaiting() {
+        List<Request> waiting = new ArrayList<>();
+        queue.drainTo(waiting);
+        for (Request request : waiting) request.result.completeExceptionally(new RejectedExecutionException("Micro-batcher is closed"));
+    }
+
+    private static class Request {
+        final INDArray image;
+        final CompletableFuture<List<Prediction>> result = new CompletableFuture<>();
+
+        Request(INDArray image) {
+            this.image = image;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package info.magnolia.ai.detect;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Outcome of recognizing one image: its most likely labels, best first.
+ */
+public class Recognition {
+
+    private final Path image;
+    private final List<Prediction> predictions;
+
+    public Recognition(Path image, List<Prediction> predictions) {
+        this.image = image;
+        this.predictions = predictions;
+    }
+
+    public Path getImage() {
+        return image;
+    }
+
+    public List<Prediction> getPredictions() {
+        return predictions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Recognition (%s: %s)", image.getFileName(), predictions);
+    }
+
+    public static class Prediction {
+        private final String label;
+        private final float score;
+
+        public Prediction(String label, float score) {
+            this.label = label;
+            this.score = score;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public float getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return label + "=" + score;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package info.magnolia.ai.detect;
+
+import info.magnolia.ai.detect.Recognition.Prediction;
+import info.magnolia.ai.metrics.MetricsWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP service recognizing images.
+ * <p>
+ * {@code POST /recognize} with the encoded image (e.g. JPEG) as body responds with the top labels as JSON;
+ * {@code GET /stats} responds with latency percentiles of served requests. Images are decoded on the request threads
+ * and then recognized in micro-batches (see {@link MicroBatcher}); if too many are waiting already, requests are
+ * rejected with 503, and images larger than a limit with 413.
+ * <p>
+ * Request threads don't wait for recognition: responses are sent once their batch is done, so the batcher's queue (not
+ * the number of request threads) limits how many images are waiting. Requests arriving while all request threads are
+ * busy decoding and their queue is full are handled on the accepting thread, which stops accepting more meanwhile.
+ */
+public class RecognitionServer {
+
+    private static final Logger log = LoggerFactory.getLogger(RecognitionServer.class);
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int TOP_K = 3;
+    private static final int MAX_BATCH_SIZE = 32;
+    private static final long MAX_BATCH_WAIT_MILLIS = 10;
+    private static final int QUEUE_CAPACITY = 256;
+    private static final int REQUEST_THREADS = 2 * Runtime.getRuntime().availableProcessors();
+    private static final int REQUEST_QUEUE_CAPACITY = 64;
+    private static final int MAX_IMAGE_BYTES = 20 * 1024 * 1024;
+    private static final long RESPONSE_TIMEOUT_MILLIS = 30000;
+    private static final int LATENCY_WINDOW = 10000;
+    private static final long STATS_LOG_INTERVAL_SECONDS = 60;
+
+    private final Recognizer recognizer;
+    private final MicroBatcher batcher;
+    private final int maxImageBytes;
+    private final LatencyStats latencies = new LatencyStats(LATENCY_WINDOW);
+    private final AtomicLong rejected = new AtomicLong();
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    /**
+     * Logs stats and times out responses.
+     */
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "recognition-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param port port to listen on, or 0 for any free one (see {@link #getPort})
+     */
+    public RecognitionServer(ComputationGraph network, List<String> labels, int port) throws IOException {
+        this(network, labels, port, QUEUE_CAPACITY, MAX_IMAGE_BYTES);
+    }
+
+    RecognitionServer(ComputationGraph network, List<String> labels, int port, int queueCapacity, int maxImageBytes) throws IOException {
+        this(new Recognizer(network, labels, MAX_BATCH_SIZE, TOP_K), port, queueCapacity, maxImageBytes);
+    }
+
+    RecognitionServer(Recognizer recognizer, int port, int queueCapacity, int maxImageBytes) throws IOException {
+        this.recognizer = recognizer;
+        this.batcher = new MicroBatcher(recognizer, MAX_BATCH_SIZE, MAX_BATCH_WAIT_MILLIS, queueCapacity);
+        this.maxImageBytes = maxImageBytes;
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        // threads for receiving and decoding images; recognition itself happens in the batcher
+        requestExecutor = new ThreadPoolExecutor(REQUEST_THREADS, REQUEST_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(REQUEST_QUEUE_CAPACITY), new ThreadPoolExecutor.CallerRunsPolicy());
+        server.setExecutor(requestExecutor);
+        server.createContext("/recognize", this::handleRecognize);
+        server.createContext("/stats", this::handleStats);
+        // timeouts of responses sent in time should not pile up
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    public void start() {
+        server.start();
+        scheduler.scheduleAtFixedRate(() -> log.info("Latency: {}", latencies), STATS_LOG_INTERVAL_SECONDS, STATS_LOG_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        log.info("Recognition server listening on port {}", server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+        requestExecutor.shutdown();
+        batcher.close();
+        scheduler.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public LatencyStats getLatencies() {
+        return latencies;
+    }
+
+    private void handleRecognize(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, error("Method not allowed"));
+            return;
+        }
+
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            if (contentLength != null && Long.parseLong(contentLength.trim()) > maxImageBytes) {
+                respond(exchange, 413, error("Image too large"));
+                return;
+            }
+        } catch (NumberFormatException e) {
+            respond(exchange, 400, error("Invalid Content-Length"));
+            return;
+        }
+
+        INDArray image;
+        try (InputStream body = exchange.getRequestBody()) {
+            image = recognizer.decode(new ByteArrayInputStream(readAll(body, maxImageBytes)));
+        } catch (TooLargeException e) {
+            respond(exchange, 413, error("Image too large"));
+            return;
+        } catch (IOException | RuntimeException e) {
+            respond(exchange, 400, error("Cannot read image"));
+            return;
+        }
+
+        CompletableFuture<List<Prediction>> result;
+        try {
+            result = batcher.submit(image);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            respond(exchange, 503, error("Too busy, try again later"));
+            return;
+        }
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> result.completeExceptionally(new TimeoutException()), RESPONSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        result.whenComplete((predictions, error) -> {
+            timeout.cancel(false);
+            respondAsync(exchange, start, predictions, error);
+        });
+    }
+
+    /**
+     * Respond once recognition is done, on the thread completing it.
+     */
+    private void respondAsync(HttpExchange exchange, long start, List<Prediction> predictions, Throwable error) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        try {
+            if (cause == null) {
+                respond(exchange, 200, toJson(predictions));
+                latencies.record(System.nanoTime() - start);
+            } else if (cause instanceof TimeoutException) {
+                respond(exchange, 504, error("Recognition timed out"));
+            } else if (cause instanceof RejectedExecutionException) {
+                respond(exchange, 503, error("Shutting down"));
+            } else {
+                respond(exchange, 500, error("Recognition failed"));
+            }
+        } catch (IOException e) {
+            log.debug("Failed to respond, client gone?", e);
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, String.format("{\"requests\":%s,\"rejected\":%s,\"p50Millis\":%.3f,\"p99Millis\":%.3f,\"queueDepth\":%s}",
+                latencies.getCount(), rejected.get(), latencies.getPercentile(50), latencies.getPercentile(99), batcher.getQueueDepth()));
+    }
+
+    /**
+     * Number of requests rejected with 503 because too many images were waiting.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Read a request body, e.g. without a {@code Content-Length}, but only up to the given number of bytes.
+     *
+     * @throws TooLargeException if there are more bytes
+     */
+    private static byte[] readAll(InputStream stream, int maxBytes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16 * 1024];
+        for (int read; (read = stream.read(buffer)) != -1; ) {
+            if (bytes.size() + read > maxBytes) throw new TooLargeException();
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(body);
+        }
+    }
+
+    private static String toJson(List<Prediction> predictions) {
+        StringBuilder json = new StringBuilder("{\"predictions\":[");
+        for (int i = 0; i < predictions.size(); i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"label\":").append(quote(predictions.get(i).getLabel()))
+                    .append(",\"score\":").append(predictions.get(i).getScore()).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    private static String quote(String text) {
+        return '"' + text.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * Metrics are written to the file given by {@code -Dmetrics.file=...}, if any.
+     *
+     * @param args model file (regular or inference model, see {@link InferenceModel}), labels file and optionally the port to listen on
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: RecognitionServer <model-file> <labels-file> [port]");
+            System.exit(1);
+        }
+
+        ComputationGraph network = InferenceModel.restore(new File(args[0]));
+        InferenceModel.warmUp(network, MAX_BATCH_SIZE);
+        List<String> labels = Files.readAllLines(new File(args[1]).toPath());
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+
+        Optional<MetricsWriter> metricsWriter = MetricsWriter.fromSystemProperties();
+        RecognitionServer server = new RecognitionServer(network, labels, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            metricsWriter.ifPresent(MetricsWriter::close);
+        }));
+        server.start();
+    }
+
+    private static class TooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -1,30 +1,80 @@
 package info.magnolia.ai.detect;
 
+import static java.util.stream.Collectors.toList;
+
+import info.magnolia.ai.cache.ShardedArrayCache;
+import info.magnolia.ai.detect.Recognition.Prediction;
+
 import org.deeplearning4j.nn.graph.ComputationGraph;
-import org.deeplearning4j.util.ModelSerializer;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.List;
 
 public class RecognizeImage {
 
     private static final File MODEL_FILE = new File("custom-images-trained-network_2018-12-22T17:40:02");
     private static final File LABELS_FILE = new File("custom-images-labels_2018-12-22T17:40:02");
+    /**
+     * Created from the model file on first use, as it loads much faster.
+     */
+    private static final File INFERENCE_MODEL_FILE = new File(MODEL_FILE.getPath() + ".inference");
 
+    private static final int BATCH_SIZE = 32;
+    private static final int TOP_K = 3;
+    /**
+     * Whether to cache outputs of the frozen (pre-trained) part of the network, which are the same for every model.
+     */
+    private static final boolean FEATURE_CACHE_ON = true;
+    private static final String FEATURE_CACHE_DIR = "custom-image-recognition-features_vgg16-fc2";
+    private static final boolean WARM_UP = true;
+
+    /**
+     * @param args optionally the batch size to use
+     */
     public static void main(String[] args) throws IOException, URISyntaxException {
-        System.out.println("Loading neural network from " + MODEL_FILE.getName());
-        ComputationGraph network = ModelSerializer.restoreComputationGraph(MODEL_FILE);
+        int batchSize = args.length > 0 ? Integer.parseInt(args[0]) : BATCH_SIZE;
+
+        long startup = System.nanoTime();
+        boolean converted = INFERENCE_MODEL_FILE.exists();
+        System.out.println("Loading neural network from " + (converted ? INFERENCE_MODEL_FILE : MODEL_FILE).getName());
+        ComputationGraph network = InferenceModel.restore(converted ? INFERENCE_MODEL_FILE : MODEL_FILE);
+        double loadSeconds = (System.nanoTime() - startup) / 1e9;
+        if (WARM_UP) InferenceModel.warmUp(network, batchSize);
+        System.out.println(String.format("Ready after %.2fs (loading %.2fs), peak RSS %sMB",
+                (System.nanoTime() - startup) / 1e9, loadSeconds, InferenceModel.getPeakRssMegabytes()));
+        if (!converted) InferenceModel.write(network, INFERENCE_MODEL_FILE);
+
         List<String> labels = Files.readAllLines(LABELS_FILE.toPath());
-        Recognizer recognizer = new Recognizer(network, labels);
+        Recognizer recognizer = FEATURE_CACHE_ON
+                ? new Recognizer(network, labels, batchSize, TOP_K, new ShardedArrayCache(FEATURE_CACHE_DIR, Recognizer.getFeatureLength(network)))
+                : new Recognizer(network, labels, batchSize, TOP_K);
 
         File directory = new File(RecognizeImage.class.getResource(".").toURI());
-        for (File file : directory.listFiles()) {
-            String filename = file.getName().toLowerCase();
-            if (filename.endsWith(".jpg") || filename.endsWith(".jpeg") || filename.endsWith(".png"))
-                recognizer.process(file);
+        List<Path> images = Arrays.stream(directory.listFiles())
+                .filter(file -> {
+                    String filename = file.getName().toLowerCase();
+                    return filename.endsWith(".jpg") || filename.endsWith(".jpeg") || filename.endsWith(".png");
+                })
+                .map(File::toPath)
+                .collect(toList());
+
+        long start = System.nanoTime();
+        List<Recognition> recognitions = recognizer.recognize(images);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        DecimalFormat numberFormat = new DecimalFormat("#.####");
+        for (Recognition recognition : recognitions) {
+            System.out.println("*** Image " + recognition.getImage().getFileName() + " looks like:");
+            for (Prediction prediction : recognition.getPredictions())
+                System.out.println(prediction.getLabel() + ":\t " + numberFormat.format(prediction.getScore()));
         }
+        System.out.println(String.format("Recognized %s images in %.2fs (%.2f images/s, batch size %s)",
+                recognitions.size(), seconds, recognitions.size() / seconds, batchSize));
     }
 }
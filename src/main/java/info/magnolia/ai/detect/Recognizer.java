@@ -1,47 +1,283 @@
 package info.magnolia.ai.detect;
 
+import static java.util.stream.Collectors.toList;
+
+import info.magnolia.ai.cache.Cache;
+import info.magnolia.ai.cache.Hashing;
+import info.magnolia.ai.detect.Recognition.Prediction;
+import info.magnolia.ai.image.ImageDecoder;
+import info.magnolia.ai.image.InputBatch;
+import info.magnolia.ai.image.InputBatchPool;
+import info.magnolia.ai.metrics.Metrics;
+import info.magnolia.ai.metrics.Timer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
 import org.datavec.image.loader.NativeImageLoader;
 import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.layers.FrozenLayer;
+import org.deeplearning4j.nn.transferlearning.TransferLearningHelper;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.dataset.api.preprocessor.VGG16ImagePreProcessor;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.IOException;
-import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
+/**
+ * Recognizes images in batches: images of a batch are decoded in parallel right into one (reused) input tensor, which
+ * is then run through the network in a single forward pass.
+ * <p>
+ * Optionally, the output of the frozen part of the network (i.e. {@code fc2}) is cached per image, keyed by a hash of
+ * the image's content. As it does not change between trained models, recognizing an image seen before only requires
+ * running the trained output layer(s).
+ */
 public class Recognizer {
 
-    private final NativeImageLoader imageLoader = new NativeImageLoader(224, 224, 3);
-    private final VGG16ImagePreProcessor preProcessor = new VGG16ImagePreProcessor();
+    private static final Logger log = LoggerFactory.getLogger(Recognizer.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 32;
+    private static final int DEFAULT_TOP_K = 3;
 
-    private final DecimalFormat numberFormat = new DecimalFormat("#.####");
+    /**
+     * Per batch, from reading the images to the predictions; inference alone, i.e. network outputs, per forward pass.
+     */
+    private static final Timer recognizeTimer = Metrics.timer("recognize");
+    private static final Timer inferenceTimer = Metrics.timer("recognize.inference");
+
+    private final ThreadLocal<NativeImageLoader> imageLoader = ThreadLocal.withInitial(() -> new NativeImageLoader(224, 224, 3));
+    private final VGG16ImagePreProcessor preProcessor = new VGG16ImagePreProcessor();
+    private final ImageDecoder imageDecoder = new ImageDecoder(224, 224);
+    private InputBatchPool inputPool;
 
     private final ComputationGraph network;
     private final List<String> labels;
+    private final int batchSize;
+    private final int topK;
+    private final Cache<INDArray> featureCache;
+    private final TransferLearningHelper transferHelper;
 
     public Recognizer(ComputationGraph network, List<String> labels) {
+        this(network, labels, DEFAULT_BATCH_SIZE, DEFAULT_TOP_K);
+    }
+
+    /**
+     * @param batchSize max. number of images per forward pass
+     * @param topK number of predictions per image
+     */
+    public Recognizer(ComputationGraph network, List<String> labels, int batchSize, int topK) {
+        this(network, labels, batchSize, topK, null);
+    }
+
+    /**
+     * @param featureCache cache for outputs of the frozen part of the network (keyed by image content hash), or
+     * {@code null} to always run the whole network
+     */
+    public Recognizer(ComputationGraph network, List<String> labels, int batchSize, int topK, Cache<INDArray> featureCache) {
         this.network = network;
         this.labels = labels;
+        this.batchSize = batchSize;
+        this.topK = topK;
+        this.featureCache = featureCache;
+        this.transferHelper = featureCache == null ? null : splitNetwork(network);
+    }
+
+    /**
+     * Split the network at the boundary of its frozen layers, without copying the frozen part.
+     */
+    private static TransferLearningHelper splitNetwork(ComputationGraph network) {
+        boolean hasFrozenLayers = Arrays.stream(network.getLayers()).anyMatch(layer -> layer instanceof FrozenLayer);
+        if (!hasFrozenLayers) throw new IllegalArgumentException("Caching features requires a network with frozen layers");
+        return new TransferLearningHelper(network);
+    }
+
+    /**
+     * Length of the feature vectors to be cached, i.e. input size of the first trained layer.
+     */
+    public static int getFeatureLength(ComputationGraph network) {
+        return splitNetwork(network).unfrozenGraph().layerInputSize(0);
+    }
+
+    /**
+     * Recognize the given images, in order. Images which cannot be read are left out.
+     */
+    public List<Recognition> recognize(List<Path> images) {
+        List<Recognition> recognitions = new ArrayList<>();
+        for (int from = 0; from < images.size(); from += batchSize)
+            recognitions.addAll(recognizeBatch(images.subList(from, Math.min(from + batchSize, images.size()))));
+        if (featureCache != null) featureCache.flush();
+        return recognitions;
     }
 
-    public void process(File file) throws IOException {
-        INDArray matrix = imageLoader.asMatrix(file);
-        preProcessor.transform(matrix);
-        INDArray output = network.outputSingle(matrix);
-        System.out.println("*** Image " + file.getName() + " looks like:");
-        printTopLabels(output);
+    private List<Recognition> recognizeBatch(List<Path> batch) {
+        long start = System.nanoTime();
+        List<Recognition> recognitions = featureCache != null ? recognizeBatchCached(batch) : recognizeBatchUncached(batch);
+        recognizeTimer.recordSince(start);
+        return recognitions;
+    }
+
+    private List<Recognition> recognizeBatchUncached(List<Path> batch) {
+        InputBatch inputs = getInputPool().take();
+        try {
+            List<Integer> readable = decodeInto(batch, null, inputs);
+            if (readable.isEmpty()) return new ArrayList<>();
+
+            long start = System.nanoTime();
+            INDArray output = network.outputSingle(inputs.rows(0, readable.size()));
+            inferenceTimer.recordSince(start);
+            return IntStream.range(0, readable.size())
+                    .mapToObj(row -> new Recognition(batch.get(readable.get(row)), topPredictions(output.getRow(row))))
+                    .collect(toList());
+        } finally {
+            inputPool.release(inputs);
+        }
     }
 
-    private void printTopLabels(INDArray output) {
-        Map<String, Float> scores = new HashMap<>();
-        for (int i = 0; i < labels.size(); i++)
-            scores.put(labels.get(i), output.getFloat(i));
-        scores.entrySet().stream()
-                .sorted((e1, e2) -> e2.getValue().compareTo(e1.getValue())) // large ones first
-                .limit(3)
-                .forEachOrdered(e -> System.out.println(e.getKey() + ":\t " + numberFormat.format(e.getValue())));
+    private InputBatchPool getInputPool() {
+        // only one batch at a time, as the network is not used concurrently anyway
+        if (inputPool == null) inputPool = imageDecoder.createPool(1, batchSize);
+        return inputPool;
+    }
+
+    /**
+     * Decode images into the first rows of the input batch, in parallel. Images which cannot be read are left out.
+     *
+     * @param contents encoded images, or {@code null} to read them from the files
+     * @return indices of the images decoded, in the order of their rows
+     */
+    private List<Integer> decodeInto(List<Path> images, List<byte[]> contents, InputBatch inputs) {
+        boolean[] decoded = new boolean[images.size()];
+        IntStream.range(0, images.size()).parallel()
+                .forEach(i -> decoded[i] = decodeInto(images.get(i), contents == null ? null : contents.get(i), inputs, i));
+
+        List<Integer> readable = IntStream.range(0, images.size()).filter(i -> decoded[i]).boxed().collect(toList());
+        for (int row = 0; row < readable.size(); row++) inputs.copyRow(readable.get(row), row);
+        return readable;
+    }
+
+    private boolean decodeInto(Path image, byte[] content, InputBatch inputs, int row) {
+        try {
+            imageDecoder.decodeInto(content != null ? content : Files.readAllBytes(image), inputs, row);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Skipping image which cannot be read: {}", image, e);
+            return false;
+        }
+    }
+
+    private List<Recognition> recognizeBatchCached(List<Path> batch) {
+        List<Input> inputs = batch.parallelStream()
+                .map(this::load)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(toList());
+
+        List<Input> misses = inputs.stream().filter(input -> input.features == null).collect(toList());
+        if (!misses.isEmpty()) featurize(misses);
+        inputs.removeIf(input -> input.features == null);
+        if (inputs.isEmpty()) return new ArrayList<>();
+        log.debug("Recognizing {} images, {} of which with cached features", inputs.size(), inputs.size() - misses.size());
+
+        INDArray features = Nd4j.concat(0, inputs.stream().map(input -> input.features).toArray(INDArray[]::new));
+        long start = System.nanoTime();
+        INDArray output = transferHelper.outputFromFeaturized(features);
+        inferenceTimer.recordSince(start);
+        return IntStream.range(0, inputs.size())
+                .mapToObj(i -> new Recognition(inputs.get(i).image, topPredictions(output.getRow(i))))
+                .collect(toList());
+    }
+
+    /**
+     * Run images not cached yet through the frozen part of the network, and cache the results. Images which cannot be
+     * decoded are left without features.
+     */
+    private void featurize(List<Input> misses) {
+        InputBatch inputs = getInputPool().take();
+        try {
+            List<Path> images = misses.stream().map(input -> input.image).collect(toList());
+            List<byte[]> contents = misses.stream().map(input -> input.content).collect(toList());
+            List<Integer> readable = decodeInto(images, contents, inputs);
+            if (readable.isEmpty()) return;
+
+            long start = System.nanoTime();
+            INDArray features = transferHelper.featurize(new DataSet(inputs.rows(0, readable.size()), null)).getFeatures();
+            inferenceTimer.recordSince(start);
+            for (int row = 0; row < readable.size(); row++) {
+                Input miss = misses.get(readable.get(row));
+                miss.features = features.getRow(row).dup();
+                featureCache.put(miss.contentHash, miss.features);
+            }
+        } finally {
+            inputPool.release(inputs);
+        }
+    }
+
+    /**
+     * Look up an image's features in the cache, keeping its content to decode it if not cached yet.
+     */
+    private Optional<Input> load(Path image) {
+        try {
+            byte[] content = Files.readAllBytes(image);
+            Input input = new Input(image, Hashing.sha256Hex(content));
+            input.features = featureCache.get(input.contentHash).orElse(null);
+            if (input.features == null) input.content = content;
+            return Optional.of(input);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Skipping image which cannot be read: {}", image, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Decode an encoded image (e.g. JPEG) into a not yet pre-processed input matrix; may be called concurrently.
+     */
+    public INDArray decode(InputStream image) throws IOException {
+        return imageLoader.get().asMatrix(image);
+    }
+
+    /**
+     * Predict labels of decoded images (see {@link #decode(InputStream)}) in a single forward pass.
+     * <p>
+     * Not to be called concurrently, as the network is not safe for concurrent use.
+     */
+    public List<List<Prediction>> predict(List<INDArray> decodedImages) {
+        INDArray input = Nd4j.concat(0, decodedImages.toArray(new INDArray[0]));
+        preProcessor.transform(input);
+        long start = System.nanoTime();
+        INDArray output = network.outputSingle(input);
+        inferenceTimer.recordSince(start);
+
+        return IntStream.range(0, decodedImages.size())
+                .mapToObj(i -> topPredictions(output.getRow(i)))
+                .collect(toList());
+    }
+
+    private List<Prediction> topPredictions(INDArray scores) {
+        return IntStream.range(0, labels.size())
+                .mapToObj(i -> new Prediction(labels.get(i), scores.getFloat(i)))
+                .sorted(Comparator.comparing(Prediction::getScore).reversed()) // large ones first
+                .limit(topK)
+                .collect(toList());
+    }
+
+    private static class Input {
+        final Path image;
+        final String contentHash;
+        byte[] content;
+        INDArray features;
+
+        Input(Path image, String contentHash) {
+            this.image = image;
+            this.contentHash = contentHash;
+        }
     }
 }
@@ -0,0 +1,182 @@
+package info.magnolia.ai.download;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Non-blocking HTTP client for downloading many (small) resources, e.g. sample images.
+ * <p>
+ * Connections are pooled and kept alive per host, concurrency is capped both globally and per host, and connect and
+ * read timeouts are enforced by the I/O reactor itself, i.e. a hanging server does not occupy any thread. Response
+ * bodies are read straight into a byte buffer.
+ */
+public class Downloader implements Closeable {
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final CloseableHttpAsyncClient client;
+    private final int maxBodySize;
+
+    /**
+     * @param connectTimeout max. milliseconds for establishing a connection
+     * @param readTimeout max. milliseconds of inactivity while waiting for response data
+     * @param maxBodySize responses with larger bodies fail rather than being buffered
+     */
+    public Downloader(int maxConnections, int maxConnectionsPerHost, int connectTimeout, int readTimeout, int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+        this.client = HttpAsyncClients.custom()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerHost)
+                .setDefaultIOReactorConfig(IOReactorConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setSoTimeout(readTimeout)
+                        .setSoKeepAlive(true)
+                        .build())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setSocketTimeout(readTimeout)
+                        .build())
+                .setThreadFactory(daemonThreads())
+                .build();
+        client.start();
+    }
+
+    /**
+     * Download the body of a resource, completing exceptionally (with an {@link IOException}) if the server cannot be
+     * reached, times out or does not respond with status 200.
+     */
+    public CompletableFuture<byte[]> download(String url) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        try {
+            client.execute(HttpAsyncMethods.createGet(url), new BodyConsumer(url), new FutureCallback<byte[]>() {
+                @Override
+                public void completed(byte[] body) {
+                    result.complete(body);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    result.completeExceptionally(e instanceof IOException ? e : new IOException("Failed to download: " + url, e));
+                }
+
+                @Override
+                public void cancelled() {
+                    result.completeExceptionally(new IOException("Download cancelled: " + url));
+                }
+            });
+        } catch (RuntimeException e) { // e.g. invalid URL
+            result.completeExceptionally(new IOException("Failed to download: " + url, e));
+        }
+        return result;
+    }
+
+    /**
+     * Download a text resource and split it into non-empty lines (blocking).
+     */
+    public List<String> downloadLines(String url) throws IOException {
+        try {
+            String text = new String(download(url).get(), StandardCharsets.UTF_8);
+            return Arrays.stream(text.split("\\r?\\n"))
+                    .filter(line -> !line.isEmpty())
+                    .collect(Collectors.toList());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading: " + url, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to download: " + url, e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "downloader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Collects the response body into a buffer, pre-sized by the content length if known.
+     */
+    private class BodyConsumer extends AbstractAsyncResponseConsumer<byte[]> {
+
+        private final String url;
+        private ByteBuffer buffer;
+
+        private BodyConsumer(String url) {
+            this.url = url;
+        }
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) throws IOException {
+            int status = response.getStatusLine().getStatusCode();
+            if (status != HttpStatus.SC_OK)
+                throw new IOException(String.format("Unexpected status %s: %s", status, url));
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+            long length = entity.getContentLength();
+            if (length > maxBodySize)
+                throw new IOException(String.format("Response of %s bytes exceeds limit: %s", length, url));
+            buffer = ByteBuffer.allocate(length >= 0 ? (int) length : INITIAL_BUFFER_SIZE);
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            while (!decoder.isCompleted()) {
+                if (!buffer.hasRemaining()) grow();
+                if (decoder.read(buffer) <= 0) return;
+            }
+        }
+
+        private void grow() throws IOException {
+            if (buffer.capacity() >= maxBodySize)
+                throw new IOException("Response exceeds limit of " + maxBodySize + " bytes: " + url);
+            ByteBuffer larger = ByteBuffer.allocate((int) Math.min((long) buffer.capacity() * 2 + 1, maxBodySize));
+            buffer.flip();
+            buffer = larger.put(buffer);
+        }
+
+        @Override
+        protected byte[] buildResult(HttpContext context) {
+            if (buffer == null) return new byte[0];
+            return buffer.position() == buffer.capacity() ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+        }
+
+        @Override
+        protected void releaseResources() {
+            buffer = null;
+        }
+    }
+}
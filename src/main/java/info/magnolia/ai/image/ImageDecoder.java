@@ -0,0 +1,167 @@
+package info.magnolia.ai.image;
+
+import static org.bytedeco.javacpp.opencv_core.CV_8UC1;
+import static org.bytedeco.javacpp.opencv_core.CV_8UC3;
+import static org.bytedeco.javacpp.opencv_imgcodecs.IMREAD_COLOR;
+import static org.bytedeco.javacpp.opencv_imgcodecs.imdecode;
+import static org.bytedeco.javacpp.opencv_imgproc.resize;
+
+import info.magnolia.ai.metrics.Metrics;
+import info.magnolia.ai.metrics.Timer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Size;
+import org.datavec.image.loader.NativeImageLoader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.preprocessor.VGG16ImagePreProcessor;
+
+/**
+ * Turns encoded images into VGG16 input, written right into a row of an {@link InputBatch}: decoding and resizing
+ * with OpenCV into per-thread buffers, then converting to channels-first floats and subtracting the mean in a single
+ * pass. Gives the same result as {@link NativeImageLoader#asMatrix} followed by {@link VGG16ImagePreProcessor}, but
+ * without allocating an intermediate array and another pass per image.
+ * <p>
+ * Both steps are also exposed separately, so that decoded pixels can be stored (at a quarter of the size of the float
+ * tensor) and turned into input later on without decoding again.
+ * <p>
+ * Formats OpenCV cannot decode (e.g. GIF) fall back to the regular, allocating path.
+ */
+public class ImageDecoder {
+
+    public static final int CHANNELS = 3;
+
+    /**
+     * Decoding and resizing (to pixels), and converting and normalizing (to input), respectively.
+     */
+    private static final Timer decodeTimer = Metrics.timer("decode");
+    private static final Timer preProcessTimer = Metrics.timer("preprocess");
+
+    private final int height;
+    private final int width;
+    private final float[] means = new float[CHANNELS];
+    private final ThreadLocal<Buffers> buffers;
+    private final ThreadLocal<NativeImageLoader> fallbackLoader;
+
+    public ImageDecoder(int height, int width) {
+        this.height = height;
+        this.width = width;
+        for (int channel = 0; channel < CHANNELS; channel++)
+            means[channel] = VGG16ImagePreProcessor.VGG_MEAN_OFFSET_BGR.getFloat(channel);
+        buffers = ThreadLocal.withInitial(Buffers::new);
+        fallbackLoader = ThreadLocal.withInitial(() -> new NativeImageLoader(height, width, CHANNELS));
+    }
+
+    /**
+     * A batch pool of the right shape for this decoder.
+     */
+    public InputBatchPool createPool(int batches, int batchCapacity) {
+        return new InputBatchPool(batches, batchCapacity, CHANNELS, height, width);
+    }
+
+    /**
+     * Decode an image into the given row of the batch; may be called concurrently for different rows.
+     *
+     * @throws IOException if the image cannot be decoded
+     */
+    public void decodeInto(byte[] encoded, InputBatch batch, int row) throws IOException {
+        writeInto(decode(encoded), batch, row);
+    }
+
+    /**
+     * Decode and resize an image to interleaved BGR bytes (OpenCV's layout), {@code height * width * CHANNELS} of them.
+     * The returned buffer belongs to the calling thread and is overwritten by its next call, so it must be consumed or
+     * copied before.
+     *
+     * @throws IOException if the image cannot be decoded
+     */
+    public ByteBuffer decode(byte[] encoded) throws IOException {
+        long start = System.nanoTime();
+        Buffers buffers = this.buffers.get();
+        Mat decoded = imdecode(buffers.wrap(encoded), IMREAD_COLOR, buffers.decoded);
+        if (decoded == null || decoded.empty()) {
+            decodeFallback(encoded, buffers.pixels);
+        } else {
+            // reuses the destination's memory, as the size stays the same
+            resize(decoded, buffers.resized, buffers.size);
+            buffers.resized.data().get(buffers.pixels);
+        }
+        decodeTimer.recordSince(start);
+        // callers might have consumed it relatively
+        buffers.pixelBuffer.clear();
+        return buffers.pixelBuffer;
+    }
+
+    /**
+     * Convert pixels as returned by {@link #decode} into the given row of the batch: interleaved BGR bytes to
+     * channels-first, mean-subtracted floats, in a single pass. May be called concurrently for different rows.
+     */
+    public void writeInto(ByteBuffer pixels, InputBatch batch, int row) {
+        long start = System.nanoTime();
+        FloatBuffer target = batch.getData();
+        int offset = row * batch.getRowLength();
+        int base = pixels.position();
+        int pixelCount = height * width;
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            float mean = means[channel];
+            int channelOffset = offset + channel * pixelCount;
+            for (int pixel = 0; pixel < pixelCount; pixel++)
+                target.put(channelOffset + pixel, (pixels.get(base + pixel * CHANNELS + channel) & 0xFF) - mean);
+        }
+        preProcessTimer.recordSince(start);
+    }
+
+    /**
+     * Decode with {@link NativeImageLoader} instead, and interleave its channels-first output.
+     */
+    private void decodeFallback(byte[] encoded, byte[] pixels) throws IOException {
+        INDArray matrix;
+        try {
+            matrix = fallbackLoader.get().asMatrix(new ByteArrayInputStream(encoded));
+        } catch (RuntimeException e) {
+            throw new IOException("Unsupported image format", e);
+        }
+        int pixelCount = height * width;
+        float[] values = matrix.data().asFloat();
+        for (int channel = 0; channel < CHANNELS; channel++)
+            for (int pixel = 0; pixel < pixelCount; pixel++)
+                pixels[pixel * CHANNELS + channel] = (byte) Math.round(values[channel * pixelCount + pixel]);
+    }
+
+    /**
+     * Native and heap buffers of a decoding thread, reused for every image.
+     */
+    private class Buffers {
+        final Size size = new Size(width, height);
+        final Mat decoded = new Mat();
+        final Mat resized = new Mat(height, width, CV_8UC3);
+        final byte[] pixels = new byte[height * width * CHANNELS];
+        final ByteBuffer pixelBuffer = ByteBuffer.wrap(pixels);
+        BytePointer encoded = new BytePointer(64 * 1024);
+        Mat encodedMat;
+        int encodedLength = -1;
+
+        /**
+         * Copy encoded bytes into native memory, growing it only when needed.
+         */
+        Mat wrap(byte[] bytes) {
+            if (bytes.length > encoded.capacity()) {
+                encoded.deallocate();
+                encoded = new BytePointer(Math.max(bytes.length, encoded.capacity() * 2));
+                encodedMat = null;
+            }
+            encoded.position(0).put(bytes, 0, bytes.length);
+            if (encodedMat == null || encodedLength != bytes.length) {
+                // just a header on the native memory, no copy
+                encodedMat = new Mat(1, bytes.length, CV_8UC1, encoded);
+                encodedLength = bytes.length;
+            }
+            return encodedMat;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package info.magnolia.ai.image;
+
+import java.nio.FloatBuffer;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * Network input for a batch of images, i.e. a {@code [capacity, channels, height, width]} tensor, meant to be reused
+ * from an {@link InputBatchPool}. Images are written right into their row (see {@link ImageDecoder}); different rows
+ * may be written concurrently.
+ */
+public class InputBatch {
+
+    private final INDArray array;
+    /**
+     * View on the (off-heap) data of the array, to write rows without going through ND4J ops.
+     */
+    private final FloatBuffer data;
+    private final int rowLength;
+
+    public InputBatch(int capacity, int channels, int height, int width) {
+        array = Nd4j.create(new int[]{capacity, channels, height, width}, 'c');
+        if (array.data().dataType() != DataBuffer.Type.FLOAT)
+            throw new IllegalStateException("Expected float data, but got " + array.data().dataType());
+        data = array.data().asNioFloat();
+        rowLength = channels * height * width;
+    }
+
+    public int getCapacity() {
+        return (int) array.size(0);
+    }
+
+    /**
+     * Rows {@code from} (inclusive) to {@code to} (exclusive), as a view.
+     */
+    public INDArray rows(int from, int to) {
+        return array.get(NDArrayIndex.interval(from, to));
+    }
+
+    /**
+     * Overwrite a row with the given array (e.g. decoded earlier), or with another row of this batch.
+     */
+    public void copyRow(INDArray from, int row) {
+        rows(row, row + 1).assign(from);
+    }
+
+    public void copyRow(int from, int to) {
+        if (from == to) return;
+        for (int i = 0; i < rowLength; i++) data.put(to * rowLength + i, data.get(from * rowLength + i));
+    }
+
+    FloatBuffer getData() {
+        return data;
+    }
+
+    int getRowLength() {
+        return rowLength;
+    }
+}
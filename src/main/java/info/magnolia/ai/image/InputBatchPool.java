@@ -0,0 +1,45 @@
+package info.magnolia.ai.image;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fixed number of {@link InputBatch}es, allocated up front and handed out over and over again, so that steady-state
+ * processing does not allocate any input tensors. Size it to the number of batches in flight at once; taking a batch
+ * waits until one is given back.
+ */
+public class InputBatchPool {
+
+    private final BlockingQueue<InputBatch> free;
+    private final int batchCapacity;
+
+    public InputBatchPool(int batches, int batchCapacity, int channels, int height, int width) {
+        this.batchCapacity = batchCapacity;
+        free = new ArrayBlockingQueue<>(batches);
+        for (int i = 0; i < batches; i++) free.add(new InputBatch(batchCapacity, channels, height, width));
+    }
+
+    public int getBatchCapacity() {
+        return batchCapacity;
+    }
+
+    public InputBatch take() {
+        try {
+            return free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an input batch", e);
+        }
+    }
+
+    /**
+     * Give back a batch taken before; it must not be used anymore afterwards.
+     */
+    public void release(InputBatch batch) {
+        if (!free.offer(batch)) throw new IllegalStateException("Released more batches than taken");
+    }
+
+    public int getAvailable() {
+        return free.size();
+    }
+}
@@ -0,0 +1,29 @@
+package info.magnolia.ai.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Number of events, e.g. cache hits; cheap to increment from many threads at once.
+ */
+public class Counter implements CounterMXBean {
+
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(getCount());
+    }
+}
@@ -0,0 +1,9 @@
+package info.magnolia.ai.metrics;
+
+/**
+ * JMX view of a {@link Counter}.
+ */
+public interface CounterMXBean {
+
+    long getCount();
+}
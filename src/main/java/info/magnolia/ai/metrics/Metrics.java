@@ -0,0 +1,66 @@
+package info.magnolia.ai.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of all {@link Timer}s and {@link Counter}s of the application, by name. Metrics are created on first use
+ * and exposed as MXBeans, e.g. {@code info.magnolia.ai:type=Timer,name="download"}; see {@link MetricsWriter} for
+ * writing them to a file instead.
+ */
+public final class Metrics {
+
+    private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+
+    static final String JMX_DOMAIN = "info.magnolia.ai";
+
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> register("Timer", key, new Timer()));
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> register("Counter", key, new Counter()));
+    }
+
+    /**
+     * All timers, by name.
+     */
+    public static SortedMap<String, Timer> getTimers() {
+        return new TreeMap<>(timers);
+    }
+
+    /**
+     * All counters, by name.
+     */
+    public static SortedMap<String, Counter> getCounters() {
+        return new TreeMap<>(counters);
+    }
+
+    static ObjectName objectName(String type, String name) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+
+    private static <T> T register(String type, String name, T metric) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metric, objectName(type, name));
+        } catch (JMException e) {
+            log.warn("Failed to expose metric over JMX: {}", name, e);
+        }
+        return metric;
+    }
+}
@@ -0,0 +1,154 @@
+package info.magnolia.ai.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically appends a snapshot of all {@link Metrics} to a file, either as CSV (one row per metric) or as JSON lines
+ * (one object per snapshot). Values are totals since startup, so the difference between two snapshots shows what
+ * happened in between.
+ */
+public class MetricsWriter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsWriter.class);
+
+    /**
+     * System property for the file to write metrics to; ending in {@code .jsonl} for JSON lines, CSV otherwise.
+     */
+    public static final String FILE_PROPERTY = "metrics.file";
+    public static final Duration DEFAULT_PERIOD = Duration.ofMinutes(1);
+
+    private static final String CSV_HEADER = "time,metric,type,count,total_ms,mean_ms,p50_ms,p90_ms,p99_ms,max_ms";
+
+    public enum Format {
+        CSV, JSON_LINES
+    }
+
+    private final File file;
+    private final Format format;
+    private final Clock clock;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "metrics-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public MetricsWriter(File file, Format format, Duration period) {
+        this(file, format, period, Clock.systemUTC());
+    }
+
+    MetricsWriter(File file, Format format, Duration period, Clock clock) {
+        this.file = file;
+        this.format = format;
+        this.clock = clock;
+        scheduler.scheduleAtFixedRate(this::tryWrite, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Writing metrics to {} every {}", file.getAbsolutePath(), period);
+    }
+
+    /**
+     * Start writing metrics to the file given by the {@value #FILE_PROPERTY} system property, if any.
+     */
+    public static Optional<MetricsWriter> fromSystemProperties() {
+        String path = System.getProperty(FILE_PROPERTY);
+        if (path == null || path.isEmpty()) return Optional.empty();
+        Format format = path.endsWith(".jsonl") ? Format.JSON_LINES : Format.CSV;
+        return Optional.of(new MetricsWriter(new File(path), format, DEFAULT_PERIOD));
+    }
+
+    private void tryWrite() {
+        try {
+            write();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to write metrics to {}", file, e);
+        }
+    }
+
+    /**
+     * Append a snapshot of all metrics right away.
+     */
+    synchronized void write() throws IOException {
+        boolean header = format == Format.CSV && (!file.exists() || file.length() == 0);
+        Instant now = clock.instant();
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (header) writer.write(CSV_HEADER + "\n");
+            if (format == Format.CSV) writeCsv(writer, now);
+            else writeJsonLine(writer, now);
+        }
+    }
+
+    private static void writeCsv(Writer writer, Instant now) throws IOException {
+        for (Map.Entry<String, Timer> entry : Metrics.getTimers().entrySet()) {
+            Timer timer = entry.getValue();
+            writer.write(String.format(Locale.ROOT, "%s,%s,timer,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f\n", now, csvField(entry.getKey()),
+                    timer.getCount(), timer.getTotalMillis(), timer.getMeanMillis(), timer.getP50Millis(), timer.getP90Millis(),
+                    timer.getP99Millis(), timer.getMaxMillis()));
+        }
+        for (Map.Entry<String, Counter> entry : Metrics.getCounters().entrySet())
+            writer.write(String.format(Locale.ROOT, "%s,%s,counter,%d,,,,,,\n", now, csvField(entry.getKey()), entry.getValue().getCount()));
+    }
+
+    private static void writeJsonLine(Writer writer, Instant now) throws IOException {
+        StringBuilder line = new StringBuilder("{\"time\":\"").append(now).append("\",\"timers\":{");
+        String separator = "";
+        for (Map.Entry<String, Timer> entry : Metrics.getTimers().entrySet()) {
+            Timer timer = entry.getValue();
+            line.append(separator).append(jsonString(entry.getKey())).append(String.format(Locale.ROOT,
+                    ":{\"count\":%d,\"totalMs\":%.3f,\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f}",
+                    timer.getCount(), timer.getTotalMillis(), timer.getMeanMillis(), timer.getP50Millis(), timer.getP90Millis(),
+                    timer.getP99Millis(), timer.getMaxMillis()));
+            separator = ",";
+        }
+        line.append("},\"counters\":{");
+        separator = "";
+        for (Map.Entry<String, Counter> entry : Metrics.getCounters().entrySet()) {
+            line.append(separator).append(jsonString(entry.getKey())).append(':').append(entry.getValue().getCount());
+            separator = ",";
+        }
+        writer.write(line.append("}}\n").toString());
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') json.append('\\').append(c);
+            else if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+            else json.append(c);
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Stop writing periodically, after a last snapshot.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        tryWrite();
+    }
+}
@@ -0,0 +1,21 @@
+package info.magnolia.ai.metrics;
+
+/**
+ * JMX view of a {@link Timer}; all durations in milliseconds.
+ */
+public interface TimerMXBean {
+
+    long getCount();
+
+    double getTotalMillis();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+}
@@ -0,0 +1,100 @@
+package info.magnolia.ai;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.Nesterovs;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+public class CheckpointerTest {
+
+    private final List<Label> labels = Arrays.asList(
+            new Label("dog", Collections.singletonList("n02084071")),
+            new Label("cat", Arrays.asList("n02121620", "n02121808")));
+
+    private File dir;
+    private ComputationGraph head;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("checkpointer-test").toFile();
+        head = new ComputationGraph(new NeuralNetConfiguration.Builder()
+                .seed(42)
+                .updater(new Nesterovs(5e-3, 0.5))
+                .graphBuilder()
+                .addInputs("input")
+                .addLayer("predictions", new OutputLayer.Builder(LossFunctions.LossFunction.SQUARED_LOSS)
+                        .nOut(labels.size())
+                        .activation(Activation.TANH)
+                        .build(), "input")
+                .setOutputs("predictions")
+                .setInputTypes(InputType.feedForward(8))
+                .build());
+        head.init();
+        // for some updater state
+        head.fit(new DataSet(Nd4j.rand(4, 8), Nd4j.create(new float[]{1, 0, 0, 1, 1, 0, 0, 1}, new int[]{4, 2})));
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void shouldRestoreCheckpoint() throws IOException {
+        try (Checkpointer checkpointer = new Checkpointer(dir, 3)) {
+            checkpointer.checkpoint(7, labels, head, 5, 0.75);
+        }
+
+        HeadCheckpoint checkpoint = HeadCheckpoint.read(new Checkpointer(dir, 3).latest().get());
+
+        assertEquals(7, checkpoint.getEpoch());
+        assertEquals(5, checkpoint.getBestEpoch());
+        assertEquals(0.75, checkpoint.getBestScore(), 0);
+        assertEquals(labels, checkpoint.getLabels());
+        assertEquals(head.params(), checkpoint.getParams());
+        assertEquals(head.getUpdater().getStateViewArray(), checkpoint.getUpdaterState());
+    }
+
+    @Test
+    public void shouldKeepLatestCheckpointsOnly() {
+        try (Checkpointer checkpointer = new Checkpointer(dir, 2)) {
+            for (int epoch = 0; epoch < 12; epoch++) checkpointer.checkpoint(epoch, labels, head);
+        }
+
+        List<String> names = new Checkpointer(dir, 2).list().stream().map(File::getName).collect(Collectors.toList());
+        assertEquals(Arrays.asList("checkpoint-00010.bin", "checkpoint-00011.bin"), names);
+    }
+
+    @Test
+    public void shouldNotBeAffectedByTrainingAfterCheckpoint() throws IOException {
+        INDArray params = head.params().dup();
+        try (Checkpointer checkpointer = new Checkpointer(dir, 3)) {
+            checkpointer.checkpoint(0, labels, head);
+            // training continues while the checkpoint is being written
+            head.params().assign(0);
+        }
+
+        assertEquals(params, HeadCheckpoint.read(new Checkpointer(dir, 3).latest().get()).getParams());
+    }
+}
@@ -0,0 +1,115 @@
+package info.magnolia.ai;
+
+import static org.junit.Assert.*;
+
+import info.magnolia.ai.cache.ArrayCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.deeplearning4j.datasets.iterator.impl.ListDataSetIterator;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.evaluation.classification.Evaluation;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.Nesterovs;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+public class CodecComparisonTest {
+
+    private static final int FEATURES = 16;
+    private static final int CLASSES = 4;
+
+    private File workDir;
+    private FeaturizedStore trainStore;
+    private FeaturizedStore testStore;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("codec-comparison-test").toFile();
+        Random random = new Random(42);
+        float[][] centers = new float[CLASSES][FEATURES];
+        for (float[] center : centers) for (int i = 0; i < FEATURES; i++) center[i] = (float) Math.abs(random.nextGaussian());
+
+        // post-ReLU like features, i.e. non-negative with quite some zeros
+        List<DataSet> samples = new ArrayList<>();
+        for (int n = 0; n < 480; n++) {
+            int label = n % CLASSES;
+            float[] features = new float[FEATURES];
+            for (int i = 0; i < FEATURES; i++) features[i] = Math.max(0, centers[label][i] + 0.5f * (float) random.nextGaussian());
+            float[] labels = new float[CLASSES];
+            labels[label] = 1;
+            samples.add(new DataSet(Nd4j.create(features, new int[]{1, FEATURES}), Nd4j.create(labels, new int[]{1, CLASSES})));
+        }
+        trainStore = FeaturizedStore.write(new File(workDir, "train"), new ListDataSetIterator<>(samples.subList(0, 400), 10));
+        testStore = FeaturizedStore.write(new File(workDir, "test"), new ListDataSetIterator<>(samples.subList(400, 480), 10));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        trainStore.close();
+        testStore.close();
+        for (File file : workDir.listFiles()) file.delete();
+        workDir.delete();
+    }
+
+    @Test
+    public void shouldEvaluateEveryCodec() throws IOException {
+        ComputationGraph head = buildHead();
+        CodecComparison comparison = new CodecComparison(head, Arrays.asList("a", "b", "c", "d"), 2, 5,
+                (store, shuffle) -> new StreamingDataSetIterator(store, 10, 4, 2, shuffle, 42));
+
+        Map<ArrayCodec, Evaluation> evaluations = comparison.compare(trainStore, testStore, workDir);
+
+        assertEquals(ArrayCodec.values().length, evaluations.size());
+        double reference = evaluations.get(ArrayCodec.FLOAT32).accuracy();
+        assertTrue("Float32 accuracy: " + reference, reference > 0.9);
+        for (Evaluation evaluation : evaluations.values()) assertEquals(reference, evaluation.accuracy(), 0.05);
+        // only the stores compared on are left, and the head itself is untouched
+        assertEquals(2, workDir.listFiles().length);
+        assertEquals(buildHead().params(), head.params());
+
+        String report = CodecComparison.report(evaluations, FEATURES, 2);
+        assertTrue(report, report.contains("INT8"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRequireFullPrecisionSamples() throws IOException {
+        File halfFile = new File(workDir, "half");
+        try (FeaturizedStore halfStore = FeaturizedStore.write(halfFile,
+                new StreamingDataSetIterator(trainStore, 10, 4, 2, false, 42), ArrayCodec.FLOAT16)) {
+            new CodecComparison(buildHead(), Arrays.asList("a", "b", "c", "d"), 2, 1, (store, shuffle) -> null)
+                    .compare(halfStore, testStore, workDir);
+        }
+    }
+
+    private static ComputationGraph buildHead() {
+        ComputationGraph network = new ComputationGraph(new NeuralNetConfiguration.Builder()
+                .seed(42)
+                .updater(new Nesterovs(5e-2, 0.5))
+                .graphBuilder()
+                .addInputs("input")
+                .addLayer("predictions", new OutputLayer.Builder(LossFunctions.LossFunction.SQUARED_LOSS)
+                        .nOut(CLASSES)
+                        .activation(Activation.TANH)
+                        .build(), "input")
+                .setOutputs("predictions")
+                .setInputTypes(InputType.feedForward(FEATURES))
+                .build());
+        network.init();
+        return network;
+    }
+}
@@ -0,0 +1,95 @@
+package info.magnolia.ai;
+
+import static org.junit.Assert.*;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.Test;
+
+public class EarlyStoppingTest {
+
+    private final SteppingClock clock = new SteppingClock();
+
+    @Test
+    public void shouldStopWithoutImprovementForPatience() {
+        EarlyStopping earlyStopping = new EarlyStopping(2, 0.01, null, clock);
+
+        assertTrue(earlyStopping.record(0.5));
+        assertTrue(earlyStopping.record(0.6));
+        // not enough of an improvement
+        assertFalse(earlyStopping.record(0.605));
+        assertFalse(earlyStopping.shouldStop());
+        assertFalse(earlyStopping.record(0.58));
+
+        assertTrue(earlyStopping.shouldStop());
+        assertEquals(1, earlyStopping.getBestEpoch());
+        assertEquals(0.6, earlyStopping.getBestScore(), 0);
+    }
+
+    @Test
+    public void shouldNotStopWhileImproving() {
+        EarlyStopping earlyStopping = new EarlyStopping(1, 0, null, clock);
+
+        for (int epoch = 0; epoch < 100; epoch++) earlyStopping.record(epoch / 100.0);
+
+        assertFalse(earlyStopping.shouldStop());
+        assertEquals(99, earlyStopping.getBestEpoch());
+    }
+
+    @Test
+    public void shouldKeepPatienceWhenResumed() {
+        EarlyStopping earlyStopping = new EarlyStopping(2, 0.01, null, clock);
+        // epochs 0 to 4 were trained before, the best of them being epoch 3
+        earlyStopping.resume(5, 3, 0.6);
+
+        assertFalse(earlyStopping.record(0.605));
+
+        assertTrue(earlyStopping.shouldStop());
+        assertEquals(3, earlyStopping.getBestEpoch());
+        assertEquals(0.6, earlyStopping.getBestScore(), 0);
+    }
+
+    @Test
+    public void shouldStopBeforeExceedingTimeBudget() {
+        EarlyStopping earlyStopping = new EarlyStopping(100, 0, Duration.ofMinutes(35), clock);
+
+        clock.advance(Duration.ofMinutes(10));
+        earlyStopping.record(0.1);
+        clock.advance(Duration.ofMinutes(10));
+        earlyStopping.record(0.2);
+        assertFalse(earlyStopping.shouldStop());
+
+        // a third epoch fits, but a fourth would not
+        clock.advance(Duration.ofMinutes(10));
+        earlyStopping.record(0.3);
+        assertTrue(earlyStopping.shouldStop());
+        assertNotNull(earlyStopping.getReason());
+    }
+
+    private static class SteppingClock extends Clock {
+        private Instant now = Instant.parse("2019-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package info.magnolia.ai;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.deeplearning4j.datasets.iterator.impl.ListDataSetIterator;
+import org.junit.Test;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class HeadEvaluatorTest {
+
+    @Test
+    public void shouldDrawUpToGivenNumberPerLabel() {
+        List<DataSet> samples = new ArrayList<>();
+        // label 0 is frequent, label 1 rare, label 2 missing
+        for (int i = 0; i < 50; i++) samples.add(sample(i, i % 10 == 0 ? 1 : 0));
+        ListDataSetIterator<DataSet> iterator = new ListDataSetIterator<>(samples, 8);
+
+        DataSet sample = HeadEvaluator.drawStratified(iterator, 3, 3);
+
+        assertEquals(6, sample.numExamples());
+        // first ones of each label, in order
+        assertArrayEquals(new float[]{0, 1, 2, 3, 10, 20}, sample.getFeatures().getColumn(0).dup().data().asFloat(), 0);
+        assertEquals(3, sample.getLabels().getColumn(0).sumNumber().intValue());
+        assertEquals(3, sample.getLabels().getColumn(1).sumNumber().intValue());
+        assertTrue(iterator.hasNext());
+    }
+
+    private static DataSet sample(int id, int label) {
+        float[] labels = new float[3];
+        labels[label] = 1;
+        return new DataSet(Nd4j.create(new float[]{id, 0}, new int[]{1, 2}), Nd4j.create(labels, new int[]{1, 3}));
+    }
+}
@@ -0,0 +1,74 @@
+package info.magnolia.ai;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImageIndexSnapshotTest {
+
+    private static final byte[] KEY = {1, 2, 3};
+    private static final Label DOG = new Label("dog", Arrays.asList("n02084071"));
+    private static final Label CAT = new Label("cat", Arrays.asList("n02121620", "n02121808"));
+    private static final List<Label> LABELS = Arrays.asList(CAT, DOG);
+
+    private File file;
+    private ImageTable images;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("image-index-snapshot-test", ".snapshot");
+        images = new ImageTable.Builder()
+                .add("http://example.com/dog.jpg", 1)
+                .add("http://example.com/cats-and-d\u00f6gs.jpg", 0, 1)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void shouldWriteAndRead() throws IOException {
+        ImageIndexSnapshot.write(file, KEY, LABELS, images);
+
+        ImageIndexSnapshot snapshot = ImageIndexSnapshot.read(file, KEY).get();
+        assertEquals(LABELS, snapshot.getLabels());
+        assertEquals(2, snapshot.getImages().size());
+        assertEquals("http://example.com/cats-and-d\u00f6gs.jpg", snapshot.getImages().getUrl(1));
+        assertArrayEquals(new int[]{0, 1}, snapshot.getImages().getLabelIds(1));
+    }
+
+    @Test
+    public void shouldIgnoreSnapshotWithOtherKey() throws IOException {
+        ImageIndexSnapshot.write(file, KEY, LABELS, images);
+
+        assertEquals(Optional.empty(), ImageIndexSnapshot.read(file, new byte[]{1, 2, 4}));
+    }
+
+    @Test
+    public void shouldIgnoreTruncatedSnapshot() throws IOException {
+        ImageIndexSnapshot.write(file, KEY, LABELS, images);
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(truncated.length() - 3);
+        }
+
+        assertEquals(Optional.empty(), ImageIndexSnapshot.read(file, KEY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownLabels() throws IOException {
+        images = new ImageTable.Builder().add("http://example.com/bird.jpg", 2).build();
+
+        ImageIndexSnapshot.write(file, KEY, LABELS, images);
+    }
+}
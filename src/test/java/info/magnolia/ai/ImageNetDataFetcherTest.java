@@ -0,0 +1,140 @@
+package info.magnolia.ai;
+
+import static org.junit.Assert.*;
+
+import info.magnolia.ai.image.ImageDecoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.deeplearning4j.datasets.iterator.BaseDatasetIterator;
+import org.junit.After;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class ImageNetDataFetcherTest {
+
+    /**
+     * Unique per run, as failures are remembered across runs.
+     */
+    private static final String URL_PREFIX = "http://fetcher-test.invalid/" + UUID.randomUUID() + "/image";
+    private static final List<Label> LABELS = Arrays.asList(new Label("cat", Collections.singletonList("n1")),
+            new Label("dog", Collections.singletonList("n2")));
+
+    private final CountDownLatch slowImageReleased = new CountDownLatch(1);
+    private final List<List<String>> minibatches = Collections.synchronizedList(new ArrayList<>());
+    private StoredPixelsFetcher fetcher;
+
+    @After
+    public void tearDown() {
+        slowImageReleased.countDown();
+        if (fetcher != null) fetcher.close();
+    }
+
+    @Test
+    public void shouldProcessMinibatchesWithoutWaitingForSlowImages() throws Exception {
+        fetcher = new StoredPixelsFetcher(images(9), 4, URL_PREFIX + 0);
+        CompletableFuture<Void> fetched = CompletableFuture.runAsync(() -> fetcher.fetch(9));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (minibatches.size() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(2, minibatches.size());
+        assertFalse(fetched.isDone());
+
+        slowImageReleased.countDown();
+        fetched.get(10, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList(URL_PREFIX + 0), minibatches.get(2));
+
+        // samples are handed out in the order of images nevertheless
+        DataSet batch = fetcher.next();
+        assertEquals(9, batch.numExamples());
+        for (int i = 0; i < 9; i++) {
+            assertEquals(i, batch.getFeatures().getFloat(i, 0), 0);
+            assertEquals(1, batch.getLabels().getFloat(i, i % 2), 0);
+        }
+    }
+
+    @Test
+    public void shouldSkipImagesFailingToConvert() {
+        fetcher = new StoredPixelsFetcher(images(5), 2, null);
+        fetcher.invalidUrls.add(URL_PREFIX + 2);
+
+        fetcher.fetch(5);
+
+        DataSet batch = fetcher.next();
+        assertEquals(4, batch.numExamples());
+        float[] numbers = batch.getFeatures().dup().data().asFloat();
+        assertArrayEquals(new float[]{0, 1, 3, 4}, numbers, 0);
+    }
+
+    @Test
+    public void shouldSkipBatchesWithoutImages() {
+        // numbered apart from other tests' images, as failures are remembered
+        fetcher = new StoredPixelsFetcher(images(100, 6), 2, null);
+        for (int i : new int[]{102, 103, 105}) fetcher.invalidUrls.add(URL_PREFIX + i);
+        BaseDatasetIterator iterator = new BaseDatasetIterator(2, 6, fetcher);
+
+        List<Float> numbers = new ArrayList<>();
+        while (iterator.hasNext()) {
+            for (float number : iterator.next().getFeatures().dup().data().asFloat()) numbers.add(number);
+        }
+        assertEquals(Arrays.asList(100f, 101f, 104f), numbers);
+    }
+
+    private static ImageTable images(int count) {
+        return images(0, count);
+    }
+
+    private static ImageTable images(int from, int count) {
+        ImageTable.Builder builder = new ImageTable.Builder();
+        for (int i = from; i < from + count; i++) builder.add(URL_PREFIX + i, i % 2);
+        return builder.build();
+    }
+
+    /**
+     * Finds all images in the pixel store rather than downloading them, and "processes" them into the image's number.
+     */
+    private class StoredPixelsFetcher extends ImageNetDataFetcher {
+        private final String slowUrl;
+        private final Set<String> invalidUrls = ConcurrentHashMap.newKeySet();
+
+        StoredPixelsFetcher(ImageTable images, int processBatchSize, String slowUrl) {
+            super(images, LABELS, processBatchSize);
+            this.slowUrl = slowUrl;
+        }
+
+        @Override
+        protected Optional<Sample> lookUpCached(String url) {
+            if (url.equals(slowUrl)) {
+                try {
+                    slowImageReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            // pixels of the wrong size cannot be converted
+            int size = invalidUrls.contains(url) ? 1 : 224 * 224 * ImageDecoder.CHANNELS;
+            return Optional.of(Sample.stored(url, ByteBuffer.allocateDirect(size)));
+        }
+
+        @Override
+        protected INDArray process(List<String> urls, INDArray features) {
+            minibatches.add(new ArrayList<>(urls));
+            INDArray numbers = Nd4j.create(urls.size(), 1);
+            for (int i = 0; i < urls.size(); i++) numbers.putScalar(i, 0, Integer.parseInt(urls.get(i).substring(URL_PREFIX.length())));
+            return numbers;
+        }
+    }
+}
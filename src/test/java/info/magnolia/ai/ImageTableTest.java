@@ -0,0 +1,126 @@
+package info.magnolia.ai;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class ImageTableTest {
+
+    @Test
+    public void shouldStoreUrlsAndLabels() {
+        ImageTable table = new ImageTable.Builder()
+                .add("http://example.com/a.jpg", 3)
+                .add("http://example.com/b.jpg", 0, 2)
+                .build();
+
+        assertEquals(2, table.size());
+        assertEquals("http://example.com/a.jpg", table.getUrl(0));
+        assertEquals("http://example.com/b.jpg", table.getUrl(1));
+        assertArrayEquals(new int[]{3}, table.getLabelIds(0));
+        assertArrayEquals(new int[]{0, 2}, table.getLabelIds(1));
+    }
+
+    @Test
+    public void shouldGrow() {
+        ImageTable.Builder builder = new ImageTable.Builder();
+        for (int i = 0; i < 10000; i++) builder.add("http://example.com/" + i + ".jpg", i % 7, 7 + i % 3);
+        ImageTable table = builder.build();
+
+        assertEquals(10000, table.size());
+        assertEquals("http://example.com/9999.jpg", table.getUrl(9999));
+        assertArrayEquals(new int[]{9999 % 7, 7 + 9999 % 3}, table.getLabelIds(9999));
+    }
+
+    @Test
+    public void shouldWriteMultiHotLabels() {
+        ImageTable table = new ImageTable.Builder()
+                .add("http://example.com/a.jpg", 3)
+                .add("http://example.com/b.jpg", 0, 2)
+                .build();
+        INDArray labels = Nd4j.zeros(2, 4);
+
+        table.writeLabels(1, labels, 0);
+        table.writeLabels(0, labels, 1);
+
+        assertEquals(Nd4j.create(new float[][]{{1, 0, 1, 0}, {0, 0, 0, 1}}), labels);
+    }
+
+    @Test
+    public void shouldFilter() {
+        ImageTable table = new ImageTable.Builder()
+                .add("http://example.com/a.jpg", 3)
+                .add("http://example.org/b.jpg", 0, 2)
+                .add("http://example.com/c.jpg", 1)
+                .build();
+
+        ImageTable filtered = table.filter(url -> url.startsWith("http://example.com"));
+
+        assertEquals(2, filtered.size());
+        assertEquals("http://example.com/c.jpg", filtered.getUrl(1));
+        assertArrayEquals(new int[]{1}, filtered.getLabelIds(1));
+    }
+
+    @Test
+    public void shouldMergeImagesOfSameContent() {
+        ImageTable table = new ImageTable.Builder()
+                .add("http://example.com/a.jpg", 3)
+                .add("http://mirror.example.com/a.jpg", 0, 3)
+                .add("http://example.com/b.jpg", 1)
+                .add("http://example.com/unknown.jpg", 2)
+                .add("http://cdn.example.com/a.jpg", 4)
+                .build();
+        Map<String, Long> contents = new HashMap<>();
+        contents.put("http://example.com/a.jpg", 1L);
+        contents.put("http://mirror.example.com/a.jpg", 1L);
+        contents.put("http://cdn.example.com/a.jpg", 1L);
+        contents.put("http://example.com/b.jpg", 2L);
+
+        ImageTable deduplicated = table.deduplicate(url -> Optional.ofNullable(contents.get(url)));
+
+        assertEquals(3, deduplicated.size());
+        assertEquals("http://example.com/a.jpg", deduplicated.getUrl(0));
+        assertArrayEquals(new int[]{3, 0, 4}, deduplicated.getLabelIds(0));
+        assertEquals("http://example.com/b.jpg", deduplicated.getUrl(1));
+        assertArrayEquals(new int[]{1}, deduplicated.getLabelIds(1));
+        assertEquals("http://example.com/unknown.jpg", deduplicated.getUrl(2));
+    }
+
+    @Test
+    public void shouldLeaveOutUnknownLabels() {
+        Label dog = new Label("dog", Arrays.asList("n02084071"));
+        Label cat = new Label("cat", Arrays.asList("n02121620"));
+        List<Label> labels = Collections.singletonList(dog);
+        Map<String, Set<Label>> labelsByUrl = new LinkedHashMap<>();
+        labelsByUrl.put("http://example.com/both.jpg", new HashSet<>(Arrays.asList(dog, cat)));
+        labelsByUrl.put("http://example.com/cat.jpg", Collections.singleton(cat));
+
+        ImageTable table = ImageIndex.toTable(labelsByUrl, labels);
+
+        assertEquals(1, table.size());
+        assertArrayEquals(new int[]{0}, table.getLabelIds(0));
+    }
+
+    @Test
+    public void shouldFingerprintUrlsAndLabels() {
+        ImageTable table = new ImageTable.Builder().add("http://example.com/a.jpg", 3).add("http://example.com/b.jpg", 0, 2).build();
+        ImageTable same = new ImageTable.Builder().add("http://example.com/a.jpg", 3).add("http://example.com/b.jpg", 0, 2).build();
+        ImageTable otherLabels = new ImageTable.Builder().add("http://example.com/a.jpg", 3).add("http://example.com/b.jpg", 0, 1).build();
+        ImageTable otherUrls = new ImageTable.Builder().add("http://example.com/a.jpg", 3).add("http://example.com/c.jpg", 0, 2).build();
+
+        assertArrayEquals(table.fingerprint(), same.fingerprint());
+        assertFalse(Arrays.equals(table.fingerprint(), otherLabels.fingerprint()));
+        assertFalse(Arrays.equals(table.fingerprint(), otherUrls.fingerprint()));
+    }
+}
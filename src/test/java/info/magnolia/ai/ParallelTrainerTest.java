@@ -0,0 +1,131 @@
+package info.magnolia.ai;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.deeplearning4j.datasets.iterator.impl.ListDataSetIterator;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.evaluation.classification.Evaluation;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.Nesterovs;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+public class ParallelTrainerTest {
+
+    private static final int FEATURES = 16;
+    private static final int CLASSES = 4;
+    private static final int EPOCHS = 10;
+
+    private ListDataSetIterator<DataSet> trainIterator;
+    private DataSet testSet;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        float[][] centers = new float[CLASSES][FEATURES];
+        for (float[] center : centers) for (int i = 0; i < FEATURES; i++) center[i] = (float) random.nextGaussian();
+
+        List<DataSet> samples = new ArrayList<>();
+        for (int n = 0; n < 480; n++) {
+            int label = n % CLASSES;
+            float[] features = new float[FEATURES];
+            for (int i = 0; i < FEATURES; i++) features[i] = centers[label][i] + 0.5f * (float) random.nextGaussian();
+            float[] labels = new float[CLASSES];
+            labels[label] = 1;
+            samples.add(new DataSet(Nd4j.create(features, new int[]{1, FEATURES}), Nd4j.create(labels, new int[]{1, CLASSES})));
+        }
+        testSet = DataSet.merge(samples.subList(400, 480));
+        trainIterator = new ListDataSetIterator<>(samples.subList(0, 400), 10);
+    }
+
+    @Test
+    public void shouldConvergeLikeSingleThreaded() {
+        ComputationGraph single = buildNetwork();
+        ComputationGraph parallel = buildNetwork();
+        double initialScore = parallel.score(testSet);
+
+        train(single, 1);
+        train(parallel, 4);
+
+        double singleAccuracy = accuracy(single);
+        double parallelAccuracy = accuracy(parallel);
+        assertTrue("Single-threaded accuracy: " + singleAccuracy, singleAccuracy > 0.9);
+        assertEquals(singleAccuracy, parallelAccuracy, 0.05);
+        // averaging takes fewer (but larger) steps per epoch, so the loss may lag behind a bit
+        double parallelScore = parallel.score(testSet);
+        assertTrue("Parallel score: " + parallelScore + ", initially: " + initialScore, parallelScore < initialScore / 4);
+    }
+
+    @Test
+    public void shouldUpdateNetworkItself() {
+        ComputationGraph network = buildNetwork();
+        INDArray before = network.params().dup();
+
+        try (ParallelTrainer trainer = new ParallelTrainer(network, 3, 2)) {
+            trainer.fit(trainIterator);
+        }
+
+        assertNotEquals(before, network.params());
+        assertNotNull(network.getUpdater().getStateViewArray());
+        assertNotEquals(0, network.getUpdater().getStateViewArray().norm2Number().doubleValue(), 0);
+    }
+
+    @Test
+    public void shouldCountEpochsAndIterationsLikeSingleThreaded() {
+        ComputationGraph single = buildNetwork();
+        ComputationGraph parallel = buildNetwork();
+
+        train(single, 1);
+        train(parallel, 3);
+
+        assertEquals(EPOCHS, single.getEpochCount());
+        assertEquals(single.getEpochCount(), parallel.getEpochCount());
+        assertEquals(single.getIterationCount(), parallel.getIterationCount());
+    }
+
+    private void train(ComputationGraph network, int workers) {
+        try (ParallelTrainer trainer = new ParallelTrainer(network, workers, 2)) {
+            for (int epoch = 0; epoch < EPOCHS; epoch++) {
+                trainIterator.reset();
+                trainer.fit(trainIterator);
+            }
+        }
+    }
+
+    private double accuracy(ComputationGraph network) {
+        Evaluation evaluation = new Evaluation(CLASSES);
+        evaluation.eval(testSet.getLabels(), network.outputSingle(testSet.getFeatures()));
+        return evaluation.accuracy();
+    }
+
+    /**
+     * Like the head trained in {@link NetworkManager}.
+     */
+    private static ComputationGraph buildNetwork() {
+        ComputationGraph network = new ComputationGraph(new NeuralNetConfiguration.Builder()
+                .seed(42)
+                .updater(new Nesterovs(5e-2, 0.5))
+                .graphBuilder()
+                .addInputs("input")
+                .addLayer("predictions", new OutputLayer.Builder(LossFunctions.LossFunction.SQUARED_LOSS)
+                        .nOut(CLASSES)
+                        .activation(Activation.TANH)
+                        .build(), "input")
+                .setOutputs("predictions")
+                .setInputTypes(InputType.feedForward(FEATURES))
+                .build());
+        network.init();
+        return network;
+    }
+}
@@ -0,0 +1,141 @@
+package info.magnolia.ai;
+
+import static org.junit.Assert.*;
+
+import info.magnolia.ai.cache.ArrayCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.deeplearning4j.datasets.iterator.impl.ListDataSetIterator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class StreamingDataSetIteratorTest {
+
+    private static final int SAMPLES = 100;
+    private static final int FEATURES = 3;
+    private static final int OUTCOMES = 11;
+
+    private File file;
+    private FeaturizedStore store;
+    private List<DataSet> samples;
+
+    @Before
+    public void setUp() throws IOException {
+        // every sample's features identify it, its labels are derived from them
+        samples = new ArrayList<>();
+        for (int i = 0; i < SAMPLES; i++) {
+            float[] labels = new float[OUTCOMES];
+            labels[i % OUTCOMES] = 1;
+            labels[(i + 3) % OUTCOMES] = 1;
+            samples.add(new DataSet(Nd4j.create(new float[]{i, -i, 0.5f}, new int[]{1, FEATURES}), Nd4j.create(labels, new int[]{1, OUTCOMES})));
+        }
+        file = File.createTempFile("streaming-iterator-test", ".featurized");
+        store = FeaturizedStore.write(file, new ListDataSetIterator<>(samples, 7));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldStreamSamplesInStoredOrder() {
+        StreamingDataSetIterator iterator = new StreamingDataSetIterator(store, 8, 2, 2, false, 42);
+
+        List<Integer> ids = readEpoch(iterator);
+
+        assertEquals(SAMPLES, store.size());
+        assertEquals(FEATURES, iterator.inputColumns());
+        assertEquals(OUTCOMES, iterator.totalOutcomes());
+        for (int i = 0; i < SAMPLES; i++) assertEquals(i, (int) ids.get(i));
+    }
+
+    @Test
+    public void shouldShuffleDifferentlyEveryEpoch() {
+        StreamingDataSetIterator iterator = new StreamingDataSetIterator(store, 8, 2, 2, true, 42);
+
+        List<Integer> first = readEpoch(iterator);
+        iterator.reset();
+        List<Integer> second = readEpoch(iterator);
+
+        assertEquals(SAMPLES, new HashSet<>(first).size());
+        assertEquals(new HashSet<>(first), new HashSet<>(second));
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    public void shouldRestartOnResetMidEpoch() {
+        StreamingDataSetIterator iterator = new StreamingDataSetIterator(store, 8, 2, 1, true, 42);
+        iterator.next();
+        iterator.next();
+        iterator.reset();
+
+        Set<Integer> ids = new HashSet<>(readEpoch(iterator));
+
+        assertEquals(SAMPLES, ids.size());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void shouldStreamReducedPrecisionStore() throws IOException {
+        File halfFile = File.createTempFile("streaming-iterator-test", ".featurized");
+        // the sample values are exact in half precision
+        try (FeaturizedStore halfStore = FeaturizedStore.write(halfFile, new ListDataSetIterator<>(samples, 7), ArrayCodec.FLOAT16);
+             FeaturizedStore reopened = FeaturizedStore.open(halfFile)) {
+            List<Integer> ids = readEpoch(new StreamingDataSetIterator(reopened, 8, 2, 2, false, 42));
+
+            assertEquals(ArrayCodec.FLOAT16, reopened.getCodec());
+            assertTrue(halfStore.getRecordBytes() < store.getRecordBytes());
+            for (int i = 0; i < SAMPLES; i++) assertEquals(i, (int) ids.get(i));
+        } finally {
+            halfFile.delete();
+        }
+    }
+
+    @Test
+    public void shouldKeepFingerprint() throws IOException {
+        File fingerprintedFile = File.createTempFile("streaming-iterator-test", ".featurized");
+        byte[] fingerprint = new byte[32];
+        Arrays.fill(fingerprint, (byte) 7);
+        try (FeaturizedStore written = FeaturizedStore.write(fingerprintedFile, new ListDataSetIterator<>(samples, 7), ArrayCodec.FLOAT32, fingerprint);
+             FeaturizedStore reopened = FeaturizedStore.open(fingerprintedFile)) {
+            assertArrayEquals(fingerprint, written.getFingerprint());
+            assertArrayEquals(fingerprint, reopened.getFingerprint());
+            assertEquals(SAMPLES, reopened.size());
+        } finally {
+            fingerprintedFile.delete();
+        }
+    }
+
+    /**
+     * Read all batches and check every sample's labels, returning the samples' ids in order.
+     */
+    private static List<Integer> readEpoch(StreamingDataSetIterator iterator) {
+        List<Integer> ids = new ArrayList<>();
+        while (iterator.hasNext()) {
+            DataSet batch = iterator.next();
+            assertTrue(batch.numExamples() <= 8);
+            for (int row = 0; row < batch.numExamples(); row++) {
+                int id = (int) batch.getFeatures().getFloat(row, 0);
+                assertEquals(-id, batch.getFeatures().getFloat(row, 1), 0);
+                for (int outcome = 0; outcome < OUTCOMES; outcome++) {
+                    boolean expected = outcome == id % OUTCOMES || outcome == (id + 3) % OUTCOMES;
+                    assertEquals(expected ? 1 : 0, batch.getLabels().getFloat(row, outcome), 0);
+                }
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+}
@@ -2,6 +2,8 @@ package info.magnolia.ai.cache;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Optional;
 
 import org.junit.After;
@@ -47,4 +49,59 @@ public class ArrayCacheTest {
         assertTrue(cache.isCached("empty"));
         assertEquals(Nd4j.empty(), cache.get("empty").get());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldDistinguishKeysWithSameEscapedName() {
+        cache.put("http://foo/a?b", Nd4j.create(new float[]{1}));
+        cache.put("http://foo/a&b", Nd4j.create(new float[]{2}));
+
+        assertEquals(Nd4j.create(new float[]{1}), cache.get("http://foo/a?b").get());
+        assertEquals(Nd4j.create(new float[]{2}), cache.get("http://foo/a&b").get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void shouldCacheVeryLongKey() {
+        StringBuilder key = new StringBuilder("http://foo/");
+        for (int i = 0; i < 1000; i++) key.append("x");
+        cache.put(key.toString(), Nd4j.create(new float[]{1, 2, 3}));
+
+        assertEquals(Nd4j.create(new float[]{1, 2, 3}), cache.get(key.toString()).get());
+    }
+
+    @Test
+    public void shouldReadLegacyEntries() throws IOException {
+        Nd4j.saveBinary(Nd4j.create(new float[]{1, 2, 3}), new File(cache.getDir(), "http_foo_bar.cache"));
+        cache = new ArrayCache("file-system-array-cache-test");
+
+        assertTrue(cache.isCached("http://foo/bar"));
+        assertEquals(Nd4j.create(new float[]{1, 2, 3}), cache.get("http://foo/bar").get());
+    }
+
+    @Test
+    public void shouldCacheWithReducedPrecision() {
+        INDArray array = Nd4j.create(new float[]{0, 1.5f, 3, 4, 5, 6}, new int[]{2, 3});
+        cache.put("full", array);
+        cache = new ArrayCache("file-system-array-cache-test", ArrayCodec.INT8);
+        cache.put("quantized", array);
+
+        // the precision of entries is up to the codec they were written with
+        assertEquals(array, cache.get("full").get());
+        assertTrue(array.equalsWithEps(cache.get("quantized").get(), 6f / 255 / 2 * 1.001));
+        assertArrayEquals(array.shape(), cache.get("quantized").get().shape());
+    }
+
+    @Test
+    public void shouldClear() {
+        cache.put("foo", Nd4j.create(new float[]{1, 2, 3}));
+        cache.put("bar", Nd4j.empty());
+        assertEquals(2, cache.size());
+        assertFalse(cache.isEmpty());
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertTrue(cache.isEmpty());
+        assertFalse(cache.isCached("foo"));
+    }
+}
@@ -0,0 +1,90 @@
+package info.magnolia.ai.cache;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ArrayCodecTest {
+
+    @Test
+    public void shouldRoundTripFloat32Losslessly() {
+        float[] values = randomReluOutput(100, 1);
+
+        assertArrayEquals(values, roundTrip(ArrayCodec.FLOAT32, values), 0);
+    }
+
+    @Test
+    public void shouldRoundTripFloat16WithinHalfPrecision() {
+        float[] values = randomReluOutput(1000, 2);
+
+        float[] decoded = roundTrip(ArrayCodec.FLOAT16, values);
+
+        for (int i = 0; i < values.length; i++) assertEquals(values[i], decoded[i], Math.abs(values[i]) * 0x1p-11f);
+    }
+
+    @Test
+    public void shouldConvertSpecialHalfValues() {
+        assertEquals(0x3C00, ArrayCodec.toHalf(1f));
+        assertEquals(0x7BFF, ArrayCodec.toHalf(65504f));
+        assertEquals(0x7C00, ArrayCodec.toHalf(1e6f));
+        assertEquals((short) 0xFC00, ArrayCodec.toHalf(Float.NEGATIVE_INFINITY));
+        assertEquals(0x0001, ArrayCodec.toHalf(0x1p-24f));
+        assertEquals(0, ArrayCodec.toHalf(0x1p-26f));
+        assertTrue(Float.isNaN(ArrayCodec.fromHalf(ArrayCodec.toHalf(Float.NaN))));
+        // ties round to even
+        assertEquals(0x3C00, ArrayCodec.toHalf(1f + 0x1p-11f));
+        assertEquals(0x3C02, ArrayCodec.toHalf(1f + 3 * 0x1p-11f));
+
+        for (int half = 0; half < 0x7C00; half++) assertEquals(half, ArrayCodec.toHalf(ArrayCodec.fromHalf(half)));
+    }
+
+    @Test
+    public void shouldRoundTripInt8WithinHalfAStep() {
+        float[] values = randomReluOutput(1000, 3);
+        float max = 0;
+        for (float value : values) max = Math.max(max, value);
+
+        float[] decoded = roundTrip(ArrayCodec.INT8, values);
+
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], decoded[i], max / 255 / 2 * 1.001f);
+            if (values[i] == 0) assertEquals(0, decoded[i], 0);
+        }
+    }
+
+    @Test
+    public void shouldRoundTripConstantVectorWithInt8() {
+        assertArrayEquals(new float[]{2.5f, 2.5f}, roundTrip(ArrayCodec.INT8, new float[]{2.5f, 2.5f}), 0);
+    }
+
+    @Test
+    public void shouldLookUpById() {
+        for (ArrayCodec codec : ArrayCodec.values()) assertEquals(codec, ArrayCodec.forId(codec.getId()));
+    }
+
+    private static float[] roundTrip(ArrayCodec codec, float[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(codec.recordBytes(values.length)).order(ByteOrder.LITTLE_ENDIAN);
+        codec.encode(values, 0, values.length, buffer);
+        assertFalse(buffer.hasRemaining());
+
+        buffer.flip();
+        float[] decoded = new float[values.length];
+        codec.decode(buffer, decoded, 0, values.length);
+        assertFalse(buffer.hasRemaining());
+        return decoded;
+    }
+
+    /**
+     * Like fc2 activations: non-negative, mostly zero.
+     */
+    private static float[] randomReluOutput(int length, long seed) {
+        Random random = new Random(seed);
+        float[] values = new float[length];
+        for (int i = 0; i < length; i++) values[i] = (float) Math.max(0, random.nextGaussian() * 3);
+        return values;
+    }
+}
@@ -0,0 +1,55 @@
+package info.magnolia.ai.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentRegistryTest {
+
+    private static final String NAME = "content-registry-test";
+
+    private ContentRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new ContentRegistry(NAME);
+    }
+
+    @After
+    public void tearDown() {
+        registry.clear();
+    }
+
+    @Test
+    public void shouldFindDuplicates() {
+        registry.record("http://foo/a.jpg", new byte[]{1, 2, 3});
+        registry.record("http://foo/b.jpg", new byte[]{4, 5, 6});
+        registry.record("http://mirror/a.jpg", new byte[]{1, 2, 3});
+        // recording a key again does not make it a duplicate of itself
+        registry.record("http://foo/a.jpg", new byte[]{1, 2, 3});
+        assertEquals(registry.getContent("http://foo/a.jpg"), registry.getContent("http://mirror/a.jpg"));
+        assertNotEquals(registry.getContent("http://foo/a.jpg"), registry.getContent("http://foo/b.jpg"));
+        assertEquals(Optional.empty(), registry.getContent("http://foo/c.jpg"));
+        assertEquals(3, registry.size());
+        assertEquals(1, registry.getDuplicateCount());
+    }
+
+    @Test
+    public void shouldPersistContents() {
+        registry.record("http://foo/a.jpg", new byte[]{1, 2, 3});
+        registry.record("http://mirror/a.jpg", new byte[]{1, 2, 3});
+        registry.record("http://foo/b.jpg", new byte[]{4, 5, 6});
+        // content changed
+        registry.record("http://foo/b.jpg", new byte[]{1, 2, 3});
+
+        ContentRegistry reloaded = new ContentRegistry(NAME);
+
+        assertEquals(3, reloaded.size());
+        assertEquals(2, reloaded.getDuplicateCount());
+        assertEquals(registry.getContent("http://foo/a.jpg"), reloaded.getContent("http://foo/b.jpg"));
+    }
+}
@@ -0,0 +1,67 @@
+package info.magnolia.ai.cache;
+
+import static org.junit.Assert.*;
+
+import info.magnolia.ai.cache.FailureRegistry.Reason;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FailureRegistryTest {
+
+    private static final String NAME = "failure-registry-test";
+    private static final Duration TTL = Duration.ofDays(1);
+
+    private final Clock now = Clock.fixed(Instant.parse("2019-01-01T00:00:00Z"), ZoneOffset.UTC);
+
+    private FailureRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new FailureRegistry(NAME, TTL, now);
+    }
+
+    @After
+    public void tearDown() {
+        registry.clear();
+    }
+
+    @Test
+    public void shouldRecordFailure() {
+        assertFalse(registry.isFailed("http://foo"));
+
+        registry.record("http://foo", Reason.DECODE);
+
+        assertTrue(registry.isFailed("http://foo"));
+        assertEquals(Optional.of(Reason.DECODE), registry.getReason("http://foo"));
+        assertFalse(registry.isFailed("http://bar"));
+    }
+
+    @Test
+    public void shouldPersistFailures() {
+        registry.record("http://foo", Reason.DOWNLOAD);
+        registry.record("http://bar", Reason.DECODE);
+        registry.remove("http://bar");
+
+        FailureRegistry reloaded = new FailureRegistry(NAME, TTL, now);
+        assertEquals(Optional.of(Reason.DOWNLOAD), reloaded.getReason("http://foo"));
+        assertFalse(reloaded.isFailed("http://bar"));
+        assertEquals(1, reloaded.size());
+    }
+
+    @Test
+    public void shouldExpireFailures() {
+        registry.record("http://foo", Reason.DOWNLOAD);
+
+        Clock later = Clock.offset(now, TTL);
+        assertFalse(new FailureRegistry(NAME, TTL, later).isFailed("http://foo"));
+        assertTrue(new FailureRegistry(NAME, TTL, Clock.offset(now, TTL.minusMinutes(1))).isFailed("http://foo"));
+    }
+}
@@ -0,0 +1,64 @@
+package info.magnolia.ai.cache;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class LinesCacheTest {
+
+    private static final List<String> LINES = Arrays.asList("http://example.com/a.jpg", "http://example.com/b.jpg");
+
+    private LinesCache cache;
+
+    @After
+    public void tearDown() {
+        cache.clear();
+    }
+
+    @Test
+    public void shouldCache() {
+        cache = new LinesCache("lines-cache-test");
+
+        assertEquals(Optional.empty(), cache.get("foo"));
+        cache.put("foo", LINES);
+
+        assertEquals(LINES, cache.get("foo").get());
+        assertFalse(cache.isStale("foo"));
+    }
+
+    @Test
+    public void shouldBeFreshWithinTtl() {
+        cache = new LinesCache("lines-cache-test", Duration.ofDays(1));
+        cache.put("foo", LINES);
+
+        assertFalse(cache.isStale("foo"));
+    }
+
+    @Test
+    public void shouldBeStaleAfterTtl() {
+        cache = new LinesCache("lines-cache-test", Duration.ZERO);
+        cache.put("foo", LINES);
+
+        assertTrue(cache.isStale("foo"));
+        // still served, e.g. as fallback
+        assertEquals(LINES, cache.get("foo").get());
+    }
+
+    @Test
+    public void shouldCacheLongKeys() {
+        cache = new LinesCache("lines-cache-test");
+        StringBuilder key = new StringBuilder("http://example.com/");
+        while (key.length() < 70_000) key.append("very-long-path/");
+
+        cache.put(key.toString(), LINES);
+
+        assertTrue(cache.isCached(key.toString()));
+        assertEquals(LINES, cache.get(key.toString()).get());
+    }
+}
@@ -0,0 +1,147 @@
+package info.magnolia.ai.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class ShardedArrayCacheTest {
+
+    private static final String DIR_NAME = "sharded-array-cache-test";
+
+    private ArrayCache legacyCache;
+    private ShardedArrayCache cache;
+
+    @Before
+    public void setUp() {
+        legacyCache = new ArrayCache("sharded-array-cache-test-legacy");
+        cache = new ShardedArrayCache(DIR_NAME, 3, 2, legacyCache);
+    }
+
+    @After
+    public void tearDown() {
+        cache.clear();
+        legacyCache.clear();
+    }
+
+    @Test
+    public void shouldCache() {
+        INDArray array = Nd4j.create(new float[]{1, 2, 3});
+
+        assertFalse(cache.isCached("foo"));
+        assertEquals(Optional.empty(), cache.get("foo"));
+
+        cache.put("foo", array);
+
+        assertTrue(cache.isCached("foo"));
+        assertEquals(array, cache.get("foo").get());
+    }
+
+    @Test
+    public void shouldCacheEmptyArray() {
+        assertFalse(cache.isCached("empty"));
+        assertEquals(Optional.empty(), cache.get("empty"));
+
+        cache.put("empty", Nd4j.empty());
+
+        assertTrue(cache.isCached("empty"));
+        assertEquals(Nd4j.empty(), cache.get("empty").get());
+    }
+
+    @Test
+    public void shouldCacheWithHalfPrecision() {
+        ShardedArrayCache halfCache = new ShardedArrayCache(DIR_NAME + "-half", 3, ArrayCodec.FLOAT16, 2, null);
+        try {
+            halfCache.put("foo", Nd4j.create(new float[]{1, 2.5f, 1000}));
+
+            assertEquals(6, halfCache.getRecordBytes());
+            assertEquals(Nd4j.create(new float[]{1, 2.5f, 1000}), halfCache.get("foo").get());
+        } finally {
+            halfCache.clear();
+        }
+    }
+
+    @Test
+    public void shouldSpillIntoFurtherShards() {
+        for (int i = 0; i < 5; i++)
+            cache.put("key" + i, Nd4j.create(new float[]{i, i + 1, i + 2}));
+
+        for (int i = 0; i < 5; i++)
+            assertEquals(Nd4j.create(new float[]{i, i + 1, i + 2}), cache.get("key" + i).get());
+    }
+
+    @Test
+    public void shouldReloadFromIndex() {
+        cache.put("foo", Nd4j.create(new float[]{1, 2, 3}));
+        cache.put("bar", Nd4j.create(new float[]{4, 5, 6}));
+        cache.put("baz", Nd4j.create(new float[]{7, 8, 9}));
+        cache.put("empty", Nd4j.empty());
+        cache.remove("bar");
+        cache.flush();
+
+        ShardedArrayCache reopened = new ShardedArrayCache(DIR_NAME, 3, 2, null);
+        assertEquals(Nd4j.create(new float[]{1, 2, 3}), reopened.get("foo").get());
+        assertFalse(reopened.isCached("bar"));
+        assertEquals(Nd4j.create(new float[]{7, 8, 9}), reopened.get("baz").get());
+        assertEquals(Nd4j.empty(), reopened.get("empty").get());
+
+        // appending continues after the last record rather than overwriting it
+        reopened.put("qux", Nd4j.create(new float[]{10, 11, 12}));
+        assertEquals(Nd4j.create(new float[]{7, 8, 9}), reopened.get("baz").get());
+        assertEquals(Nd4j.create(new float[]{10, 11, 12}), reopened.get("qux").get());
+    }
+
+    @Test
+    public void shouldMigrateLegacyEntries() {
+        INDArray array = Nd4j.create(new float[]{1, 2, 3});
+        legacyCache.put("foo", array);
+        cache = new ShardedArrayCache(DIR_NAME, 3, 2, legacyCache);
+
+        assertTrue(cache.isCached("foo"));
+        assertEquals(array, cache.get("foo").get());
+        // only deleted once the migrated entry is durable
+        assertTrue(legacyCache.isCached("foo"));
+        cache.flush();
+        assertFalse(legacyCache.isCached("foo"));
+        assertEquals(array, cache.get("foo").get());
+    }
+
+    @Test
+    public void shouldOnlyIndexFlushedEntries() {
+        cache.put("foo", Nd4j.create(new float[]{1, 2, 3}));
+        assertFalse(new ShardedArrayCache(DIR_NAME, 3, 2, null).isCached("foo"));
+
+        cache.flush();
+        assertEquals(Nd4j.create(new float[]{1, 2, 3}), new ShardedArrayCache(DIR_NAME, 3, 2, null).get("foo").get());
+    }
+
+    @Test
+    public void shouldStopConsultingLegacyCacheOnceMigrated() {
+        legacyCache.put("foo", Nd4j.create(new float[]{1, 2, 3}));
+        cache = new ShardedArrayCache(DIR_NAME, 3, 2, legacyCache);
+        cache.get("foo");
+
+        legacyCache.put("bar", Nd4j.create(new float[]{4, 5, 6}));
+
+        assertFalse(cache.isCached("bar"));
+        assertEquals(Optional.empty(), cache.get("bar"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectTooLongKey() {
+        StringBuilder key = new StringBuilder();
+        while (key.length() <= 0xFFFF) key.append("very-long-key/");
+
+        cache.put(key.toString(), Nd4j.create(new float[]{1, 2, 3}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectArrayOfWrongLength() {
+        cache.put("foo", Nd4j.create(new float[]{1, 2}));
+    }
+}
@@ -0,0 +1,68 @@
+package info.magnolia.ai.cache;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedPixelCacheTest {
+
+    private static final String DIR_NAME = "sharded-pixel-cache-test";
+
+    private ShardedPixelCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new ShardedPixelCache(DIR_NAME, 4, 2);
+    }
+
+    @After
+    public void tearDown() {
+        cache.clear();
+    }
+
+    @Test
+    public void shouldCachePixels() {
+        ByteBuffer pixels = ByteBuffer.wrap(new byte[]{0, 127, (byte) 128, (byte) 255});
+
+        assertEquals(Optional.empty(), cache.get("foo"));
+
+        cache.put("foo", pixels);
+
+        ByteBuffer cached = cache.get("foo").get();
+        assertTrue(cached.isReadOnly());
+        assertEquals(pixels, cached);
+        assertEquals(0, pixels.position());
+    }
+
+    @Test
+    public void shouldCacheEmptyPixelsWithoutRecord() {
+        cache.put("failed", ByteBuffer.allocate(0));
+
+        assertTrue(cache.isCached("failed"));
+        assertFalse(cache.get("failed").get().hasRemaining());
+        assertEquals(0, cache.getRecordBytesInUse());
+    }
+
+    @Test
+    public void shouldSurviveReopening() {
+        for (int i = 0; i < 5; i++) cache.put("key" + i, ByteBuffer.wrap(new byte[]{(byte) i, 1, 2, 3}));
+        cache.flush();
+
+        ShardedPixelCache reopened = new ShardedPixelCache(DIR_NAME, 4, 2);
+
+        assertEquals(5, reopened.size());
+        assertEquals(20, reopened.getRecordBytesInUse());
+        for (int i = 0; i < 5; i++)
+            assertEquals(ByteBuffer.wrap(new byte[]{(byte) i, 1, 2, 3}), reopened.get("key" + i).get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectWrongSize() {
+        cache.put("foo", ByteBuffer.wrap(new byte[]{1, 2, 3}));
+    }
+}
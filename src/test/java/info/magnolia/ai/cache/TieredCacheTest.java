@@ -0,0 +1,103 @@
+package info.magnolia.ai.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class TieredCacheTest {
+
+    private static final INDArray ARRAY = Nd4j.create(new float[]{1, 2, 3});
+
+    private ArrayCache backingCache;
+    private TieredCache<INDArray> cache;
+
+    @Before
+    public void setUp() {
+        backingCache = new ArrayCache("tiered-cache-test");
+        // room for exactly two arrays
+        cache = new TieredCache<>(backingCache, 2 * ArrayCache.sizeInBytes(ARRAY), ArrayCache::sizeInBytes);
+    }
+
+    @After
+    public void tearDown() {
+        cache.clear();
+    }
+
+    @Test
+    public void shouldCache() {
+        assertFalse(cache.isCached("foo"));
+        assertEquals(Optional.empty(), cache.get("foo"));
+
+        cache.put("foo", ARRAY);
+
+        assertTrue(cache.isCached("foo"));
+        assertEquals(ARRAY, cache.get("foo").get());
+        assertTrue(backingCache.isCached("foo"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() {
+        cache.put("foo", ARRAY);
+        cache.put("bar", ARRAY);
+        cache.get("foo");
+        cache.put("baz", ARRAY);
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2 * ArrayCache.sizeInBytes(ARRAY), cache.getBytes());
+
+        cache.get("foo");
+        cache.get("baz");
+        assertEquals(3, cache.getHits());
+
+        // evicted entry is still served by backing cache, and kept in memory again
+        assertEquals(ARRAY, cache.get("bar").get());
+        assertEquals(1, cache.getMisses());
+        cache.get("bar");
+        assertEquals(4, cache.getHits());
+    }
+
+    @Test
+    public void shouldNotKeepOversizedEntriesInMemory() {
+        cache.put("large", Nd4j.create(new float[100]));
+
+        assertEquals(0, cache.getBytes());
+        assertTrue(cache.isCached("large"));
+    }
+
+    @Test
+    public void shouldRemove() {
+        cache.put("foo", ARRAY);
+        cache.remove("foo");
+
+        assertFalse(cache.isCached("foo"));
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void shouldNotReplaceNewerItemWithStaleRead() {
+        INDArray newer = Nd4j.create(new float[]{4, 5, 6});
+        ArrayCache racingCache = new ArrayCache("tiered-cache-test") {
+            @Override
+            public Optional<INDArray> get(String key) {
+                Optional<INDArray> stale = super.get(key);
+                // a put overtaking the read
+                cache.put(key, newer);
+                return stale;
+            }
+        };
+        racingCache.put("foo", ARRAY);
+        cache = new TieredCache<>(racingCache, 2 * ArrayCache.sizeInBytes(ARRAY), ArrayCache::sizeInBytes);
+
+        cache.get("foo");
+
+        assertEquals(newer, cache.get("foo").get());
+    }
+}
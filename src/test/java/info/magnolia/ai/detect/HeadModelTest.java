@@ -0,0 +1,96 @@
+package info.magnolia.ai.detect;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+public class HeadModelTest {
+
+    private static final int INPUT_SIZE = 64;
+    private static final List<String> LABELS = Arrays.asList("cat", "dog", "bird", "fish", "horse");
+
+    private ComputationGraph network;
+
+    @Before
+    public void setUp() {
+        network = buildNetwork(Activation.TANH);
+    }
+
+    private static ComputationGraph buildNetwork(Activation activation) {
+        ComputationGraph network = new ComputationGraph(new NeuralNetConfiguration.Builder().seed(42).graphBuilder()
+                .addInputs("fc2")
+                .addLayer("predictions", new OutputLayer.Builder(LossFunctions.LossFunction.SQUARED_LOSS)
+                        .nOut(LABELS.size())
+                        .activation(activation)
+                        .build(), "fc2")
+                .setOutputs("predictions")
+                .setInputTypes(InputType.feedForward(INPUT_SIZE))
+                .build());
+        network.init();
+        return network;
+    }
+
+    @Test
+    public void shouldScoreLikeNetwork() {
+        INDArray features = Nd4j.rand(7, INPUT_SIZE).subi(0.5);
+        INDArray expected = network.outputSingle(features);
+
+        HeadModel head = HeadModel.fromNetwork(network, LABELS);
+        float[] scores = new float[7 * LABELS.size()];
+        head.score(features.dup('c').data().asFloat(), 7, scores);
+
+        assertArrayEquals(expected.dup('c').data().asFloat(), scores, 1e-5f);
+    }
+
+    @Test
+    public void shouldScoreSingleVector() {
+        INDArray features = Nd4j.rand(1, INPUT_SIZE);
+        INDArray expected = network.outputSingle(features);
+
+        float[] scores = new float[LABELS.size()];
+        HeadModel.fromNetwork(network, LABELS).score(features.data().asFloat(), scores);
+
+        assertArrayEquals(expected.data().asFloat(), scores, 1e-5f);
+    }
+
+    @Test
+    public void shouldWriteAndRead() throws IOException {
+        HeadModel head = HeadModel.fromNetwork(network, LABELS);
+        File file = File.createTempFile("head-model-test", ".bin");
+        try {
+            head.write(file);
+            HeadModel read = HeadModel.read(file);
+
+            assertEquals(LABELS, read.getLabels());
+            assertEquals(INPUT_SIZE, read.getInputSize());
+
+            float[] features = Nd4j.rand(1, INPUT_SIZE).data().asFloat();
+            float[] expected = new float[LABELS.size()];
+            float[] actual = new float[LABELS.size()];
+            head.score(features, expected);
+            read.score(features, actual);
+            assertArrayEquals(expected, actual, 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectOtherActivations() {
+        HeadModel.fromNetwork(buildNetwork(Activation.SOFTMAX), LABELS);
+    }
+}
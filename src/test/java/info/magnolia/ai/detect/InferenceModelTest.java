@@ -0,0 +1,83 @@
+package info.magnolia.ai.detect;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.transferlearning.TransferLearning;
+import org.deeplearning4j.util.ModelSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+public class InferenceModelTest {
+
+    private ComputationGraph network;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        ComputationGraph pretrained = new ComputationGraph(new NeuralNetConfiguration.Builder().seed(42).graphBuilder()
+                .addInputs("input")
+                .addLayer("fc2", new DenseLayer.Builder().nOut(16).build(), "input")
+                .addLayer("predictions", new OutputLayer.Builder(LossFunctions.LossFunction.SQUARED_LOSS)
+                        .nOut(4)
+                        .activation(Activation.TANH)
+                        .build(), "fc2")
+                .setOutputs("predictions")
+                .setInputTypes(InputType.feedForward(32))
+                .build());
+        pretrained.init();
+        network = new TransferLearning.GraphBuilder(pretrained).setFeatureExtractor("fc2").build();
+        file = File.createTempFile("inference-model-test", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void shouldWriteAndLoad() throws IOException {
+        InferenceModel.write(network, file);
+
+        assertTrue(InferenceModel.isInferenceModel(file));
+        ComputationGraph loaded = InferenceModel.load(file);
+
+        assertEquals(network.params(), loaded.params());
+        INDArray input = Nd4j.rand(5, 32);
+        assertEquals(network.outputSingle(input), loaded.outputSingle(input));
+    }
+
+    @Test
+    public void shouldRestoreRegularModel() throws IOException {
+        ModelSerializer.writeModel(network, file, true);
+
+        assertFalse(InferenceModel.isInferenceModel(file));
+        ComputationGraph restored = InferenceModel.restore(file);
+
+        INDArray input = Nd4j.rand(5, 32);
+        assertEquals(network.outputSingle(input), restored.outputSingle(input));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectTruncatedFile() throws IOException {
+        InferenceModel.write(network, file);
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(truncated.length() - 4);
+        }
+
+        InferenceModel.load(file);
+    }
+}
@@ -0,0 +1,42 @@
+package info.magnolia.ai.detect;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyStatsTest {
+
+    private static final long MILLIS = 1000000;
+
+    @Test
+    public void shouldReturnZeroWithoutMeasurements() {
+        LatencyStats stats = new LatencyStats(10);
+
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getPercentile(50), 0);
+    }
+
+    @Test
+    public void shouldComputePercentiles() {
+        LatencyStats stats = new LatencyStats(100);
+        // recorded out of order
+        for (int i = 100; i >= 1; i--) stats.record(i * MILLIS);
+
+        assertEquals(100, stats.getCount());
+        assertEquals(1, stats.getPercentile(0), 0);
+        assertEquals(50, stats.getPercentile(50), 0);
+        assertEquals(99, stats.getPercentile(99), 0);
+        assertEquals(100, stats.getPercentile(100), 0);
+    }
+
+    @Test
+    public void shouldOnlyConsiderMostRecentWindow() {
+        LatencyStats stats = new LatencyStats(4);
+        for (int i = 0; i < 10; i++) stats.record(1000 * MILLIS);
+        for (int i = 1; i <= 4; i++) stats.record(i * MILLIS);
+
+        assertEquals(14, stats.getCount());
+        assertEquals(2, stats.getPercentile(50), 0);
+        assertEquals(4, stats.getPercentile(99), 0);
+    }
+}
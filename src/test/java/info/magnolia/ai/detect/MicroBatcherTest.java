@@ -0,0 +1,127 @@
+package info.magnolia.ai.detect;
+
+import static org.junit.Assert.*;
+
+import info.magnolia.ai.detect.Recognition.Prediction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class MicroBatcherTest {
+
+    private static final List<String> LABELS = Arrays.asList("cat", "dog", "bird", "fish", "horse");
+
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch predicting = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile boolean blocking;
+    private MicroBatcher batcher;
+
+    /**
+     * Recognizer with the stand-in network, which records batch sizes and optionally blocks until released.
+     */
+    private final Recognizer recognizer = new Recognizer(StandInNetwork.build(LABELS), LABELS, 32, 3) {
+        @Override
+        public List<List<Prediction>> predict(List<INDArray> decodedImages) {
+            batchSizes.add(decodedImages.size());
+            predicting.countDown();
+            if (blocking) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.predict(decodedImages);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (batcher != null) batcher.close();
+    }
+
+    @Test
+    public void shouldBatchUpToMaxSize() throws Exception {
+        batcher = new MicroBatcher(recognizer, 4, TimeUnit.MINUTES.toMillis(1), 16);
+
+        List<CompletableFuture<List<Prediction>>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) results.add(batcher.submit(image()));
+
+        // long before the max. wait time is up
+        for (CompletableFuture<List<Prediction>> result : results) assertEquals(3, result.get(10, TimeUnit.SECONDS).size());
+        assertEquals(Collections.singletonList(4), batchSizes);
+    }
+
+    @Test
+    public void shouldStopWaitingForMoreAfterMaxWaitTime() throws Exception {
+        batcher = new MicroBatcher(recognizer, 32, 50, 16);
+
+        long start = System.nanoTime();
+        batcher.submit(image()).get(10, TimeUnit.SECONDS);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(Collections.singletonList(1), batchSizes);
+    }
+
+    @Test
+    public void shouldRejectWhenQueueIsFull() throws Exception {
+        blocking = true;
+        batcher = new MicroBatcher(recognizer, 1, 0, 2);
+        CompletableFuture<List<Prediction>> first = batcher.submit(image());
+        predicting.await(10, TimeUnit.SECONDS);
+
+        CompletableFuture<List<Prediction>> second = batcher.submit(image());
+        CompletableFuture<List<Prediction>> third = batcher.submit(image());
+        assertEquals(2, batcher.getQueueDepth());
+        try {
+            batcher.submit(image());
+            fail("Expected rejection of an image beyond the queue's capacity");
+        } catch (RejectedExecutionException expected) {
+        }
+
+        release.countDown();
+        for (CompletableFuture<List<Prediction>> result : Arrays.asList(first, second, third))
+            assertEquals(3, result.get(10, TimeUnit.SECONDS).size());
+    }
+
+    @Test
+    public void shouldFailWaitingImagesOnClose() throws Exception {
+        blocking = true;
+        batcher = new MicroBatcher(recognizer, 1, 0, 2);
+        batcher.submit(image());
+        predicting.await(10, TimeUnit.SECONDS);
+        CompletableFuture<List<Prediction>> waiting = batcher.submit(image());
+
+        batcher.close();
+
+        try {
+            waiting.get(10, TimeUnit.SECONDS);
+            fail("Expected waiting image to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        try {
+            batcher.submit(image());
+            fail("Expected rejection after closing");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    private static INDArray image() {
+        return Nd4j.rand(new int[]{1, 3, 8, 8}).muli(255);
+    }
+}
@@ -0,0 +1,186 @@
+package info.magnolia.ai.detect;
+
+import static org.junit.Assert.*;
+
+import info.magnolia.ai.detect.Recognition.Prediction;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+public class RecognitionServerTest {
+
+    private static final List<String> LABELS = Arrays.asList("cat", "dog", "bird", "fish", "horse");
+    private static final int MAX_IMAGE_BYTES = 64 * 1024;
+
+    private RecognitionServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new RecognitionServer(StandInNetwork.build(LABELS), LABELS, 0, 16, MAX_IMAGE_BYTES);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void shouldRecognizeImage() throws IOException {
+        HttpURLConnection connection = post(jpeg(64, 48), false);
+
+        assertEquals(200, connection.getResponseCode());
+        String body = read(connection.getInputStream());
+        assertTrue(body, body.startsWith("{\"predictions\":[{\"label\":"));
+        awaitRequests(1);
+    }
+
+    @Test
+    public void shouldRejectUnreadableImage() throws IOException {
+        assertEquals(400, post("<html>Not found</html>".getBytes(StandardCharsets.UTF_8), false).getResponseCode());
+    }
+
+    @Test
+    public void shouldRejectTooLargeImage() throws IOException {
+        byte[] image = jpeg(1024, 768);
+        assertTrue(image.length > MAX_IMAGE_BYTES);
+
+        // by its declared length, and when reading a body of unknown length
+        assertEquals(413, post(image, false).getResponseCode());
+        assertEquals(413, post(image, true).getResponseCode());
+    }
+
+    @Test
+    public void shouldReportStats() throws IOException {
+        post(jpeg(64, 48), false).getResponseCode();
+        awaitRequests(1);
+
+        HttpURLConnection connection = (HttpURLConnection) url("/stats").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(read(connection.getInputStream()).startsWith("{\"requests\":1,"));
+    }
+
+    @Test
+    public void shouldOnlyAcceptPost() throws IOException {
+        assertEquals(405, ((HttpURLConnection) url("/recognize").openConnection()).getResponseCode());
+    }
+
+    @Test
+    public void shouldRejectWhenOverloaded() throws Exception {
+        CountDownLatch predicting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Recognizer blockingRecognizer = new Recognizer(StandInNetwork.build(LABELS), LABELS, 32, 3) {
+            @Override
+            public List<List<Prediction>> predict(List<INDArray> decodedImages) {
+                predicting.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.predict(decodedImages);
+            }
+        };
+        server.stop();
+        server = new RecognitionServer(blockingRecognizer, 0, 2, MAX_IMAGE_BYTES);
+        server.start();
+
+        byte[] image = jpeg(64, 48);
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            // the first image blocks recognition, then two more fit into the queue
+            Future<Integer> first = clients.submit(() -> post(image, false).getResponseCode());
+            assertTrue(predicting.await(10, TimeUnit.SECONDS));
+            List<Future<Integer>> flood = new ArrayList<>();
+            for (int i = 0; i < 8; i++) flood.add(clients.submit(() -> post(image, false).getResponseCode()));
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (server.getRejected() < 6 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            release.countDown();
+
+            assertEquals(200, (int) first.get(10, TimeUnit.SECONDS));
+            int rejected = 0;
+            for (Future<Integer> response : flood) {
+                int status = response.get(10, TimeUnit.SECONDS);
+                if (status == 503) rejected++;
+                else assertEquals(200, status);
+            }
+            assertEquals(6, rejected);
+            // rejections are not counted as served requests
+            awaitRequests(3);
+        } finally {
+            release.countDown();
+            clients.shutdownNow();
+        }
+    }
+
+    /**
+     * Latencies are recorded once responses are sent, i.e. possibly after they are received.
+     */
+    private void awaitRequests(long count) {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getLatencies().getCount() < count && System.currentTimeMillis() < deadline) Thread.yield();
+        assertEquals(count, server.getLatencies().getCount());
+    }
+
+    private HttpURLConnection post(byte[] body, boolean chunked) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url("/recognize").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        if (chunked) connection.setChunkedStreamingMode(4096);
+        else connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream stream = connection.getOutputStream()) {
+            stream.write(body);
+        } catch (IOException e) {
+            // the server may respond (and close) before the whole body is sent
+        }
+        return connection;
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://localhost:" + server.getPort() + path);
+    }
+
+    private static String read(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = stream.read(buffer)) != -1; ) bytes.write(buffer, 0, read);
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A JPEG of noise, which compresses poorly, i.e. is large for its size.
+     */
+    private static byte[] jpeg(int width, int height) throws IOException {
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++) image.setRGB(x, y, random.nextInt(1 << 24));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", bytes);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,176 @@
+package info.magnolia.ai.detect;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+import info.magnolia.ai.cache.Cache;
+import info.magnolia.ai.cache.Hashing;
+import info.magnolia.ai.detect.Recognition.Prediction;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.transferlearning.TransferLearningHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class RecognizerTest {
+
+    private static final List<String> LABELS = Arrays.asList("cat", "dog", "bird", "fish", "horse");
+    private static final int TOP_K = 3;
+
+    private File dir;
+    private ComputationGraph network;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("recognizer-test").toFile();
+        network = StandInNetwork.build(LABELS);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void shouldRecognizeInBatchesInOrder() throws IOException {
+        List<Path> images = new ArrayList<>();
+        for (int i = 0; i < 5; i++) images.add(image("image" + i + ".jpg", i));
+
+        List<Recognition> recognitions = new Recognizer(network, LABELS, 2, TOP_K).recognize(images);
+
+        assertEquals(images, recognitions.stream().map(Recognition::getImage).collect(toList()));
+        for (Recognition recognition : recognitions) assertSortedTopK(recognition.getPredictions());
+        // same as when recognized one by one, i.e. rows are not mixed up within or across batches
+        Recognizer single = new Recognizer(network, LABELS, 1, TOP_K);
+        for (int i = 0; i < images.size(); i++)
+            assertSamePredictions(single.recognize(Collections.singletonList(images.get(i))).get(0), recognitions.get(i));
+    }
+
+    @Test
+    public void shouldSkipUnreadableImages() throws IOException {
+        Path first = image("first.jpg", 1);
+        Path invalid = new File(dir, "invalid.jpg").toPath();
+        Files.write(invalid, "<html>Not found</html>".getBytes());
+        Path missing = new File(dir, "missing.jpg").toPath();
+        Path last = image("last.jpg", 2);
+
+        List<Recognition> recognitions = new Recognizer(network, LABELS, 4, TOP_K).recognize(Arrays.asList(first, invalid, missing, last));
+
+        assertEquals(Arrays.asList(first, last), recognitions.stream().map(Recognition::getImage).collect(toList()));
+    }
+
+    @Test
+    public void shouldSkipFrozenLayersForCachedFeatures() throws IOException {
+        ComputationGraph frozen = StandInNetwork.withFrozenLayers(LABELS);
+        Path first = image("first.jpg", 1);
+        Path invalid = new File(dir, "invalid.jpg").toPath();
+        Files.write(invalid, "<html>Not found</html>".getBytes());
+        Path last = image("last.jpg", 2);
+        List<Path> images = Arrays.asList(first, invalid, last);
+        Map<String, INDArray> featureCache = new ConcurrentHashMap<>();
+        Recognizer recognizer = new Recognizer(frozen, LABELS, 4, TOP_K, new MapCache(featureCache));
+
+        // cache misses: same as running the whole network
+        List<Recognition> recognitions = recognizer.recognize(images);
+        List<Recognition> uncached = new Recognizer(frozen, LABELS, 4, TOP_K).recognize(images);
+        assertEquals(2, recognitions.size());
+        for (int i = 0; i < recognitions.size(); i++) assertSamePredictions(uncached.get(i), recognitions.get(i));
+        assertEquals(2, featureCache.size());
+        String firstHash = Hashing.sha256Hex(Files.readAllBytes(first));
+        assertEquals(StandInNetwork.FEATURE_LENGTH, featureCache.get(firstHash).length());
+
+        // cache hits: predictions are made from the cached features alone
+        // unlike anything the stand-in network computes for these images
+        INDArray features = Nd4j.linspace(-1, 1, StandInNetwork.FEATURE_LENGTH).reshape(1, StandInNetwork.FEATURE_LENGTH);
+        featureCache.put(firstHash, features);
+        INDArray expectedScores = new TransferLearningHelper(frozen).outputFromFeaturized(features);
+        recognitions = recognizer.recognize(images);
+        assertEquals(2, featureCache.size());
+        Prediction best = recognitions.get(0).getPredictions().get(0);
+        assertEquals(expectedScores.maxNumber().floatValue(), best.getScore(), 1e-5f);
+        assertEquals(LABELS.get(expectedScores.argMax(1).getInt(0)), best.getLabel());
+        assertSamePredictions(uncached.get(1), recognitions.get(1));
+    }
+
+    /**
+     * A JPEG of a random colour, so that images differ in what the stand-in network sees.
+     */
+    private Path image(String name, long seed) throws IOException {
+        int colour = new Random(seed).nextInt(1 << 24);
+        BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++)
+            for (int x = 0; x < image.getWidth(); x++) image.setRGB(x, y, colour);
+
+        File file = new File(dir, name);
+        ImageIO.write(image, "jpg", file);
+        return file.toPath();
+    }
+
+    private static void assertSortedTopK(List<Prediction> predictions) {
+        assertEquals(TOP_K, predictions.size());
+        for (int i = 1; i < predictions.size(); i++)
+            assertTrue(predictions.get(i - 1).getScore() >= predictions.get(i).getScore());
+    }
+
+    private static void assertSamePredictions(Recognition expected, Recognition actual) {
+        assertEquals(expected.getImage(), actual.getImage());
+        for (int i = 0; i < TOP_K; i++) {
+            assertEquals(expected.getPredictions().get(i).getLabel(), actual.getPredictions().get(i).getLabel());
+            assertEquals(expected.getPredictions().get(i).getScore(), actual.getPredictions().get(i).getScore(), 1e-5f);
+        }
+    }
+
+    private static class MapCache implements Cache<INDArray> {
+        private final Map<String, INDArray> entries;
+
+        MapCache(Map<String, INDArray> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean isCached(String key) {
+            return entries.containsKey(key);
+        }
+
+        @Override
+        public Optional<INDArray> get(String key) {
+            return Optional.ofNullable(entries.get(key));
+        }
+
+        @Override
+        public void put(String key, INDArray item) {
+            entries.put(key, item);
+        }
+
+        @Override
+        public void remove(String key) {
+            entries.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package info.magnolia.ai.detect;
+
+import java.util.List;
+
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.GlobalPoolingLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.conf.layers.PoolingType;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.transferlearning.TransferLearning;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+/**
+ * Stand-in for the transfer network in tests, taking the same input but cheap to run: average colour, a hidden layer
+ * ({@code fc2}) and the output layer. As images are averaged, it takes images of any size.
+ */
+final class StandInNetwork {
+
+    static final int FEATURE_LENGTH = 8;
+
+    private StandInNetwork() {
+    }
+
+    static ComputationGraph build(List<String> labels) {
+        ComputationGraph network = new ComputationGraph(new NeuralNetConfiguration.Builder().seed(42).graphBuilder()
+                .addInputs("input")
+                .addLayer("pool", new GlobalPoolingLayer.Builder(PoolingType.AVG).build(), "input")
+                .addLayer("fc2", new DenseLayer.Builder().nOut(FEATURE_LENGTH).activation(Activation.RELU).build(), "pool")
+                .addLayer("predictions", new OutputLayer.Builder(LossFunctions.LossFunction.SQUARED_LOSS)
+                        .nOut(labels.size())
+                        .activation(Activation.TANH)
+                        .build(), "fc2")
+                .setOutputs("predictions")
+                .setInputTypes(InputType.convolutional(224, 224, 3))
+                .build());
+        network.init();
+        return network;
+    }
+
+    /**
+     * The stand-in network with all layers up to {@code fc2} frozen, like the transfer network.
+     */
+    static ComputationGraph withFrozenLayers(List<String> labels) {
+        return new TransferLearning.GraphBuilder(build(labels)).setFeatureExtractor("fc2").build();
+    }
+}
@@ -0,0 +1,161 @@
+package info.magnolia.ai.download;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class DownloaderTest {
+
+    private static final int MAX_PER_HOST = 2;
+
+    private HttpServer server;
+    private Downloader downloader;
+    private byte[] image;
+
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        image = syntheticImage();
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/image.png", exchange -> respond(exchange, 200, image, 0));
+        server.createContext("/slow-image.png", exchange -> respond(exchange, 200, image, 200));
+        server.createContext("/hanging.png", exchange -> respond(exchange, 200, image, 5000));
+        server.createContext("/missing.png", exchange -> respond(exchange, 404, "Not found".getBytes(), 0));
+        server.createContext("/urls.txt", exchange -> respond(exchange, 200, "http://a\n\nhttp://b\r\nhttp://c\n".getBytes(), 0));
+        server.start();
+
+        downloader = new Downloader(16, MAX_PER_HOST, 1000, 1000, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        downloader.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldDownloadImage() throws Exception {
+        byte[] body = downloader.download(url("/image.png")).get();
+
+        assertArrayEquals(image, body);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(body));
+        assertEquals(224, decoded.getWidth());
+    }
+
+    @Test
+    public void shouldReuseConnections() throws Exception {
+        for (int i = 0; i < 5; i++) downloader.download(url("/image.png")).get();
+
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void shouldLimitConcurrencyPerHost() throws Exception {
+        List<CompletableFuture<byte[]>> downloads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) downloads.add(downloader.download(url("/slow-image.png")));
+        for (CompletableFuture<byte[]> download : downloads) assertArrayEquals(image, download.get());
+
+        assertTrue(maxConcurrentRequests.get() <= MAX_PER_HOST);
+    }
+
+    @Test
+    public void shouldFailOnErrorStatus() throws InterruptedException {
+        try {
+            downloader.download(url("/missing.png")).get();
+            fail("Expected download to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void shouldTimeOut() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        try {
+            downloader.download(url("/hanging.png")).get();
+            fail("Expected download to time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue(System.currentTimeMillis() - start < 3000);
+    }
+
+    @Test
+    public void shouldFailOnInvalidUrl() throws InterruptedException {
+        try {
+            downloader.download("not a url").get();
+            fail("Expected download to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void shouldDownloadLines() throws IOException {
+        assertEquals(Arrays.asList("http://a", "http://b", "http://c"), downloader.downloadLines(url("/urls.txt")));
+    }
+
+    private void respond(HttpExchange exchange, int status, byte[] body, long delay) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        // only count the handler's work: once the body is written, the client may already reuse the connection
+        maxConcurrentRequests.accumulateAndGet(concurrentRequests.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            concurrentRequests.decrementAndGet();
+        }
+        try {
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream stream = exchange.getResponseBody()) {
+                stream.write(body);
+            }
+        } catch (IOException e) {
+            // client gave up
+        }
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    private static byte[] syntheticImage() throws IOException {
+        BufferedImage image = new BufferedImage(224, 224, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 224; x++)
+            for (int y = 0; y < 224; y++)
+                image.setRGB(x, y, x << 16 | y << 8 | (x + y) & 0xFF);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,91 @@
+package info.magnolia.ai.image;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.datavec.image.loader.NativeImageLoader;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.preprocessor.VGG16ImagePreProcessor;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class ImageDecoderTest {
+
+    private final ImageDecoder decoder = new ImageDecoder(32, 24);
+    private final InputBatchPool pool = decoder.createPool(1, 4);
+
+    @Test
+    public void shouldDecodeLikeImageLoaderAndPreProcessor() throws IOException {
+        byte[] jpeg = encode(200, 150, "jpg", 42);
+        InputBatch batch = pool.take();
+
+        decoder.decodeInto(jpeg, batch, 2);
+
+        assertEquals(expected(jpeg), batch.rows(2, 3));
+    }
+
+    @Test
+    public void shouldFallBackForFormatsUnknownToOpenCv() throws IOException {
+        byte[] gif = encode(64, 64, "gif", 7);
+        InputBatch batch = pool.take();
+
+        decoder.decodeInto(gif, batch, 0);
+
+        assertTrue(batch.rows(0, 1).equalsWithEps(expected(gif), 1e-3));
+    }
+
+    @Test
+    public void shouldRebuildInputFromStoredPixels() throws IOException {
+        byte[] jpeg = encode(200, 150, "jpg", 42);
+        ByteBuffer stored = ByteBuffer.allocateDirect(32 * 24 * ImageDecoder.CHANNELS);
+        stored.put(decoder.decode(jpeg));
+        stored.flip();
+        InputBatch batch = pool.take();
+
+        decoder.writeInto(stored, batch, 1);
+
+        assertEquals(expected(jpeg), batch.rows(1, 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectInvalidImage() throws IOException {
+        decoder.decodeInto("<html>Not found</html>".getBytes(), pool.take(), 0);
+    }
+
+    @Test
+    public void shouldCopyRowsWithinBatch() throws IOException {
+        InputBatch batch = pool.take();
+        decoder.decodeInto(encode(50, 40, "jpg", 1), batch, 3);
+
+        batch.copyRow(3, 1);
+
+        assertEquals(batch.rows(3, 4), batch.rows(1, 2));
+        pool.release(batch);
+        assertEquals(1, pool.getAvailable());
+    }
+
+    private static INDArray expected(byte[] image) throws IOException {
+        INDArray matrix = new NativeImageLoader(32, 24, 3).asMatrix(new ByteArrayInputStream(image));
+        new VGG16ImagePreProcessor().transform(matrix);
+        return matrix;
+    }
+
+    private static byte[] encode(int width, int height, String format, long seed) throws IOException {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) image.setRGB(x, y, (255 * x / width) << 16 | random.nextInt(256) << 8 | 255 * y / height);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, format, bytes);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,32 @@
+package info.magnolia.ai.metrics;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+    @Test
+    public void shouldReuseMetricsByName() {
+        assertSame(Metrics.timer("test.reuse"), Metrics.timer("test.reuse"));
+        assertSame(Metrics.counter("test.reuse"), Metrics.counter("test.reuse"));
+        assertTrue(Metrics.getTimers().containsKey("test.reuse"));
+        assertTrue(Metrics.getCounters().containsKey("test.reuse"));
+    }
+
+    @Test
+    public void shouldExposeMetricsOverJmx() throws JMException {
+        Metrics.timer("test.jmx.example.com").record(2_000_000);
+        Metrics.counter("test.jmx.example.com").add(3);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, server.getAttribute(Metrics.objectName("Timer", "test.jmx.example.com"), "Count"));
+        assertEquals(2.0, (Double) server.getAttribute(Metrics.objectName("Timer", "test.jmx.example.com"), "MaxMillis"), 1e-9);
+        assertEquals(3L, server.getAttribute(Metrics.objectName("Counter", "test.jmx.example.com"), "Count"));
+    }
+}
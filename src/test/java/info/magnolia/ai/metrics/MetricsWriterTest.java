@@ -0,0 +1,70 @@
+package info.magnolia.ai.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MetricsWriterTest {
+
+    private final Clock clock = Clock.fixed(Instant.parse("2019-01-01T00:00:00Z"), ZoneOffset.UTC);
+    private File file;
+
+    @BeforeClass
+    public static void recordMetrics() {
+        Metrics.timer("test.writer").record(1_500_000);
+        Metrics.counter("test.writer,hits").add(7);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("metrics-writer-test", ".out");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void shouldAppendCsvRows() throws IOException {
+        try (MetricsWriter writer = new MetricsWriter(file, MetricsWriter.Format.CSV, Duration.ofHours(1), clock)) {
+            writer.write();
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertTrue(lines.get(0).startsWith("time,metric,type,count,"));
+        assertEquals(1, lines.stream().filter(line -> line.startsWith("time,")).count());
+        List<String> timerRows = lines.stream().filter(line -> line.contains(",test.writer,")).collect(Collectors.toList());
+        // one explicit write, one on closing
+        assertEquals(2, timerRows.size());
+        assertTrue(timerRows.get(0), timerRows.get(0).startsWith("2019-01-01T00:00:00Z,test.writer,timer,1,1.500,1.500,"));
+        assertTrue(lines.contains("2019-01-01T00:00:00Z,\"test.writer,hits\",counter,7,,,,,,"));
+    }
+
+    @Test
+    public void shouldAppendJsonLines() throws IOException {
+        new MetricsWriter(file, MetricsWriter.Format.JSON_LINES, Duration.ofHours(1), clock).close();
+
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals(1, lines.size());
+        String line = lines.get(0);
+        assertTrue(line, line.startsWith("{\"time\":\"2019-01-01T00:00:00Z\",\"timers\":{"));
+        assertTrue(line, line.contains("\"test.writer\":{\"count\":1,\"totalMs\":1.500,"));
+        assertTrue(line, line.contains("\"test.writer,hits\":7"));
+        assertTrue(line, line.endsWith("}}"));
+    }
+}
@@ -0,0 +1,44 @@
+package info.magnolia.ai.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TimerTest {
+
+    @Test
+    public void shouldComputePercentilesWithinBucketPrecision() {
+        Timer timer = new Timer();
+        // 1ms to 100ms
+        for (int i = 1; i <= 100; i++) timer.record(i * 1_000_000L);
+
+        assertEquals(100, timer.getCount());
+        assertEquals(5050, timer.getTotalMillis(), 1e-9);
+        assertEquals(50.5, timer.getMeanMillis(), 1e-9);
+        assertEquals(100, timer.getMaxMillis(), 1e-9);
+        assertEquals(50, timer.getP50Millis(), 50 * 0.25);
+        assertEquals(90, timer.getP90Millis(), 90 * 0.25);
+        assertEquals(99, timer.getP99Millis(), 99 * 0.25);
+        // never beyond the max. recorded
+        assertEquals(100, timer.getPercentileMillis(100), 1e-9);
+    }
+
+    @Test
+    public void shouldBeZeroWithoutRecords() {
+        Timer timer = new Timer();
+
+        assertEquals(0, timer.getCount());
+        assertEquals(0, timer.getMeanMillis(), 0);
+        assertEquals(0, timer.getP99Millis(), 0);
+    }
+
+    @Test
+    public void shouldCountEveryDurationInBucketCoveringIt() {
+        long[] durations = {0, 1, 1023, 1024, 1279, 1280, 123_456_789, Long.MAX_VALUE};
+        for (long nanos : durations) {
+            int bucket = Timer.bucket(nanos);
+            assertTrue(nanos + " above bucket", nanos <= Timer.upperBound(bucket) || bucket == Timer.bucket(Long.MAX_VALUE));
+            assertTrue(nanos + " below bucket", bucket == 0 || nanos > Timer.upperBound(bucket - 1));
+        }
+    }
+}